@@ -0,0 +1,113 @@
+package benchmark;
+
+import adduct.Adduct;
+import adduct.AdductDescriptor;
+import adduct.AdductRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mass conversions of Adduct, per adduct: the String overloads used by the rules (registry lookup and boxing)
+ * against the AdductDescriptor overloads. Run with -prof gc (or HotPathBenchmarks) to see the allocation per call
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AdductMathBenchmark {
+
+    private static final int VALUES = 1024;
+
+    @Param({"[M+H]+", "[M+Na]+", "[M+2H]2+", "[2M+H]+", "[M-H]−", "[M+Cl]−"})
+    public String adduct;
+
+    private AdductDescriptor descriptor;
+    private double[] mz;
+    private double[] masses;
+    private Double[] boxedMz; // Boxed once, as values read from Annotation getters would be
+    private Double[] boxedMasses;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        descriptor = AdductRegistry.get(adduct);
+        if (descriptor == null) {
+            throw new IllegalArgumentException("Unknown adduct " + adduct);
+        }
+        Random random = new Random(42);
+        mz = new double[VALUES];
+        masses = new double[VALUES];
+        boxedMz = new Double[VALUES];
+        boxedMasses = new Double[VALUES];
+        for (int i = 0; i < VALUES; i++) {
+            mz[i] = 400 + random.nextDouble() * 800;
+            masses[i] = Adduct.getMonoisotopicMassFromMZ(mz[i], descriptor);
+            boxedMz[i] = mz[i];
+            boxedMasses[i] = masses[i];
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public void massFromMzByName(Blackhole blackhole) {
+        for (Double value : boxedMz) {
+            blackhole.consume(Adduct.getMonoisotopicMassFromMZ(value, adduct));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public void massFromMz(Blackhole blackhole) {
+        for (double value : mz) {
+            blackhole.consume(Adduct.getMonoisotopicMassFromMZ(value, descriptor));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public void mzFromMassByName(Blackhole blackhole) {
+        for (Double value : boxedMasses) {
+            blackhole.consume(Adduct.getMZFromMonoisotopicMass(value, adduct));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public void mzFromMass(Blackhole blackhole) {
+        for (double value : masses) {
+            blackhole.consume(Adduct.getMZFromMonoisotopicMass(value, descriptor));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public void ppmIncrement(Blackhole blackhole) {
+        for (int i = 0; i < VALUES; i++) {
+            blackhole.consume(Adduct.calculatePPMIncrement(mz[i], mz[VALUES - 1 - i]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public void deltaPpm(Blackhole blackhole) {
+        for (double value : masses) {
+            blackhole.consume(Adduct.calculateDeltaPPM(value, 10));
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package benchmark;
+
+import lipid.FormulaMassCalculator;
+import lipid.Lipid;
+import lipid.LipidType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Formulas parsed per second on one thread: the target is at least one million (below 1000 ns/op)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FormulaMassBenchmark {
+
+    private static final int FORMULAS = 4096;
+
+    private String[] formulas;
+    private Lipid[] lipids;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Random random = new Random(42);
+        formulas = new String[FORMULAS];
+        for (int i = 0; i < FORMULAS; i++) {
+            // Glycerophospholipid and glycerolipid like formulas
+            formulas[i] = "C" + (30 + random.nextInt(40)) + "H" + (60 + random.nextInt(60))
+                    + (random.nextBoolean() ? "NO8P" : "O6");
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void newLipids() {
+        // Fresh lipids every iteration: the first call on each one goes through the cache, the rest read the memoized mass
+        lipids = new Lipid[FORMULAS];
+        for (int i = 0; i < FORMULAS; i++) {
+            lipids[i] = new Lipid(i, "L" + i, formulas[i], LipidType.TG, 54, 3);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FORMULAS)
+    public void parse(Blackhole blackhole) {
+        for (String formula : formulas) {
+            blackhole.consume(FormulaMassCalculator.calculateMonoisotopicMass(formula));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FORMULAS)
+    public void cached(Blackhole blackhole) {
+        for (String formula : formulas) {
+            blackhole.consume(FormulaMassCalculator.getMonoisotopicMass(formula));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FORMULAS)
+    public void lipidMass(Blackhole blackhole) {
+        for (Lipid lipid : lipids) {
+            blackhole.consume(lipid.getMonoisotopicMass());
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the adduct math and peak processing benchmarks with the GC profiler, so every result has its allocation rate
+ * (gc.alloc.rate.norm, bytes per operation) next to its time per operation
+ * Usage: java -cp benchmarks/target/benchmarks.jar benchmark.HotPathBenchmarks [results.csv]
+ */
+public class HotPathBenchmarks {
+
+    private HotPathBenchmarks() {
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .include(AdductMathBenchmark.class.getSimpleName())
+                .include(PeakProcessingBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class);
+        if (args.length > 0) {
+            options.resultFormat(ResultFormatType.CSV).result(args[0]); // To compare runs and spot regressions
+        }
+        new Runner(options.build()).run();
+    }
+}
@@ -0,0 +1,95 @@
+package benchmark;
+
+import adduct.Adduct;
+import adduct.AdductDescriptor;
+import adduct.AdductRegistry;
+import lipid.Annotation;
+import lipid.Lipid;
+import lipid.LipidType;
+import lipid.Peak;
+import lipid.PeakList;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.LinkedHashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deisotoping and adduct detection of one annotation, by number of grouped peaks and adduct of the annotated m/z
+ * The group holds the other adducts of the polarity for the same neutral mass, two 13C isotopes of each,
+ * and random noise up to peakCount. Run with -prof gc (or HotPathBenchmarks) to see the allocation per call
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PeakProcessingBenchmark {
+
+    private static final double NEUTRAL_MASS = 884.78329; // TG 54:3
+
+    @Param({"4", "16", "64", "256"})
+    public int peakCount;
+
+    @Param({"[M+H]+", "[M+Na]+", "[M-H]−"})
+    public String adduct;
+
+    private Annotation annotation;
+    private Set<Peak> peakSet;
+    private PeakList peakList;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        AdductDescriptor descriptor = AdductRegistry.get(adduct);
+        if (descriptor == null) {
+            throw new IllegalArgumentException("Unknown adduct " + adduct);
+        }
+        Random random = new Random(42);
+        Set<Peak> peaks = new LinkedHashSet<>();
+        for (AdductDescriptor other : AdductRegistry.forMode(descriptor.getPolarity())) {
+            double mz = Adduct.getMZFromMonoisotopicMass(NEUTRAL_MASS, other);
+            double intensity = 1.0e5 + random.nextDouble() * 1.0e6;
+            for (int isotope = 0; isotope < 3 && peaks.size() < peakCount; isotope++) {
+                peaks.add(new Peak(mz + isotope * 1.0033548 / other.getCharge(), intensity / (isotope + 1)));
+            }
+        }
+        while (peaks.size() < peakCount) {
+            peaks.add(new Peak(200 + random.nextDouble() * 1600, random.nextDouble() * 1.0e5));
+        }
+        peakSet = new TreeSet<>(peaks); // Ordered by m/z, as deisotopePeaks(Set, int) expects
+        peakList = PeakList.of(peaks);
+        Lipid lipid = new Lipid(1, "TG 54:3", "C57H104O6", LipidType.TG, 54, 3);
+        annotation = new Annotation(lipid, Adduct.getMZFromMonoisotopicMass(NEUTRAL_MASS, descriptor), 1.0e6, 10d,
+                descriptor.getPolarity(), peakList);
+    }
+
+    @Benchmark
+    public Set<Peak> deisotopePeakSet() {
+        return annotation.deisotopePeaks(peakSet, 5);
+    }
+
+    @Benchmark
+    public PeakList deisotopePeakList() {
+        return annotation.deisotopePeaks(peakList, 5);
+    }
+
+    @Benchmark
+    public String detectAdductFromPeaks() {
+        annotation.detectAdductFromPeaks(); // Same peaks every call, so it always assigns the same adduct
+        return annotation.getAdduct();
+    }
+}
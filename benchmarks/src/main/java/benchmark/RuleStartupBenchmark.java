@@ -0,0 +1,49 @@
+package benchmark;
+
+import lipid.Annotation;
+import lipid.IoniationMode;
+import lipid.Lipid;
+import lipid.LipidScoreUnit;
+import lipid.LipidType;
+import lipid.Peak;
+import org.drools.ruleunits.api.RuleUnitInstance;
+import org.drools.ruleunits.api.RuleUnitProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time from a fresh JVM to the end of the first fire(), as seen by a short-lived batch job
+ * Every fork measures one cold start. Compare the two ways of building the rules:
+ * - Precompiled: mvn install, then mvn -f benchmarks/pom.xml package and java -jar benchmarks/target/benchmarks.jar RuleStartup
+ * - Dynamic: mvn -Pdynamic-rules install, then mvn -f benchmarks/pom.xml package and run it again
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(10)
+public class RuleStartupBenchmark {
+
+    @Benchmark
+    public int timeToFirstFire() {
+        LipidScoreUnit unit = new LipidScoreUnit();
+        unit.getAnnotations().add(new Annotation(new Lipid(1, "TG 54:3", "C57H104O6", LipidType.TG, 54, 3),
+                885.79056, 1.0e6, 10d, IoniationMode.POSITIVE, Set.of(new Peak(885.79056, 1.0e6), new Peak(907.77306, 0.8e6))));
+        unit.getAnnotations().add(new Annotation(new Lipid(2, "TG 52:3", "C55H100O6", LipidType.TG, 52, 3),
+                857.7593, 1.0e7, 9d, IoniationMode.POSITIVE, Set.of(new Peak(857.7593, 1.0e7), new Peak(839.7487, 0.5e7))));
+        RuleUnitInstance<LipidScoreUnit> instance = RuleUnitProvider.get().createRuleUnitInstance(unit);
+        try {
+            return instance.fire();
+        } finally {
+            instance.close();
+        }
+    }
+}
@@ -0,0 +1,315 @@
+package benchmark;
+
+import lipid.Annotation;
+import lipid.LipidScoreUnit;
+import lipid.LipidScorer;
+import lipid.RuleProfiler;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Scaling curve of the rule scoring: fires a LipidScoreUnit with 10 to 100k SyntheticAnnotations and reports,
+ * per size and scoring mode, the median wall time of fire(), the rules fired, the matches created and cancelled in the
+ * agenda (from a RuleProfiler attached to every fire) and the peak heap used while firing
+ * Every repetition fires a fresh unit with the same annotations (same seed), so reports of two releases compare.
+ * Sizes whose time, extrapolated from the largest measured size (quadratically for the DRL pair rules, linearly for the
+ * native scorers), exceeds the budget are not measured:
+ * they are reported as skipped with that projected time (projectedSeconds and projectedFrom in the JSON, null for the
+ * measured sizes), so they still show on the scaling curve but are never mistaken for measurements.
+ * A fire still running at the budget is stopped and its size reported as halted: the DRL pair rules re-activate each
+ * other forever once an annotation is in pairs of two rule families, which the synthetic series reach at about 100
+ * annotations. The sizes after a halted one are skipped, with no projection
+ * Usage: java -cp benchmarks/target/benchmarks.jar benchmark.ScalingHarness [--sizes 10,100,...] [--modes drl,native]
+ * [--repetitions 3] [--max-seconds 600] [--seed 42] [report.json]
+ */
+public class ScalingHarness {
+
+    static final int[] DEFAULT_SIZES = {10, 100, 1_000, 10_000, 100_000};
+    static final double RT_NOISE = 0.3;
+
+    private ScalingHarness() {
+    }
+
+    /**
+     * Scoring modes of the unit
+     */
+    enum Mode {
+        DRL(2), // Every rule in lipids.drl
+        NATIVE(1); // ElutionOrderScorer and native adduct detection, the DRL pair rules skipped
+
+        private final int growth; // Exponent of the size in the projected time: the pair rules are quadratic
+
+        Mode(int growth) {
+            this.growth = growth;
+        }
+
+        LipidScoreUnit newUnit() {
+            LipidScoreUnit unit = new LipidScoreUnit();
+            unit.setNativeElutionScoringEnabled(this == NATIVE);
+            unit.setNativeAdductDetectionEnabled(this == NATIVE);
+            return unit;
+        }
+    }
+
+    /**
+     * Measurement of one size and mode
+     */
+    static final class Result {
+        private final Mode mode;
+        private final int size;
+        private final boolean skipped;
+        private final boolean halted; // Stopped at the budget, the times are lower bounds
+        private final long medianNanos;
+        private final long minNanos;
+        private final long maxNanos;
+        private final int fired;
+        private final long matchesCreated;
+        private final long matchesCancelled;
+        private final long peakHeapBytes;
+        private final double projectedSeconds; // Only when skipped
+        private final int projectedFrom; // Measured size the projection comes from, only when skipped
+
+        Result(Mode mode, int size, boolean skipped, boolean halted, long medianNanos, long minNanos, long maxNanos,
+               int fired, long matchesCreated, long matchesCancelled, long peakHeapBytes, double projectedSeconds,
+               int projectedFrom) {
+            this.mode = mode;
+            this.size = size;
+            this.skipped = skipped;
+            this.halted = halted;
+            this.medianNanos = medianNanos;
+            this.minNanos = minNanos;
+            this.maxNanos = maxNanos;
+            this.fired = fired;
+            this.matchesCreated = matchesCreated;
+            this.matchesCancelled = matchesCancelled;
+            this.peakHeapBytes = peakHeapBytes;
+            this.projectedSeconds = projectedSeconds;
+            this.projectedFrom = projectedFrom;
+        }
+
+        /**
+         * @param measured largest size measured in the mode, or null when the rules halted and nothing is projected
+         *
+         * @return the result of a size that is not measured, with its time projected from the measured one
+         */
+        static Result skipped(Mode mode, int size, Result measured) {
+            return new Result(mode, size, true, false, -1, -1, -1, -1, -1, -1, -1,
+                    measured == null ? -1 : projectedSeconds(measured, size), measured == null ? -1 : measured.size);
+        }
+
+        boolean isSkipped() {
+            return skipped;
+        }
+
+        boolean isHalted() {
+            return halted;
+        }
+
+        long getMedianNanos() {
+            return medianNanos;
+        }
+
+        String toJson() {
+            boolean projected = projectedFrom >= 0;
+            return String.format(Locale.ROOT,
+                    "{\"mode\":\"%s\",\"size\":%d,\"skipped\":%b,\"halted\":%b,\"medianMs\":%.3f,\"minMs\":%.3f,"
+                            + "\"maxMs\":%.3f,\"nsPerAnnotation\":%.1f,\"fired\":%d,\"matchesCreated\":%d,"
+                            + "\"matchesCancelled\":%d,\"peakHeapBytes\":%d,\"projectedSeconds\":%s,"
+                            + "\"projectedFrom\":%s}",
+                    mode.name().toLowerCase(Locale.ROOT), size, skipped, halted, medianNanos / 1e6, minNanos / 1e6,
+                    maxNanos / 1e6, skipped ? -1d : (double) medianNanos / size, fired, matchesCreated, matchesCancelled,
+                    peakHeapBytes, projected ? String.format(Locale.ROOT, "%.3f", projectedSeconds) : "null",
+                    projected ? Integer.toString(projectedFrom) : "null");
+        }
+
+        @Override
+        public String toString() {
+            if (skipped) {
+                if (projectedFrom < 0) {
+                    return String.format(Locale.ROOT, "%-6s %7d skipped after a halted size", mode, size);
+                }
+                return String.format(Locale.ROOT, "%-6s %7d skipped, projected %.1f s from %d (not measured)", mode,
+                        size, projectedSeconds, projectedFrom);
+            }
+            if (halted) {
+                return String.format(Locale.ROOT, "%-6s %7d halted after %.1f s, the rules did not finish", mode, size,
+                        maxNanos / 1e9);
+            }
+            return String.format(Locale.ROOT, "%-6s %7d %12.3f ms %10d fired %12d matches %8.1f MiB", mode, size,
+                    medianNanos / 1e6, fired, matchesCreated, peakHeapBytes / 1048576d);
+        }
+    }
+
+    /**
+     * @param mode of the unit
+     * @param size annotations to score
+     * @param repetitions fires to take the median of
+     * @param seed of the annotations
+     * @param maxSeconds after which a fire is stopped, and the size reported as halted with no more repetitions
+     *
+     * @return the median time, the rules fired and matches of the last repetition and the largest heap peak of the
+     * repetitions
+     */
+    static Result measure(Mode mode, int size, int repetitions, long seed, double maxSeconds) {
+        long[] nanos = new long[repetitions];
+        int fired = 0;
+        long peakHeap = 0;
+        boolean halted = false;
+        RuleProfiler profiler = new RuleProfiler();
+        for (int i = 0; i < repetitions; i++) {
+            // Scoring mutates the annotations, so every repetition scores new ones
+            List<Annotation> annotations = new SyntheticAnnotations(seed, RT_NOISE).generate(size);
+            LipidScoreUnit unit = mode.newUnit();
+            annotations.forEach(unit.getAnnotations()::add);
+            System.gc();
+            profiler.reset();
+            resetHeapPeaks();
+            long start = System.nanoTime();
+            long deadline = start + (long) (maxSeconds * 1e9);
+            AtomicBoolean stopped = new AtomicBoolean();
+            fired = LipidScorer.fire(unit, profiler, match -> {
+                if (System.nanoTime() < deadline) {
+                    return true;
+                }
+                stopped.set(true); // Every match left is dropped, so the agenda empties
+                return false;
+            });
+            nanos[i] = System.nanoTime() - start;
+            peakHeap = Math.max(peakHeap, heapPeak());
+            if (stopped.get()) {
+                halted = true;
+                nanos = Arrays.copyOf(nanos, i + 1);
+                break;
+            }
+        }
+        Arrays.sort(nanos);
+        long matchesCreated = 0;
+        long matchesCancelled = 0;
+        for (RuleProfiler.RuleMetrics metrics : profiler.snapshot()) {
+            matchesCreated += metrics.getMatchesCreated();
+            matchesCancelled += metrics.getMatchesCancelled();
+        }
+        return new Result(mode, size, false, halted, nanos[nanos.length / 2], nanos[0], nanos[nanos.length - 1],
+                fired, matchesCreated, matchesCancelled, peakHeap, -1, -1);
+    }
+
+    /**
+     * @return the time of a size extrapolated from a smaller one with the growth of the mode
+     */
+    private static double projectedSeconds(Result measured, int size) {
+        return measured.getMedianNanos() / 1e9 * Math.pow((double) size / measured.size, measured.mode.growth);
+    }
+
+    private static void resetHeapPeaks() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    /**
+     * @return the sum of the peak usage of the heap pools since the last reset. Pools peak at different times,
+     * so it is an upper bound of the heap peak
+     */
+    private static long heapPeak() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    /**
+     * @param results of a run
+     *
+     * @return the report, with the JVM the results were measured on
+     */
+    static String toJson(List<Result> results, long seed, int repetitions, double maxSeconds) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"timestamp\": \"").append(Instant.now()).append("\",\n");
+        json.append("  \"javaVersion\": \"").append(System.getProperty("java.version")).append("\",\n");
+        json.append("  \"vm\": \"").append(System.getProperty("java.vm.name")).append("\",\n");
+        json.append("  \"processors\": ").append(Runtime.getRuntime().availableProcessors()).append(",\n");
+        json.append("  \"maxHeapBytes\": ").append(Runtime.getRuntime().maxMemory()).append(",\n");
+        json.append("  \"seed\": ").append(seed).append(",\n");
+        json.append("  \"rtNoise\": ").append(RT_NOISE).append(",\n");
+        json.append("  \"repetitions\": ").append(repetitions).append(",\n");
+        json.append("  \"maxSeconds\": ").append(maxSeconds).append(",\n");
+        json.append("  \"results\": [\n");
+        for (int i = 0; i < results.size(); i++) {
+            json.append("    ").append(results.get(i).toJson()).append(i + 1 < results.size() ? ",\n" : "\n");
+        }
+        json.append("  ]\n}\n");
+        return json.toString();
+    }
+
+    public static void main(String[] args) throws IOException {
+        int[] sizes = DEFAULT_SIZES;
+        List<Mode> modes = List.of(Mode.values());
+        int repetitions = 3;
+        double maxSeconds = 600;
+        long seed = 42;
+        Path report = null;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--sizes" -> sizes = Arrays.stream(args[++i].split(",")).mapToInt(Integer::parseInt).toArray();
+                case "--modes" -> modes = Arrays.stream(args[++i].split(","))
+                        .map(name -> Mode.valueOf(name.toUpperCase(Locale.ROOT))).toList();
+                case "--repetitions" -> repetitions = Integer.parseInt(args[++i]);
+                case "--max-seconds" -> maxSeconds = Double.parseDouble(args[++i]);
+                case "--seed" -> seed = Long.parseLong(args[++i]);
+                default -> report = Path.of(args[i]);
+            }
+        }
+        if (repetitions < 1) {
+            throw new IllegalArgumentException("At least one repetition is needed");
+        }
+
+        // Warm up the rule base and the JIT with a unit the rules finish, so the first size does not pay for them
+        for (Mode mode : modes) {
+            measure(mode, 10, 5, seed, maxSeconds);
+        }
+
+        List<Result> results = new ArrayList<>();
+        for (Mode mode : modes) {
+            Result measured = null; // Largest size measured so far
+            boolean halted = false;
+            for (int size : sizes) {
+                Result result;
+                if (halted) {
+                    result = Result.skipped(mode, size, null);
+                } else if (measured != null && projectedSeconds(measured, size) > maxSeconds) {
+                    result = Result.skipped(mode, size, measured);
+                } else {
+                    result = measure(mode, size, repetitions, seed, maxSeconds);
+                    halted = result.isHalted();
+                    measured = halted ? measured : result;
+                }
+                results.add(result);
+                System.out.println(result);
+            }
+        }
+
+        String json = toJson(results, seed, repetitions, maxSeconds);
+        if (report != null) {
+            Files.writeString(report, json);
+        } else {
+            System.out.print(json);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package benchmark;
+
+import adduct.Adduct;
+import adduct.AdductRegistry;
+import lipid.Annotation;
+import lipid.IoniationMode;
+import lipid.Lipid;
+import lipid.LipidType;
+import lipid.LipidUtils;
+import lipid.PeakList;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates annotations that look like a real lipidomics run in positive mode
+ * Every LipidType contributes a series of species over its usual carbon and double bond ranges, with a formula
+ * following the class. The RT grows with the carbons and the lipid type elution order and drops with the double bonds,
+ * plus gaussian noise, so most pairs follow the rules of lipids.drl and a few break them. Each annotation has its
+ * [M+H]+ and [M+Na]+ peaks, with the first 13C isotope of each, as grouped signals
+ */
+public class SyntheticAnnotations {
+
+    private static final double ISOTOPE_SPACING = 1.0033548;
+
+    private final Random random;
+    private final double rtNoise;
+    private final List<Species> species = new ArrayList<>();
+
+    /**
+     * @param seed of the random generator, so a size always gives the same annotations
+     * @param rtNoise standard deviation of the RT noise, in minutes
+     */
+    public SyntheticAnnotations(long seed, double rtNoise) {
+        this.random = new Random(seed);
+        this.rtNoise = rtNoise;
+        int id = 1;
+        for (LipidType type : LipidType.values()) {
+            int minCarbons = type == LipidType.TG ? 42 : 28;
+            int maxCarbons = type == LipidType.TG ? 60 : 44;
+            for (int carbons = minCarbons; carbons <= maxCarbons; carbons += 2) { // Even chains dominate
+                for (int doubleBonds = 0; doubleBonds <= (type == LipidType.TG ? 9 : 6); doubleBonds++) {
+                    species.add(new Species(new Lipid(id++, type.name() + " " + carbons + ":" + doubleBonds,
+                            formula(type, carbons, doubleBonds), type, carbons, doubleBonds)));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the molecular formula of a species of the class, e.g. C57H104O6 for TG 54:3
+     */
+    static String formula(LipidType type, int carbons, int doubleBonds) {
+        int hydrogens = 2 * carbons - 2 * doubleBonds;
+        return switch (type) {
+            case TG -> "C" + (carbons + 3) + "H" + (hydrogens + 2) + "O6";
+            case PC -> "C" + (carbons + 8) + "H" + (hydrogens + 16) + "NO8P";
+            case PE -> "C" + (carbons + 5) + "H" + (hydrogens + 10) + "NO8P";
+            case PG -> "C" + (carbons + 6) + "H" + (hydrogens + 11) + "O10P";
+            case PI -> "C" + (carbons + 9) + "H" + (hydrogens + 15) + "O13P";
+            case PA -> "C" + (carbons + 3) + "H" + (hydrogens + 5) + "O8P";
+            case PS -> "C" + (carbons + 6) + "H" + (hydrogens + 10) + "NO10P";
+        };
+    }
+
+    /**
+     * @return the number of distinct species the annotations are drawn from
+     */
+    public int speciesCount() {
+        return species.size();
+    }
+
+    /**
+     * @param count annotations to generate. Beyond the number of species, some species are annotated several times,
+     *              as isomers or in-source fragments would be
+     *
+     * @return new annotations, not scored
+     */
+    public List<Annotation> generate(int count) {
+        List<Annotation> annotations = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Species s = species.get(random.nextInt(species.size()));
+            Lipid lipid = s.lipid;
+            double rt = Math.max(0.1, s.rt + random.nextGaussian() * rtNoise);
+            double intensity = 1.0e4 * Math.exp(random.nextGaussian() * 1.5 + 4);
+            double protonated = Adduct.getMZFromMonoisotopicMass(s.mass, AdductRegistry.get("[M+H]+"));
+            double sodiated = Adduct.getMZFromMonoisotopicMass(s.mass, AdductRegistry.get("[M+Na]+"));
+            double isotopeRatio = lipid.getCarbons() * 0.011; // 13C abundance per carbon
+            PeakList peaks = PeakList.wrap(
+                    new double[]{protonated, protonated + ISOTOPE_SPACING, sodiated, sodiated + ISOTOPE_SPACING},
+                    new double[]{intensity, intensity * isotopeRatio, intensity * 0.3, intensity * 0.3 * isotopeRatio},
+                    0, 4);
+            annotations.add(new Annotation(lipid, protonated, intensity, rt, IoniationMode.POSITIVE, peaks));
+        }
+        return annotations;
+    }
+
+    private static final class Species {
+        private final Lipid lipid;
+        private final double mass;
+        private final double rt;
+
+        private Species(Lipid lipid) {
+            this.lipid = lipid;
+            this.mass = lipid.getMonoisotopicMass();
+            // Later classes elute later, longer chains later, more double bonds earlier
+            this.rt = 1 + 2.5 * LipidUtils.elutionRank(lipid.getLipidType()) + 0.35 * lipid.getCarbons() - 0.45 * lipid.getDoubleBonds();
+        }
+    }
+}
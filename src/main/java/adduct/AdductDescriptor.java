@@ -0,0 +1,61 @@
+package adduct;
+
+import lipid.IoniationMode;
+
+/**
+ * Immutable, pre-parsed description of an adduct from AdductList
+ * Holds everything the mass conversions need so the hot path does not parse the adduct name again
+ */
+public final class AdductDescriptor {
+    private final int id; // Position of the adduct in the registry
+    private final String name;
+    private final double massShift; // Mass correction from AdductList (per charge)
+    private final int multimer;
+    private final int charge;
+    private final IoniationMode polarity;
+
+    AdductDescriptor(int id, String name, double massShift, int multimer, int charge, IoniationMode polarity) {
+        this.id = id;
+        this.name = name;
+        this.massShift = massShift;
+        this.multimer = multimer;
+        this.charge = charge;
+        this.polarity = polarity;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * @return the bit of this adduct in a mask of adducts (1L << id)
+     */
+    public long getMask() {
+        return 1L << id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public double getMassShift() {
+        return massShift;
+    }
+
+    public int getMultimer() {
+        return multimer;
+    }
+
+    public int getCharge() {
+        return charge;
+    }
+
+    public IoniationMode getPolarity() {
+        return polarity;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
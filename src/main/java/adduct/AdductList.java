@@ -14,15 +14,16 @@ public class AdductList {
     public static final Map<String, Double> MAPMZNEGATIVEADDUCTS;
 
     static {
-        // In positive mode, the values are negative because they are added to m/z (adductMass is subtracted to recover the neutral mass)
+        // Mass corrections are given per charge: multiply by the charge to get the whole correction of the adduct
+        // In positive mode, the values are negative because the ion was gained (adding adductMass to m/z recovers the neutral mass)
         Map<String, Double> mapMZPositiveAdductsTMP = new LinkedHashMap<>();
         mapMZPositiveAdductsTMP.put("[M+H]+", -1.007276d);
-        mapMZPositiveAdductsTMP.put("[M+2H]2+", -2.014552d);
+        mapMZPositiveAdductsTMP.put("[M+2H]2+", -1.007276d);
         mapMZPositiveAdductsTMP.put("[M+Na]+", -22.989218d);
         mapMZPositiveAdductsTMP.put("[M+K]+", -38.963158d);
         mapMZPositiveAdductsTMP.put("[M+NH4]+", -18.033823d);
         mapMZPositiveAdductsTMP.put("[M+H-H2O]+", 17.0032d);
-        mapMZPositiveAdductsTMP.put("[M+H+NH4]2+", -19.04165);
+        mapMZPositiveAdductsTMP.put("[M+H+NH4]2+", -9.520550d);
         mapMZPositiveAdductsTMP.put("[2M+H]+", -1.007276d);
         mapMZPositiveAdductsTMP.put("[2M+Na]+", -22.989218d);
         MAPMZPOSITIVEADDUCTS = Collections.unmodifiableMap(mapMZPositiveAdductsTMP); // maps made read-only
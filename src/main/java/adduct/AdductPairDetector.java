@@ -0,0 +1,199 @@
+package adduct;
+
+import lipid.IoniationMode;
+import lipid.PeakList;
+
+import java.util.List;
+
+/**
+ * Detects adducts from the m/z relationships between the peaks of a group
+ * For every pair of adducts of AdductList the m/z of one is a linear function of the m/z of the other
+ * (both come from the same neutral mass), so the slope and intercept of every pair are calculated once.
+ * Each hypothesis is then checked with binary searches over the m/z sorted peaks
+ */
+public class AdductPairDetector {
+
+    private static final double[][] SLOPE;
+    private static final double[][] INTERCEPT;
+
+    static {
+        int size = AdductRegistry.size();
+        if (size > Long.SIZE) {
+            throw new IllegalStateException("Detected adducts are stored as a 64 bit mask, but AdductList has " + size + " adducts");
+        }
+        SLOPE = new double[size][size];
+        INTERCEPT = new double[size][size];
+        for (AdductDescriptor from : AdductRegistry.all()) {
+            for (AdductDescriptor to : AdductRegistry.all()) {
+                // M = (mz1 + s1) * c1 / m1 and mz2 = M * m2 / c2 - s2
+                double slope = (double) from.getCharge() * to.getMultimer() / ((double) from.getMultimer() * to.getCharge());
+                SLOPE[from.getId()][to.getId()] = slope;
+                INTERCEPT[from.getId()][to.getId()] = from.getMassShift() * slope - to.getMassShift();
+            }
+        }
+    }
+
+    private final int ppmTolerance;
+
+    /**
+     * @param ppmTolerance to accept a peak as the expected m/z of another adduct
+     */
+    public AdductPairDetector(int ppmTolerance) {
+        this.ppmTolerance = ppmTolerance;
+    }
+
+    /**
+     * @param from adduct of the observed m/z
+     * @param mz observed m/z
+     * @param to other adduct
+     *
+     * @return the m/z of the same neutral molecule with the other adduct
+     */
+    public static double expectedMz(AdductDescriptor from, double mz, AdductDescriptor to) {
+        return mz * SLOPE[from.getId()][to.getId()] + INTERCEPT[from.getId()][to.getId()];
+    }
+
+    /**
+     * Find the adduct of a known m/z that is supported by the most other peaks of the group
+     *
+     * @param peaks group sorted by m/z (ideally deisotoped)
+     * @param mode ionization mode, only its adducts are tested
+     * @param mz m/z of the annotated feature
+     *
+     * @return the best assignment, or null if no adduct is supported by any other peak
+     */
+    public Assignment detect(PeakList peaks, IoniationMode mode, double mz) {
+        int self = peaks.indexOf(mz, Adduct.calculateDeltaPPM(mz, ppmTolerance));
+        Assignment best = null;
+        for (AdductDescriptor adduct : AdductRegistry.forMode(mode)) {
+            best = better(best, evaluate(peaks, mode, adduct, self, mz));
+        }
+        return best;
+    }
+
+    /**
+     * Find the peak and adduct that are supported by the most other peaks of the group
+     *
+     * @param peaks group sorted by m/z (ideally deisotoped)
+     * @param mode ionization mode, only its adducts are tested
+     *
+     * @return the best assignment, or null if no peak relates to another one
+     */
+    public Assignment detect(PeakList peaks, IoniationMode mode) {
+        Assignment best = null;
+        for (int i = 0; i < peaks.size(); i++) {
+            for (AdductDescriptor adduct : AdductRegistry.forMode(mode)) {
+                best = better(best, evaluate(peaks, mode, adduct, i, peaks.getMz(i)));
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Look for the peaks of every other adduct assuming that mz is the adduct hypothesis
+     */
+    private Assignment evaluate(PeakList peaks, IoniationMode mode, AdductDescriptor hypothesis, int self, double mz) {
+        long detected = 0L;
+        int support = 0;
+        double supportIntensity = 0;
+        for (AdductDescriptor other : AdductRegistry.forMode(mode)) {
+            if (other == hypothesis) {
+                continue;
+            }
+            double expected = expectedMz(hypothesis, mz, other);
+            int index = peaks.indexOf(expected, Adduct.calculateDeltaPPM(expected, ppmTolerance));
+            if (index >= 0 && index != self) {
+                detected |= 1L << other.getId();
+                support++;
+                supportIntensity += peaks.getIntensity(index);
+            }
+        }
+        if (support == 0) {
+            return null;
+        }
+        double intensity = self < 0 ? 0 : peaks.getIntensity(self);
+        return new Assignment(hypothesis, self, mz, support, intensity, supportIntensity, detected);
+    }
+
+    /**
+     * More supporting adducts first, then the most intense assigned peak, then more supporting intensity,
+     * then the adduct declared first in AdductList
+     */
+    private static Assignment better(Assignment current, Assignment candidate) {
+        if (candidate == null) {
+            return current;
+        }
+        if (current == null || candidate.support != current.support) {
+            return current == null || candidate.support > current.support ? candidate : current;
+        }
+        if (candidate.intensity != current.intensity) {
+            return candidate.intensity > current.intensity ? candidate : current;
+        }
+        return candidate.supportIntensity > current.supportIntensity ? candidate : current;
+    }
+
+    /**
+     * Adduct assigned to a peak, with the adducts of the group that support it
+     */
+    public static final class Assignment {
+        private final AdductDescriptor adduct;
+        private final int peakIndex;
+        private final double mz;
+        private final int support;
+        private final double intensity;
+        private final double supportIntensity;
+        private final long detectedMask;
+
+        private Assignment(AdductDescriptor adduct, int peakIndex, double mz, int support, double intensity,
+                           double supportIntensity, long detectedMask) {
+            this.adduct = adduct;
+            this.peakIndex = peakIndex;
+            this.mz = mz;
+            this.support = support;
+            this.intensity = intensity;
+            this.supportIntensity = supportIntensity;
+            this.detectedMask = detectedMask;
+        }
+
+        public AdductDescriptor getAdduct() {
+            return adduct;
+        }
+
+        /**
+         * @return index of the assigned peak in the group, or -1 if the annotated m/z is not one of its peaks
+         */
+        public int getPeakIndex() {
+            return peakIndex;
+        }
+
+        public double getMz() {
+            return mz;
+        }
+
+        /**
+         * @return number of other adducts found in the group
+         */
+        public int getSupport() {
+            return support;
+        }
+
+        /**
+         * @return bit (1L << id) set for every other adduct found in the group
+         */
+        public long getDetectedMask() {
+            return detectedMask;
+        }
+
+        /**
+         * @return the other adducts found in the group, ordered by id
+         */
+        public List<AdductDescriptor> getDetectedAdducts() {
+            return AdductRegistry.fromMask(detectedMask);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Assignment(%s, mz=%.4f, support=%d, detected=%s)", adduct, mz, support, getDetectedAdducts());
+        }
+    }
+}
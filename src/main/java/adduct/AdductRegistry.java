@@ -0,0 +1,177 @@
+package adduct;
+
+import lipid.IoniationMode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Registry of the AdductDescriptor of every adduct in AdductList
+ * Built once when the class is loaded: ids follow the insertion order of the positive map and then the negative map.
+ * Ids fit in a long, so a set of adducts is a mask with the bit (1L << id) of each one. Negative adducts are also
+ * found by their name with an ASCII hyphen as charge sign ([M-H]- for [M-H]−)
+ */
+public class AdductRegistry {
+
+    private static final AdductDescriptor[] DESCRIPTORS;
+    private static final Map<String, AdductDescriptor> BY_NAME;
+    private static final List<AdductDescriptor> POSITIVE;
+    private static final List<AdductDescriptor> NEGATIVE;
+
+    static {
+        int total = AdductList.MAPMZPOSITIVEADDUCTS.size() + AdductList.MAPMZNEGATIVEADDUCTS.size();
+        if (total > Long.SIZE) {
+            throw new IllegalStateException("At most " + Long.SIZE + " adducts fit in a mask, AdductList has " + total);
+        }
+        DESCRIPTORS = new AdductDescriptor[total];
+        Map<String, AdductDescriptor> byNameTMP = new HashMap<>();
+        int id = 0;
+        for (Map.Entry<String, Double> entry : AdductList.MAPMZPOSITIVEADDUCTS.entrySet()) {
+            DESCRIPTORS[id] = create(id, entry.getKey(), entry.getValue(), IoniationMode.POSITIVE);
+            byNameTMP.put(entry.getKey(), DESCRIPTORS[id]);
+            id++;
+        }
+        int firstNegative = id;
+        for (Map.Entry<String, Double> entry : AdductList.MAPMZNEGATIVEADDUCTS.entrySet()) {
+            DESCRIPTORS[id] = create(id, entry.getKey(), entry.getValue(), IoniationMode.NEGATIVE);
+            byNameTMP.put(entry.getKey(), DESCRIPTORS[id]);
+            byNameTMP.putIfAbsent(asciiName(entry.getKey()), DESCRIPTORS[id]);
+            id++;
+        }
+        BY_NAME = Collections.unmodifiableMap(byNameTMP);
+        POSITIVE = Collections.unmodifiableList(Arrays.asList(Arrays.copyOfRange(DESCRIPTORS, 0, firstNegative)));
+        NEGATIVE = Collections.unmodifiableList(Arrays.asList(Arrays.copyOfRange(DESCRIPTORS, firstNegative, total)));
+    }
+
+    private AdductRegistry() {
+    }
+
+    private static AdductDescriptor create(int id, String name, double massShift, IoniationMode polarity) {
+        int[] parsed = parseMultimerAndCharge(name);
+        return new AdductDescriptor(id, name, massShift, parsed[0], parsed[1], polarity);
+    }
+
+    /**
+     * @return the name with an ASCII hyphen instead of the minus sign after the brackets
+     */
+    private static String asciiName(String name) {
+        int close = name.lastIndexOf(']');
+        return name.substring(0, close + 1) + name.substring(close + 1).replace('−', '-');
+    }
+
+    /**
+     * @param adduct name as written in AdductList, or with an ASCII hyphen as charge sign
+     *
+     * @return the descriptor of the adduct, or null if it is not in AdductList
+     */
+    public static AdductDescriptor get(String adduct) {
+        if (adduct == null) {
+            return null;
+        }
+        return BY_NAME.get(adduct);
+    }
+
+    /**
+     * @param id of the descriptor
+     *
+     * @return the descriptor with that id
+     */
+    public static AdductDescriptor get(int id) {
+        return DESCRIPTORS[id];
+    }
+
+    /**
+     * @param adduct name as written in AdductList, or with an ASCII hyphen as charge sign
+     *
+     * @return the name as written in AdductList
+     * @throws IllegalArgumentException if the adduct is not in AdductList
+     */
+    public static String canonicalName(String adduct) {
+        AdductDescriptor descriptor = get(adduct);
+        if (descriptor == null) {
+            throw new IllegalArgumentException("Unknown adduct " + adduct);
+        }
+        return descriptor.getName();
+    }
+
+    /**
+     * @param mask with the bit (1L << id) of each adduct
+     *
+     * @return the descriptors of the adducts in the mask, ordered by id
+     */
+    public static List<AdductDescriptor> fromMask(long mask) {
+        List<AdductDescriptor> adducts = new ArrayList<>(Long.bitCount(mask));
+        for (long remaining = mask; remaining != 0; remaining &= remaining - 1) {
+            adducts.add(DESCRIPTORS[Long.numberOfTrailingZeros(remaining)]);
+        }
+        return Collections.unmodifiableList(adducts);
+    }
+
+    /**
+     * @return the number of registered adducts (ids go from 0 to size-1)
+     */
+    public static int size() {
+        return DESCRIPTORS.length;
+    }
+
+    /**
+     * @return every descriptor, ordered by id
+     */
+    public static List<AdductDescriptor> all() {
+        return Collections.unmodifiableList(Arrays.asList(DESCRIPTORS));
+    }
+
+    /**
+     * @param mode ionization mode
+     *
+     * @return the descriptors of the adducts of that ionization mode, ordered by id
+     */
+    public static List<AdductDescriptor> forMode(IoniationMode mode) {
+        return mode == IoniationMode.NEGATIVE ? NEGATIVE : POSITIVE;
+    }
+
+    /**
+     * Parse the multimer count and charge from an adduct string
+     * Examples: [2M+H]+ has multimer = 2 and charge = 1, and [M+2H]2+ has multimer = 1 and charge = 2
+     *
+     * @param adduct name
+     *
+     * @return [multimer, charge], with default [1,1]
+     */
+    private static int[] parseMultimerAndCharge(String adduct) {
+        int multimer = 1;
+        int charge = 1;
+        if (adduct == null || adduct.length() < 2 || adduct.charAt(0) != '[') {
+            return new int[]{multimer, charge};
+        }
+        int close = adduct.lastIndexOf(']');
+        if (close < 0) {
+            return new int[]{multimer, charge};
+        }
+        // Digits before M, e.g. [2M+H]+
+        int i = 1;
+        int value = 0;
+        while (i < close && Character.isDigit(adduct.charAt(i))) {
+            value = value * 10 + (adduct.charAt(i) - '0');
+            i++;
+        }
+        if (i > 1 && i < close && adduct.charAt(i) == 'M') {
+            multimer = value;
+        }
+        // Digits after ], e.g. [M+2H]2+
+        value = 0;
+        i = close + 1;
+        while (i < adduct.length() && Character.isDigit(adduct.charAt(i))) {
+            value = value * 10 + (adduct.charAt(i) - '0');
+            i++;
+        }
+        if (i > close + 1) {
+            charge = value;
+        }
+        return new int[]{multimer, charge};
+    }
+}
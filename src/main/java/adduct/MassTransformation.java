@@ -1,5 +1,7 @@
 package adduct;
 
+import java.util.List;
+
 /**
  * Utility Class for mass transformations in MS
  */
@@ -29,4 +31,103 @@ public class MassTransformation {
         return Adduct.getMZFromMonoisotopicMass(monoisotopicMass, adduct);
     }
 
+    /**
+     * Convert a block of experimental m/z values to mono isotopic masses using the given adduct
+     * The loop has no branches nor calls so the JIT can vectorize it, and each value goes through the same
+     * operations as Adduct.getMonoisotopicMassFromMZ so the results are identical
+     *
+     * @param mz measured values
+     * @param adduct descriptor from AdductRegistry
+     * @param out array to fill, at least as long as mz (it can be mz itself)
+     */
+    public static void mzToMonoisotopicMass(double[] mz, AdductDescriptor adduct, double[] out){
+        mzToMonoisotopicMass(mz, 0, out, 0, mz.length, adduct);
+    }
+
+    /**
+     * Convert length m/z values starting at mzOffset into out starting at outOffset
+     *
+     * @param mz measured values
+     * @param mzOffset first value to convert
+     * @param out array to fill
+     * @param outOffset first position to write
+     * @param length number of values to convert
+     * @param adduct descriptor from AdductRegistry
+     */
+    public static void mzToMonoisotopicMass(double[] mz, int mzOffset, double[] out, int outOffset, int length, AdductDescriptor adduct){
+        checkRange(mz, mzOffset, out, outOffset, length);
+        double shift = adduct.getMassShift();
+        double charge = adduct.getCharge();
+        double multimer = adduct.getMultimer();
+        for(int i=0; i<length; i++){
+            out[outOffset+i] = (mz[mzOffset+i] + shift) * charge / multimer;
+        }
+    }
+
+    /**
+     * Convert a block of m/z values with every adduct of a set
+     *
+     * @param mz measured values
+     * @param adducts descriptors from AdductRegistry
+     * @param out one row per adduct (same order as adducts), each at least as long as mz
+     */
+    public static void mzToMonoisotopicMass(double[] mz, List<AdductDescriptor> adducts, double[][] out){
+        for(int a=0; a<adducts.size(); a++){
+            mzToMonoisotopicMass(mz, adducts.get(a), out[a]);
+        }
+    }
+
+    /**
+     * Convert a block of mono isotopic masses to expected m/z values using the given adduct
+     * Identical results to Adduct.getMZFromMonoisotopicMass
+     *
+     * @param monoisotopicMass the neutral masses
+     * @param adduct descriptor from AdductRegistry
+     * @param out array to fill, at least as long as monoisotopicMass (it can be monoisotopicMass itself)
+     */
+    public static void monoisotopicMassToMz(double[] monoisotopicMass, AdductDescriptor adduct, double[] out){
+        monoisotopicMassToMz(monoisotopicMass, 0, out, 0, monoisotopicMass.length, adduct);
+    }
+
+    /**
+     * Convert length mono isotopic masses starting at massOffset into out starting at outOffset
+     *
+     * @param monoisotopicMass the neutral masses
+     * @param massOffset first value to convert
+     * @param out array to fill
+     * @param outOffset first position to write
+     * @param length number of values to convert
+     * @param adduct descriptor from AdductRegistry
+     */
+    public static void monoisotopicMassToMz(double[] monoisotopicMass, int massOffset, double[] out, int outOffset, int length, AdductDescriptor adduct){
+        checkRange(monoisotopicMass, massOffset, out, outOffset, length);
+        double shift = adduct.getMassShift();
+        double charge = adduct.getCharge();
+        double multimer = adduct.getMultimer();
+        for(int i=0; i<length; i++){
+            out[outOffset+i] = monoisotopicMass[massOffset+i] * multimer / charge - shift;
+        }
+    }
+
+    /**
+     * Convert a block of mono isotopic masses with every adduct of a set
+     *
+     * @param monoisotopicMass the neutral masses
+     * @param adducts descriptors from AdductRegistry
+     * @param out one row per adduct (same order as adducts), each at least as long as monoisotopicMass
+     */
+    public static void monoisotopicMassToMz(double[] monoisotopicMass, List<AdductDescriptor> adducts, double[][] out){
+        for(int a=0; a<adducts.size(); a++){
+            monoisotopicMassToMz(monoisotopicMass, adducts.get(a), out[a]);
+        }
+    }
+
+    private static void checkRange(double[] in, int inOffset, double[] out, int outOffset, int length){
+        // Checked once so the loops run without bound checks failing half way
+        if(length < 0 || inOffset < 0 || outOffset < 0 || inOffset + length > in.length || outOffset + length > out.length){
+            throw new IndexOutOfBoundsException("Range [" + inOffset + ", " + (inOffset + length) + ") into [" + outOffset + ", "
+                    + (outOffset + length) + ") does not fit arrays of length " + in.length + " and " + out.length);
+        }
+    }
+
 }
@@ -0,0 +1,77 @@
+package database;
+
+import lipid.Lipid;
+import lipid.LipidType;
+
+import java.util.List;
+
+/**
+ * LipidLibrary over Lipid objects already in memory
+ */
+public class ArrayLipidLibrary implements LipidLibrary {
+
+    private final Lipid[] lipids;
+    private final double[] masses;
+
+    /**
+     * @param lipids of the library, with their masses calculated from their formulas
+     */
+    public ArrayLipidLibrary(List<Lipid> lipids) {
+        this(lipids, massesOf(lipids));
+    }
+
+    /**
+     * @param lipids of the library
+     * @param monoisotopicMasses monoisotopic mass of each lipid, in the same order as lipids
+     */
+    public ArrayLipidLibrary(List<Lipid> lipids, double[] monoisotopicMasses) {
+        if (lipids.size() != monoisotopicMasses.length) {
+            throw new IllegalArgumentException("Got " + lipids.size() + " lipids but " + monoisotopicMasses.length + " masses");
+        }
+        this.lipids = lipids.toArray(new Lipid[0]);
+        this.masses = monoisotopicMasses.clone();
+    }
+
+    private static double[] massesOf(List<Lipid> lipids) {
+        double[] masses = new double[lipids.size()];
+        for (int i = 0; i < masses.length; i++) {
+            masses[i] = lipids.get(i).getMonoisotopicMass();
+        }
+        return masses;
+    }
+
+    @Override
+    public int size() {
+        return lipids.length;
+    }
+
+    @Override
+    public int getCompoundId(int row) {
+        return lipids[row].getCompoundId();
+    }
+
+    @Override
+    public LipidType getLipidType(int row) {
+        return lipids[row].getLipidType();
+    }
+
+    @Override
+    public int getCarbons(int row) {
+        return lipids[row].getCarbons();
+    }
+
+    @Override
+    public int getDoubleBonds(int row) {
+        return lipids[row].getDoubleBonds();
+    }
+
+    @Override
+    public double getMonoisotopicMass(int row) {
+        return masses[row];
+    }
+
+    @Override
+    public Lipid getLipid(int row) {
+        return lipids[row];
+    }
+}
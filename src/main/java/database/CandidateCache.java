@@ -0,0 +1,264 @@
+package database;
+
+import adduct.Adduct;
+import adduct.AdductDescriptor;
+import lipid.Lipid;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of CompoundIndex candidates, for features that recur across the samples of a study
+ * Entries are keyed by (m/z bucket, adduct, ppm). An entry holds the lipids, with their masses, that could match any
+ * m/z of its bucket, i.e. the index window of the lowest m/z of the bucket extended to that of the highest one.
+ * A lookup filters those with the window of its own m/z, computed exactly as CompoundIndex does, so a hit returns the
+ * same candidates as a miss. The cache saves the search and building the Lipid objects of the library.
+ * Entries are split into segments, each an LRU map with its own lock, so concurrent samples rarely wait for each other
+ */
+public class CandidateCache {
+
+    public static final double DEFAULT_BUCKET_WIDTH = 0.001; // Daltons
+    private static final int SEGMENTS = 16;
+    private static final double EDGE_MARGIN = 1.0e-9; // Relative, covers the rounding of the bucket edges
+    private static final int MAX_PPM = (1 << 24) - 1;
+
+    private final CompoundIndex index;
+    private final double bucketWidth;
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param index searched on a miss
+     * @param maxEntries (m/z bucket, adduct, ppm) entries kept
+     */
+    public CandidateCache(CompoundIndex index, int maxEntries) {
+        this(index, maxEntries, DEFAULT_BUCKET_WIDTH);
+    }
+
+    /**
+     * @param index searched on a miss
+     * @param maxEntries (m/z bucket, adduct, ppm) entries kept
+     * @param bucketWidth width of the m/z buckets in Daltons. Wider buckets hit more often but filter more candidates
+     */
+    public CandidateCache(CompoundIndex index, int maxEntries, double bucketWidth) {
+        if (maxEntries < SEGMENTS) {
+            throw new IllegalArgumentException("maxEntries must be at least " + SEGMENTS + ", got " + maxEntries);
+        }
+        if (!(bucketWidth > 0)) {
+            throw new IllegalArgumentException("bucketWidth must be positive, got " + bucketWidth);
+        }
+        this.index = index;
+        this.bucketWidth = bucketWidth;
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(maxEntries / SEGMENTS + (i < maxEntries % SEGMENTS ? 1 : 0));
+        }
+    }
+
+    /**
+     * Same as CompoundIndex.findCandidates(mz, List.of(adduct), ppm)
+     *
+     * @param mz experimental m/z
+     * @param adduct adduct hypothesis
+     * @param ppm tolerance
+     *
+     * @return the candidate lipids, ordered by mass
+     */
+    public List<Lipid> findCandidates(double mz, AdductDescriptor adduct, int ppm) {
+        List<Lipid> candidates = new ArrayList<>();
+        collect(mz, adduct, ppm, candidates);
+        return candidates;
+    }
+
+    /**
+     * Same as CompoundIndex.findCandidates(mz, adducts, ppm)
+     *
+     * @param mz experimental m/z
+     * @param adducts adduct hypotheses
+     * @param ppm tolerance
+     *
+     * @return the candidate lipids without duplicates, following the order of the adducts and then the mass
+     */
+    public List<Lipid> findCandidates(double mz, Collection<AdductDescriptor> adducts, int ppm) {
+        Set<Lipid> candidates = new LinkedHashSet<>();
+        for (AdductDescriptor adduct : adducts) {
+            collect(mz, adduct, ppm, candidates);
+        }
+        return new ArrayList<>(candidates);
+    }
+
+    private void collect(double mz, AdductDescriptor adduct, int ppm, Collection<Lipid> candidates) {
+        if (ppm < 0 || ppm > MAX_PPM) {
+            throw new IllegalArgumentException("ppm must be between 0 and " + MAX_PPM + ", got " + ppm);
+        }
+        if (!(mz >= 0) || mz / bucketWidth >= Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("m/z out of the range of the cache: " + mz);
+        }
+        long bucket = (long) Math.floor(mz / bucketWidth);
+        long key = bucket << 32 | (long) adduct.getId() << 24 | ppm;
+        Segment segment = segments[(int) (mix(key) & (SEGMENTS - 1))];
+        Entry entry = segment.get(key);
+        if (entry == null) {
+            misses.increment();
+            entry = load(bucket, adduct, ppm); // Outside the lock: a concurrent miss may load the same entry twice
+            segment.put(key, entry);
+        } else {
+            hits.increment();
+        }
+        // Same window and comparisons as CompoundIndex.collect
+        double mass = Adduct.getMonoisotopicMassFromMZ(mz, adduct);
+        double delta = Adduct.calculateDeltaPPM(mass, ppm);
+        double lower = mass - delta;
+        double upper = mass + delta;
+        for (int i = 0; i < entry.masses.length && entry.masses[i] <= upper; i++) {
+            if (entry.masses[i] >= lower) {
+                candidates.add(entry.lipids[i]);
+            }
+        }
+    }
+
+    private Entry load(long bucket, AdductDescriptor adduct, int ppm) {
+        double fromMass = Adduct.getMonoisotopicMassFromMZ(bucket * bucketWidth, adduct);
+        double toMass = Adduct.getMonoisotopicMassFromMZ((bucket + 1) * bucketWidth, adduct);
+        double low = Math.min(fromMass, toMass);
+        double high = Math.max(fromMass, toMass);
+        low -= Adduct.calculateDeltaPPM(low, ppm);
+        high += Adduct.calculateDeltaPPM(high, ppm);
+        low -= Math.abs(low) * EDGE_MARGIN;
+        high += Math.abs(high) * EDGE_MARGIN;
+        int from = index.lowerBound(low);
+        int to = Math.max(from, index.upperBound(high));
+        double[] masses = new double[to - from];
+        Lipid[] lipids = new Lipid[to - from];
+        for (int row = from; row < to; row++) {
+            masses[row - from] = index.getMass(row);
+            lipids[row - from] = index.getLipid(row);
+        }
+        return new Entry(masses, lipids);
+    }
+
+    private static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        return key ^ (key >>> 33);
+    }
+
+    /**
+     * @return the number of entries in the cache
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    /**
+     * Remove every entry. The statistics are kept
+     */
+    public void clear() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    /**
+     * @return the hits, misses and evictions since the cache was created
+     */
+    public Stats stats() {
+        return new Stats(hits.sum(), misses.sum(), evictions.sum());
+    }
+
+    private static final class Entry {
+        private final double[] masses; // Sorted, as in the index
+        private final Lipid[] lipids;
+
+        private Entry(double[] masses, Lipid[] lipids) {
+            this.masses = masses;
+            this.lipids = lipids;
+        }
+    }
+
+    private final class Segment {
+        private final Map<Long, Entry> entries;
+
+        private Segment(int capacity) {
+            this.entries = new LinkedHashMap<>(16, 0.75f, true) { // Access order, so the eldest is the least recently used
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+                    if (size() > capacity) {
+                        evictions.increment();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        private synchronized Entry get(long key) {
+            return entries.get(key);
+        }
+
+        private synchronized void put(long key, Entry entry) {
+            entries.putIfAbsent(key, entry);
+        }
+
+        private synchronized int size() {
+            return entries.size();
+        }
+
+        private synchronized void clear() {
+            entries.clear();
+        }
+    }
+
+    /**
+     * Counters of a CandidateCache at the time they were requested
+     */
+    public static final class Stats {
+        private final long hits;
+        private final long misses;
+        private final long evictions;
+
+        Stats(long hits, long misses, long evictions) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        public long getMisses() {
+            return misses;
+        }
+
+        public long getEvictions() {
+            return evictions;
+        }
+
+        /**
+         * @return hits / (hits + misses), or 0 before the first lookup
+         */
+        public double getHitRate() {
+            long lookups = hits + misses;
+            return lookups == 0 ? 0 : (double) hits / lookups;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("CandidateCache.Stats(hits=%d, misses=%d, evictions=%d, hitRate=%.3f)",
+                    hits, misses, evictions, getHitRate());
+        }
+    }
+}
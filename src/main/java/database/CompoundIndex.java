@@ -0,0 +1,228 @@
+package database;
+
+import adduct.Adduct;
+import adduct.AdductDescriptor;
+import lipid.Lipid;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Compound database index: monoisotopic masses sorted in a primitive array, with the compound ids and library rows alongside
+ * Candidates within a ppm window are found with a binary search instead of scanning every compound,
+ * and their Lipid is only requested from the library once they are returned
+ */
+public class CompoundIndex {
+
+    private final LipidLibrary library;
+    private final double[] masses; // Sorted by increasing mass
+    private final int[] compoundIds; // compoundIds[row] belongs to masses[row]
+    private final int[] libraryRows; // libraryRows[row] is the row of masses[row] in the library
+
+    /**
+     * @param lipids compounds of the database, indexed by the mass calculated from their formulas
+     */
+    public CompoundIndex(List<Lipid> lipids) {
+        this(new ArrayLipidLibrary(lipids));
+    }
+
+    /**
+     * @param lipids compounds of the database
+     * @param monoisotopicMasses monoisotopic mass of each lipid, in the same order as lipids
+     */
+    public CompoundIndex(List<Lipid> lipids, double[] monoisotopicMasses) {
+        this(new ArrayLipidLibrary(lipids, monoisotopicMasses));
+    }
+
+    /**
+     * @param library compounds of the database, e.g. a MappedLipidLibrary
+     */
+    public CompoundIndex(LipidLibrary library) {
+        this.library = library;
+        int size = library.size();
+        this.masses = new double[size];
+        boolean sorted = true; // Libraries written by LipidLibraryWriter are already sorted
+        for (int row = 0; row < size; row++) {
+            masses[row] = library.getMonoisotopicMass(row);
+            sorted &= row == 0 || masses[row - 1] <= masses[row];
+        }
+        this.libraryRows = new int[size];
+        if (sorted) {
+            for (int row = 0; row < size; row++) {
+                libraryRows[row] = row;
+            }
+        } else {
+            Integer[] order = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+            }
+            double[] unsorted = masses.clone();
+            Arrays.sort(order, Comparator.comparingDouble(i -> unsorted[i])); // Only done once, when the index is built
+            for (int row = 0; row < size; row++) {
+                libraryRows[row] = order[row];
+                masses[row] = unsorted[order[row]];
+            }
+        }
+        this.compoundIds = new int[size];
+        for (int row = 0; row < size; row++) {
+            compoundIds[row] = library.getCompoundId(libraryRows[row]);
+        }
+    }
+
+    public int size() {
+        return masses.length;
+    }
+
+    public double getMass(int row) {
+        return masses[row];
+    }
+
+    public int getCompoundId(int row) {
+        return compoundIds[row];
+    }
+
+    public Lipid getLipid(int row) {
+        return library.getLipid(libraryRows[row]);
+    }
+
+    /**
+     * @return the row in the library of a row of the index
+     */
+    public int getLibraryRow(int row) {
+        return libraryRows[row];
+    }
+
+    public LipidLibrary getLibrary() {
+        return library;
+    }
+
+    /**
+     * @param mass monoisotopic mass
+     *
+     * @return the first row whose mass is greater or equal than mass (size() if there is none)
+     */
+    public int lowerBound(double mass) {
+        int low = 0;
+        int high = masses.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (masses[mid] < mass) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @param mass monoisotopic mass
+     *
+     * @return the first row whose mass is greater than mass (size() if there is none)
+     */
+    public int upperBound(double mass) {
+        int low = 0;
+        int high = masses.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (masses[mid] <= mass) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Compounds whose monoisotopic mass is within the ppm tolerance of a neutral mass
+     *
+     * @param monoisotopicMass neutral mass
+     * @param ppm tolerance
+     *
+     * @return the candidate lipids, ordered by mass
+     */
+    public List<Lipid> findByMass(double monoisotopicMass, int ppm) {
+        List<Lipid> candidates = new ArrayList<>();
+        collect(monoisotopicMass, ppm, candidates);
+        return candidates;
+    }
+
+    /**
+     * Compounds that could explain an experimental m/z with any of the adducts
+     *
+     * @param mz experimental m/z
+     * @param adducts adduct hypotheses
+     * @param ppm tolerance
+     *
+     * @return the candidate lipids without duplicates, following the order of the adducts and then the mass
+     */
+    public List<Lipid> findCandidates(double mz, Collection<AdductDescriptor> adducts, int ppm) {
+        Set<Lipid> candidates = new LinkedHashSet<>();
+        for (AdductDescriptor adduct : adducts) {
+            collect(Adduct.getMonoisotopicMassFromMZ(mz, adduct), ppm, candidates);
+        }
+        return new ArrayList<>(candidates);
+    }
+
+    /**
+     * Answer a whole feature list in a single merge pass
+     * The neutral mass grows with the m/z for a given adduct, so the start of the window only moves forward
+     *
+     * @param sortedMz experimental m/z values sorted in increasing order
+     * @param adducts adduct hypotheses
+     * @param ppm tolerance
+     *
+     * @return the candidate lipids of each m/z, in the same order as sortedMz
+     */
+    public List<List<Lipid>> findCandidates(double[] sortedMz, Collection<AdductDescriptor> adducts, int ppm) {
+        List<Set<Lipid>> candidates = new ArrayList<>(sortedMz.length);
+        for (int i = 0; i < sortedMz.length; i++) {
+            candidates.add(new LinkedHashSet<>());
+        }
+        for (AdductDescriptor adduct : adducts) {
+            int start = 0;
+            double previousMz = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < sortedMz.length; i++) {
+                if (sortedMz[i] < previousMz) {
+                    throw new IllegalArgumentException("m/z values must be sorted: " + previousMz + " found before " + sortedMz[i]);
+                }
+                previousMz = sortedMz[i];
+                double mass = Adduct.getMonoisotopicMassFromMZ(sortedMz[i], adduct);
+                double delta = Adduct.calculateDeltaPPM(mass, ppm);
+                while (start < masses.length && masses[start] < mass - delta) {
+                    start++; // Merge step: the window of the next m/z cannot start before this one
+                }
+                scan(start, mass + delta, candidates.get(i));
+            }
+        }
+        List<List<Lipid>> result = new ArrayList<>(candidates.size());
+        for (Set<Lipid> set : candidates) {
+            result.add(set.isEmpty() ? Collections.emptyList() : new ArrayList<>(set));
+        }
+        return result;
+    }
+
+    /**
+     * Add the lipids within the ppm window of the mass
+     */
+    private void collect(double monoisotopicMass, int ppm, Collection<Lipid> candidates) {
+        double delta = Adduct.calculateDeltaPPM(monoisotopicMass, ppm);
+        scan(lowerBound(monoisotopicMass - delta), monoisotopicMass + delta, candidates);
+    }
+
+    /**
+     * Add the lipids from row start while their mass is not above upper
+     */
+    private void scan(int start, double upper, Collection<Lipid> candidates) {
+        for (int row = start; row < masses.length && masses[row] <= upper; row++) {
+            candidates.add(getLipid(row));
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package database;
+
+import lipid.Lipid;
+import lipid.LipidType;
+
+/**
+ * Read access to a lipid library by row
+ * The numeric attributes can be read without building the Lipid object of the row
+ */
+public interface LipidLibrary {
+
+    /**
+     * @return number of lipids (rows go from 0 to size-1)
+     */
+    int size();
+
+    int getCompoundId(int row);
+
+    LipidType getLipidType(int row);
+
+    int getCarbons(int row);
+
+    int getDoubleBonds(int row);
+
+    double getMonoisotopicMass(int row);
+
+    /**
+     * @param row of the lipid
+     *
+     * @return the Lipid of the row, which may be built when it is requested
+     */
+    Lipid getLipid(int row);
+}
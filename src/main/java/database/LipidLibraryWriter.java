@@ -0,0 +1,148 @@
+package database;
+
+import lipid.Lipid;
+import lipid.LipidType;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static database.MappedLipidLibrary.*;
+
+/**
+ * Writes lipid libraries in the binary format read by MappedLipidLibrary
+ */
+public class LipidLibraryWriter {
+
+    private LipidLibraryWriter() {
+    }
+
+    /**
+     * Write a library file, with the records sorted by mass
+     *
+     * @param library lipids to write
+     * @param file destination, replaced if it exists
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(LipidLibrary library, Path file) throws IOException {
+        int size = library.size();
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingDouble(library::getMonoisotopicMass));
+
+        ByteBuffer records = ByteBuffer.allocate(size * RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        ByteArrayOutputStream heap = new ByteArrayOutputStream();
+        Map<String, Integer> heapOffsets = new HashMap<>(); // Repeated strings are stored once
+        for (int row = 0; row < size; row++) {
+            Lipid lipid = library.getLipid(order[row]);
+            checkShort(lipid.getCarbons(), "carbons", lipid);
+            checkShort(lipid.getDoubleBonds(), "double bonds", lipid);
+            int record = row * RECORD_SIZE;
+            records.putDouble(record + MASS_OFFSET, library.getMonoisotopicMass(order[row]));
+            records.putInt(record + COMPOUND_ID_OFFSET, lipid.getCompoundId());
+            records.putInt(record + NAME_OFFSET, addString(lipid.getName(), heap, heapOffsets));
+            records.putInt(record + FORMULA_OFFSET, addString(lipid.getFormula(), heap, heapOffsets));
+            records.putShort(record + CARBONS_OFFSET, (short) lipid.getCarbons());
+            records.putShort(record + DOUBLE_BONDS_OFFSET, (short) lipid.getDoubleBonds());
+            records.put(record + LIPID_TYPE_OFFSET, lipid.getLipidType() == null ? -1 : (byte) lipid.getLipidType().ordinal());
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(size).putInt(RECORD_SIZE);
+        header.putLong(HEADER_SIZE + (long) size * RECORD_SIZE).putLong(heap.size());
+        header.flip();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(channel, header);
+            writeFully(channel, records);
+            writeFully(channel, ByteBuffer.wrap(heap.toByteArray()));
+        }
+    }
+
+    /**
+     * Convert a CSV export into a library file
+     * Columns: compoundId,name,formula,lipidType,carbons,doubleBonds,mass. A first line starting with "compoundId" is a header
+     * When the mass is empty it is calculated from the formula
+     *
+     * @param csv text export of the library
+     * @param file destination, replaced if it exists
+     * @throws IOException if a file cannot be read or written, or a line is not valid
+     */
+    public static void convertCsv(Path csv, Path file) throws IOException {
+        List<Lipid> lipids = new ArrayList<>();
+        double[] masses = new double[1024];
+        try (BufferedReader reader = Files.newBufferedReader(csv, StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank() || (lineNumber == 1 && line.startsWith("compoundId"))) {
+                    continue;
+                }
+                String[] fields = line.split(",", -1);
+                if (fields.length != 7) {
+                    throw new IOException(csv + ":" + lineNumber + " has " + fields.length + " columns, expected 7");
+                }
+                try {
+                    Lipid lipid = new Lipid(Integer.parseInt(fields[0].trim()), fields[1].trim(), fields[2].trim(),
+                            LipidType.valueOf(fields[3].trim()), Integer.parseInt(fields[4].trim()), Integer.parseInt(fields[5].trim()));
+                    if (lipids.size() == masses.length) {
+                        masses = Arrays.copyOf(masses, masses.length * 2);
+                    }
+                    String mass = fields[6].trim();
+                    masses[lipids.size()] = mass.isEmpty() ? lipid.getMonoisotopicMass() : Double.parseDouble(mass);
+                    lipids.add(lipid);
+                } catch (IllegalArgumentException e) { // Also NumberFormatException
+                    throw new IOException(csv + ":" + lineNumber + " is not valid: " + e.getMessage(), e);
+                }
+            }
+        }
+        write(new ArrayLipidLibrary(lipids, Arrays.copyOf(masses, lipids.size())), file);
+    }
+
+    private static int addString(String value, ByteArrayOutputStream heap, Map<String, Integer> heapOffsets) {
+        if (value == null) {
+            return -1;
+        }
+        Integer offset = heapOffsets.get(value);
+        if (offset == null) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > 0xFFFF) {
+                throw new IllegalArgumentException("String too long for the library: " + value.substring(0, 32) + "...");
+            }
+            offset = heap.size();
+            heap.write(bytes.length & 0xFF); // Little endian unsigned short
+            heap.write(bytes.length >>> 8);
+            heap.write(bytes, 0, bytes.length);
+            heapOffsets.put(value, offset);
+        }
+        return offset;
+    }
+
+    private static void checkShort(int value, String field, Lipid lipid) {
+        if (value < Short.MIN_VALUE || value > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many " + field + " to store " + lipid);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package database;
+
+import lipid.Lipid;
+import lipid.LipidType;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Lipid library read from a memory-mapped binary file written by LipidLibraryWriter
+ * Opening it only maps the file: the numeric columns are read straight from the mapped records,
+ * and the Lipid of a row (with its name and formula) is only built when getLipid is called
+ *
+ * File layout (little endian):
+ * - Header of HEADER_SIZE bytes: magic, version, record count, record size, string heap offset and length
+ * - Fixed-width records of RECORD_SIZE bytes sorted by mass: mass (double), compoundId (int), name offset (int),
+ *   formula offset (int), carbons (short), double bonds (short), LipidType ordinal (byte, -1 when unknown) and padding
+ * - String heap: every string is an unsigned short length followed by its UTF-8 bytes
+ */
+public class MappedLipidLibrary implements LipidLibrary, Closeable {
+
+    static final int MAGIC = 0x4C50494C; // "LIPL"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 32;
+    static final int RECORD_SIZE = 32;
+    static final int MASS_OFFSET = 0;
+    static final int COMPOUND_ID_OFFSET = 8;
+    static final int NAME_OFFSET = 12;
+    static final int FORMULA_OFFSET = 16;
+    static final int CARBONS_OFFSET = 20;
+    static final int DOUBLE_BONDS_OFFSET = 22;
+    static final int LIPID_TYPE_OFFSET = 24;
+
+    private static final LipidType[] LIPID_TYPES = LipidType.values();
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final int size;
+    private final int heapOffset;
+
+    private MappedLipidLibrary(FileChannel channel, ByteBuffer buffer, int size, int heapOffset) {
+        this.channel = channel;
+        this.buffer = buffer;
+        this.size = size;
+        this.heapOffset = heapOffset;
+    }
+
+    /**
+     * Map a library file
+     *
+     * @param file written by LipidLibraryWriter
+     *
+     * @return the library, to be closed when it is not needed anymore
+     * @throws IOException if the file cannot be read or is not a lipid library
+     */
+    public static MappedLipidLibrary open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            long fileSize = channel.size();
+            if (fileSize > Integer.MAX_VALUE) {
+                throw new IOException(file + " is larger than 2GB and cannot be mapped as a single buffer");
+            }
+            if (fileSize < HEADER_SIZE) {
+                throw new IOException(file + " is too small to be a lipid library");
+            }
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize).order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.getInt(0) != MAGIC) {
+                throw new IOException(file + " is not a lipid library");
+            }
+            if (buffer.getInt(4) != VERSION) {
+                throw new IOException(file + " has version " + buffer.getInt(4) + " but only version " + VERSION + " is supported");
+            }
+            int size = buffer.getInt(8);
+            if (buffer.getInt(12) != RECORD_SIZE) {
+                throw new IOException(file + " has records of " + buffer.getInt(12) + " bytes, expected " + RECORD_SIZE);
+            }
+            long heapOffset = buffer.getLong(16);
+            long heapLength = buffer.getLong(24);
+            if (heapOffset != HEADER_SIZE + (long) size * RECORD_SIZE || heapOffset + heapLength != fileSize) {
+                throw new IOException(file + " is truncated or corrupted");
+            }
+            return new MappedLipidLibrary(channel, buffer, size, (int) heapOffset);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private int record(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Row " + row + " out of " + size);
+        }
+        return HEADER_SIZE + row * RECORD_SIZE;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int getCompoundId(int row) {
+        return buffer.getInt(record(row) + COMPOUND_ID_OFFSET);
+    }
+
+    @Override
+    public LipidType getLipidType(int row) {
+        byte ordinal = buffer.get(record(row) + LIPID_TYPE_OFFSET);
+        return ordinal < 0 ? null : LIPID_TYPES[ordinal];
+    }
+
+    @Override
+    public int getCarbons(int row) {
+        return buffer.getShort(record(row) + CARBONS_OFFSET);
+    }
+
+    @Override
+    public int getDoubleBonds(int row) {
+        return buffer.getShort(record(row) + DOUBLE_BONDS_OFFSET);
+    }
+
+    @Override
+    public double getMonoisotopicMass(int row) {
+        return buffer.getDouble(record(row) + MASS_OFFSET);
+    }
+
+    public String getName(int row) {
+        return readString(buffer.getInt(record(row) + NAME_OFFSET));
+    }
+
+    public String getFormula(int row) {
+        return readString(buffer.getInt(record(row) + FORMULA_OFFSET));
+    }
+
+    /**
+     * Build the Lipid of a row from the mapped record, nothing is cached
+     */
+    @Override
+    public Lipid getLipid(int row) {
+        return new Lipid(getCompoundId(row), getName(row), getFormula(row), getLipidType(row), getCarbons(row), getDoubleBonds(row));
+    }
+
+    private String readString(int offset) {
+        if (offset < 0) {
+            return null;
+        }
+        int position = heapOffset + offset;
+        int length = Short.toUnsignedInt(buffer.getShort(position));
+        byte[] bytes = new byte[length];
+        buffer.get(position + 2, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Close the file. The mapping itself is released by the garbage collector once the library is unreachable
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
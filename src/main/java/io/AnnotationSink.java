@@ -0,0 +1,39 @@
+package io;
+
+import lipid.Annotation;
+import lipid.AnnotationStore;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Destination of scored annotations. Rows may be buffered until the sink is closed
+ */
+public interface AnnotationSink extends Closeable {
+
+    /**
+     * @param annotation already scored
+     * @throws IOException if the row cannot be written
+     */
+    void write(Annotation annotation) throws IOException;
+
+    /**
+     * @param annotations already scored, written in iteration order
+     * @throws IOException if a row cannot be written
+     */
+    default void writeAll(Iterable<Annotation> annotations) throws IOException {
+        for (Annotation annotation : annotations) {
+            write(annotation);
+        }
+    }
+
+    /**
+     * @param store already scored, written in row order
+     * @throws IOException if a row cannot be written
+     */
+    default void writeAll(AnnotationStore store) throws IOException {
+        for (int row = 0; row < store.size(); row++) {
+            write(store.view(row));
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package io;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import static io.BinaryAnnotationWriter.BLOCK_HEADER_SIZE;
+import static io.BinaryAnnotationWriter.FLAG_DEFLATE;
+import static io.BinaryAnnotationWriter.MAGIC;
+import static io.BinaryAnnotationWriter.ROW_SIZE;
+import static io.BinaryAnnotationWriter.VERSION;
+
+/**
+ * Reads a result file written by BinaryAnnotationWriter one block at a time
+ * The reader is a cursor: next() moves to the following row and the getters return the values of the current row,
+ * so no object is created per row. Adducts are returned as names, resolved through the table in the header
+ */
+public class BinaryAnnotationReader implements Closeable {
+
+    private final ReadableByteChannel channel;
+    private final Inflater inflater;
+    private final List<String> adducts;
+    private ByteBuffer stored = ByteBuffer.allocate(0);
+    private ByteBuffer block = ByteBuffer.allocate(0).order(ByteOrder.LITTLE_ENDIAN);
+    private int blockRows;
+    private int row = -1;
+    private boolean finished;
+
+    /**
+     * @param channel positioned at the start of a result file, closed with the reader
+     * @throws IOException if the header cannot be read or is not valid
+     */
+    public BinaryAnnotationReader(ReadableByteChannel channel) throws IOException {
+        this.channel = channel;
+        ByteBuffer header = readFully(5 * Integer.BYTES);
+        if (header.getInt() != MAGIC) {
+            throw new IOException("Not a result file");
+        }
+        int version = header.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported result file version " + version);
+        }
+        int flags = header.getInt();
+        header.getInt(); // Rows per block, only a hint for the writer
+        int count = header.getInt();
+        List<String> names = new ArrayList<>(count);
+        for (int id = 0; id < count; id++) {
+            int length = Short.toUnsignedInt(readFully(Short.BYTES).getShort());
+            ByteBuffer name = readFully(length);
+            names.add(StandardCharsets.UTF_8.decode(name).toString());
+        }
+        this.adducts = Collections.unmodifiableList(names);
+        this.inflater = (flags & FLAG_DEFLATE) != 0 ? new Inflater() : null;
+    }
+
+    /**
+     * @param file written by BinaryAnnotationWriter
+     *
+     * @return the reader, to be closed when it is not needed anymore
+     * @throws IOException if the file cannot be read or is not a result file
+     */
+    public static BinaryAnnotationReader open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            return new BinaryAnnotationReader(channel);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the adduct names of the file, indexed by the ids stored in it
+     */
+    public List<String> getAdducts() {
+        return adducts;
+    }
+
+    /**
+     * Move to the next row
+     *
+     * @return false when there are no more rows
+     * @throws IOException if the file cannot be read or is truncated
+     */
+    public boolean next() throws IOException {
+        if (row + 1 < blockRows) {
+            row++;
+            return true;
+        }
+        while (!finished) {
+            readBlock();
+            if (blockRows > 0) {
+                row = 0;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void readBlock() throws IOException {
+        ByteBuffer header = readFully(BLOCK_HEADER_SIZE);
+        int rows = header.getInt();
+        int rawLength = header.getInt();
+        int storedLength = header.getInt();
+        row = -1;
+        blockRows = 0;
+        if (rows == 0) {
+            finished = true;
+            return;
+        }
+        if (rawLength != rows * ROW_SIZE) {
+            throw new IOException("Block of " + rows + " rows has " + rawLength + " bytes");
+        }
+        if (block.capacity() < rawLength) {
+            block = ByteBuffer.allocateDirect(rawLength).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        block.clear().limit(rawLength);
+        if (inflater == null) {
+            if (storedLength != rawLength) {
+                throw new IOException("Uncompressed block of " + rawLength + " bytes stored in " + storedLength);
+            }
+            readFully(block);
+        } else {
+            if (stored.capacity() < storedLength) {
+                stored = ByteBuffer.allocateDirect(storedLength);
+            }
+            stored.clear().limit(storedLength);
+            readFully(stored);
+            stored.flip();
+            inflater.reset();
+            inflater.setInput(stored);
+            try {
+                while (block.hasRemaining() && !inflater.finished()) {
+                    if (inflater.inflate(block) == 0 && inflater.needsInput()) {
+                        throw new EOFException("Truncated compressed block");
+                    }
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupted compressed block", e);
+            }
+            if (block.hasRemaining()) {
+                throw new IOException("Compressed block is shorter than " + rawLength + " bytes");
+            }
+        }
+        blockRows = rows;
+    }
+
+    private ByteBuffer readFully(int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(buffer);
+        buffer.flip();
+        return buffer;
+    }
+
+    private void readFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("Truncated result file");
+            }
+        }
+    }
+
+    private int column(int columnOffset, int width) {
+        if (row < 0) {
+            throw new IllegalStateException("next() has not returned a row");
+        }
+        return columnOffset * blockRows + row * width;
+    }
+
+    public double getMz() {
+        return block.getDouble(column(0, Double.BYTES));
+    }
+
+    public double getRtMin() {
+        return block.getDouble(column(Double.BYTES, Double.BYTES));
+    }
+
+    public double getNormalizedScore() {
+        return block.getDouble(column(2 * Double.BYTES, Double.BYTES));
+    }
+
+    /**
+     * @return the detected adducts as a mask of the ids in getAdducts()
+     */
+    public long getDetectedMask() {
+        return block.getLong(column(3 * Double.BYTES, Long.BYTES));
+    }
+
+    public int getLipidId() {
+        return block.getInt(column(4 * Long.BYTES, Integer.BYTES));
+    }
+
+    public int getScore() {
+        return block.getInt(column(4 * Long.BYTES + Integer.BYTES, Integer.BYTES));
+    }
+
+    public int getTotalScoresApplied() {
+        return block.getInt(column(4 * Long.BYTES + 2 * Integer.BYTES, Integer.BYTES));
+    }
+
+    /**
+     * @return the adduct id, or -1 when the annotation had no adduct
+     */
+    public int getAdductId() {
+        return block.getShort(column(4 * Long.BYTES + 3 * Integer.BYTES, Short.BYTES));
+    }
+
+    /**
+     * @return the adduct name, or null when the annotation had no adduct
+     */
+    public String getAdduct() {
+        int id = getAdductId();
+        return id < 0 ? null : adducts.get(id);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (inflater != null) {
+            inflater.end();
+        }
+        channel.close();
+    }
+}
@@ -0,0 +1,250 @@
+package io;
+
+import adduct.AdductDescriptor;
+import adduct.AdductRegistry;
+import lipid.Annotation;
+import lipid.AnnotationStore;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.Deflater;
+
+/**
+ * Writes scored annotations in a columnar binary file, read back with BinaryAnnotationReader
+ * Rows are buffered in primitive arrays and written in blocks, one column after the other, through direct buffers.
+ * Adducts are stored as AdductRegistry ids and the detected adducts as a bit mask of ids.
+ *
+ * File layout (little endian):
+ * - Header: magic, version, flags (FLAG_DEFLATE), rows per block, number of adducts, then the name of every adduct
+ *   in id order (unsigned short length followed by its UTF-8 bytes)
+ * - Blocks: row count, raw length and stored length (ints), then the stored bytes, deflated if the flag is set.
+ *   Raw columns: mz, RT and normalized score (doubles), detected adducts mask (long), lipid id, score and
+ *   total scores applied (ints), adduct id (short, -1 when there is no adduct)
+ * - A block with 0 rows marks the end of the file
+ */
+public class BinaryAnnotationWriter implements AnnotationSink {
+
+    static final int MAGIC = 0x4C505343; // "LPSC"
+    static final int VERSION = 1;
+    static final int FLAG_DEFLATE = 1;
+    static final int BLOCK_HEADER_SIZE = 12;
+    static final int ROW_SIZE = 3 * Double.BYTES + Long.BYTES + 3 * Integer.BYTES + Short.BYTES;
+
+    public static final int DEFAULT_BLOCK_ROWS = 16384;
+
+    private final WritableByteChannel channel;
+    private final Deflater deflater;
+    private final int blockRows;
+    private final double[] mz;
+    private final double[] rt;
+    private final double[] normalizedScore;
+    private final long[] detectedMask;
+    private final int[] lipidId;
+    private final int[] score;
+    private final int[] totalScoresApplied;
+    private final short[] adductId;
+    private final ByteBuffer raw;
+    private final ByteBuffer stored;
+    private int rows;
+    private boolean closed;
+
+    /**
+     * @param channel destination, closed with the writer
+     * @param blockRows rows buffered before a block is written
+     * @param compress whether blocks are deflated
+     * @throws IOException if the header cannot be written
+     */
+    public BinaryAnnotationWriter(WritableByteChannel channel, int blockRows, boolean compress) throws IOException {
+        if (blockRows < 1) {
+            throw new IllegalArgumentException("blockRows must be at least 1, got " + blockRows);
+        }
+        this.channel = channel;
+        this.blockRows = blockRows;
+        this.deflater = compress ? new Deflater(Deflater.BEST_SPEED) : null;
+        this.mz = new double[blockRows];
+        this.rt = new double[blockRows];
+        this.normalizedScore = new double[blockRows];
+        this.detectedMask = new long[blockRows];
+        this.lipidId = new int[blockRows];
+        this.score = new int[blockRows];
+        this.totalScoresApplied = new int[blockRows];
+        this.adductId = new short[blockRows];
+        this.raw = ByteBuffer.allocateDirect(blockRows * ROW_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        // Deflate can grow incompressible data by a few bytes per 16 KiB block
+        this.stored = ByteBuffer.allocateDirect(BLOCK_HEADER_SIZE + raw.capacity() + raw.capacity() / 1000 + 64)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        writeHeader(compress);
+    }
+
+    /**
+     * Create or replace a result file
+     *
+     * @param file destination
+     * @param compress whether blocks are deflated
+     *
+     * @return the writer, to be closed to write the last block
+     * @throws IOException if the file cannot be written
+     */
+    public static BinaryAnnotationWriter create(Path file, boolean compress) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            return new BinaryAnnotationWriter(channel, DEFAULT_BLOCK_ROWS, compress);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private void writeHeader(boolean compress) throws IOException {
+        int adducts = AdductRegistry.size();
+        byte[][] names = new byte[adducts][];
+        int size = 5 * Integer.BYTES;
+        for (int id = 0; id < adducts; id++) {
+            names[id] = AdductRegistry.get(id).getName().getBytes(StandardCharsets.UTF_8);
+            size += Short.BYTES + names[id].length;
+        }
+        ByteBuffer header = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(compress ? FLAG_DEFLATE : 0).putInt(blockRows).putInt(adducts);
+        for (byte[] name : names) {
+            header.putShort((short) name.length).put(name);
+        }
+        header.flip();
+        writeFully(header);
+    }
+
+    @Override
+    public void write(Annotation annotation) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("The writer is closed");
+        }
+        mz[rows] = annotation.getMz();
+        rt[rows] = annotation.getRtMin();
+        normalizedScore[rows] = annotation.getNormalizedScore();
+        detectedMask[rows] = annotation.getDetectedAdductMask();
+        lipidId[rows] = annotation.getLipid().getCompoundId();
+        score[rows] = annotation.getScore();
+        totalScoresApplied[rows] = annotation.getTotalScoreApplied();
+        adductId[rows] = (short) adductId(annotation);
+        if (++rows == blockRows) {
+            flushBlock();
+        }
+    }
+
+    /**
+     * Copy the rows straight from the rows of the store into the blocks, without creating Annotation objects
+     */
+    @Override
+    public void writeAll(AnnotationStore store) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("The writer is closed");
+        }
+        for (int row = 0; row < store.size(); row++) {
+            mz[rows] = store.getMz(row);
+            rt[rows] = store.getRtMin(row);
+            normalizedScore[rows] = store.getNormalizedScore(row);
+            detectedMask[rows] = store.getDetectedAdductMask(row);
+            lipidId[rows] = store.getLipid(row).getCompoundId();
+            score[rows] = store.getScore(row);
+            totalScoresApplied[rows] = store.getTotalScoresApplied(row);
+            adductId[rows] = (short) store.getAdductId(row);
+            if (++rows == blockRows) {
+                flushBlock();
+            }
+        }
+    }
+
+    /**
+     * @return the registry id of the adduct of the annotation, or -1 if it has none
+     */
+    static int adductId(Annotation annotation) {
+        AdductDescriptor adduct = annotation.getAdductDescriptor();
+        return adduct == null ? -1 : adduct.getId();
+    }
+
+    private void flushBlock() throws IOException {
+        raw.clear();
+        for (int i = 0; i < rows; i++) {
+            raw.putDouble(mz[i]);
+        }
+        for (int i = 0; i < rows; i++) {
+            raw.putDouble(rt[i]);
+        }
+        for (int i = 0; i < rows; i++) {
+            raw.putDouble(normalizedScore[i]);
+        }
+        for (int i = 0; i < rows; i++) {
+            raw.putLong(detectedMask[i]);
+        }
+        for (int i = 0; i < rows; i++) {
+            raw.putInt(lipidId[i]);
+        }
+        for (int i = 0; i < rows; i++) {
+            raw.putInt(score[i]);
+        }
+        for (int i = 0; i < rows; i++) {
+            raw.putInt(totalScoresApplied[i]);
+        }
+        for (int i = 0; i < rows; i++) {
+            raw.putShort(adductId[i]);
+        }
+        raw.flip();
+        int rawLength = raw.remaining();
+
+        stored.clear();
+        stored.position(BLOCK_HEADER_SIZE);
+        if (deflater != null) {
+            deflater.reset();
+            deflater.setInput(raw);
+            deflater.finish();
+            while (!deflater.finished()) {
+                if (deflater.deflate(stored) == 0 && !stored.hasRemaining()) {
+                    throw new IllegalStateException("Deflated block does not fit its buffer");
+                }
+            }
+        } else {
+            stored.put(raw);
+        }
+        int storedLength = stored.position() - BLOCK_HEADER_SIZE;
+        stored.putInt(0, rows).putInt(4, rawLength).putInt(8, storedLength);
+        stored.flip();
+        writeFully(stored);
+        rows = 0;
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Write the buffered rows and the end marker, and close the channel
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (rows > 0) {
+                flushBlock();
+            }
+            ByteBuffer end = ByteBuffer.allocate(BLOCK_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            end.putInt(0).putInt(0).putInt(0).flip();
+            writeFully(end);
+        } finally {
+            if (deflater != null) {
+                deflater.end();
+            }
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package io;
+
+import adduct.AdductRegistry;
+import lipid.Annotation;
+import lipid.AnnotationStore;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes scored annotations as CSV, formatting the numbers straight into a direct buffer instead of building Strings
+ * Columns: lipidId,mz,rtMin,adduct,detectedAdducts,score,totalScoresApplied,normalizedScore
+ * The detected adducts are separated by ';' in registry order. m/z is written with MZ_DECIMALS decimals, the RT with
+ * RT_DECIMALS and the normalized score with SCORE_DECIMALS
+ */
+public class CsvAnnotationWriter implements AnnotationSink {
+
+    static final String HEADER = "lipidId,mz,rtMin,adduct,detectedAdducts,score,totalScoresApplied,normalizedScore";
+    static final int MZ_DECIMALS = 5;
+    static final int RT_DECIMALS = 3;
+    static final int SCORE_DECIMALS = 4;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final long[] POWERS_OF_TEN = new long[10];
+    private static final double MAX_FIXED = 1.0e12; // Larger values use Double.toString so the scaled value fits a long
+    private static final byte[][] ADDUCT_NAMES = new byte[AdductRegistry.size()][];
+    private static final int MAX_ROW_SIZE;
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+        int names = 0;
+        for (int id = 0; id < ADDUCT_NAMES.length; id++) {
+            ADDUCT_NAMES[id] = AdductRegistry.get(id).getName().getBytes(StandardCharsets.UTF_8);
+            names += ADDUCT_NAMES[id].length + 1;
+        }
+        MAX_ROW_SIZE = 2 * names + 8 * 32; // Every adduct twice, and 8 numbers with separators
+    }
+
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(Math.max(BUFFER_SIZE, 2 * MAX_ROW_SIZE));
+    private final byte[] digits = new byte[20];
+    private boolean closed;
+
+    /**
+     * @param channel destination, closed with the writer
+     * @throws IOException if the header cannot be written
+     */
+    public CsvAnnotationWriter(WritableByteChannel channel) throws IOException {
+        this.channel = channel;
+        buffer.put(HEADER.getBytes(StandardCharsets.US_ASCII)).put((byte) '\n');
+    }
+
+    /**
+     * Create or replace a CSV file
+     *
+     * @param file destination
+     *
+     * @return the writer, to be closed to write the buffered rows
+     * @throws IOException if the file cannot be written
+     */
+    public static CsvAnnotationWriter create(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            return new CsvAnnotationWriter(channel);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public void write(Annotation annotation) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("The writer is closed");
+        }
+        if (buffer.remaining() < MAX_ROW_SIZE) {
+            flush();
+        }
+        writeRow(annotation.getLipid().getCompoundId(), annotation.getMz(), annotation.getRtMin(),
+                BinaryAnnotationWriter.adductId(annotation), annotation.getDetectedAdductMask(), annotation.getScore(),
+                annotation.getTotalScoreApplied(), annotation.getNormalizedScore());
+    }
+
+    /**
+     * Write the rows straight from the rows of the store, without creating Annotation objects
+     */
+    @Override
+    public void writeAll(AnnotationStore store) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("The writer is closed");
+        }
+        for (int row = 0; row < store.size(); row++) {
+            if (buffer.remaining() < MAX_ROW_SIZE) {
+                flush();
+            }
+            writeRow(store.getLipid(row).getCompoundId(), store.getMz(row), store.getRtMin(row), store.getAdductId(row),
+                    store.getDetectedAdductMask(row), store.getScore(row), store.getTotalScoresApplied(row),
+                    store.getNormalizedScore(row));
+        }
+    }
+
+    private void writeRow(int lipidId, double mz, double rtMin, int adduct, long detected, int score, int applied,
+                          double normalizedScore) {
+        putLong(lipidId);
+        buffer.put((byte) ',');
+        putFixed(mz, MZ_DECIMALS);
+        buffer.put((byte) ',');
+        putFixed(rtMin, RT_DECIMALS);
+        buffer.put((byte) ',');
+        if (adduct >= 0) {
+            buffer.put(ADDUCT_NAMES[adduct]);
+        }
+        buffer.put((byte) ',');
+        boolean first = true;
+        while (detected != 0) {
+            int id = Long.numberOfTrailingZeros(detected);
+            detected &= detected - 1;
+            if (!first) {
+                buffer.put((byte) ';');
+            }
+            buffer.put(ADDUCT_NAMES[id]);
+            first = false;
+        }
+        buffer.put((byte) ',');
+        putLong(score);
+        buffer.put((byte) ',');
+        putLong(applied);
+        buffer.put((byte) ',');
+        putFixed(normalizedScore, SCORE_DECIMALS);
+        buffer.put((byte) '\n');
+    }
+
+    private void putLong(long value) {
+        if (value < 0) {
+            buffer.put((byte) '-');
+            if (value == Long.MIN_VALUE) {
+                buffer.put(Long.toString(value).substring(1).getBytes(StandardCharsets.US_ASCII));
+                return;
+            }
+            value = -value;
+        }
+        int length = 0;
+        do {
+            digits[length++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        while (length > 0) {
+            buffer.put(digits[--length]);
+        }
+    }
+
+    /**
+     * Write value rounded to the given decimals
+     */
+    private void putFixed(double value, int decimals) {
+        if (!(Math.abs(value) < MAX_FIXED)) { // Also NaN and infinities
+            buffer.put(Double.toString(value).getBytes(StandardCharsets.US_ASCII));
+            return;
+        }
+        long scaled = Math.round(Math.abs(value) * POWERS_OF_TEN[decimals]);
+        if (value < 0 && scaled != 0) {
+            buffer.put((byte) '-');
+        }
+        putLong(scaled / POWERS_OF_TEN[decimals]);
+        buffer.put((byte) '.');
+        long fraction = scaled % POWERS_OF_TEN[decimals];
+        for (int i = decimals - 1; i >= 0; i--) {
+            buffer.put((byte) ('0' + fraction / POWERS_OF_TEN[i] % 10));
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Write the buffered rows and close the channel
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,479 @@
+package io;
+
+import lipid.Annotation;
+import lipid.IoniationMode;
+import lipid.Lipid;
+import lipid.LipidType;
+import lipid.PeakList;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+
+/**
+ * Streams the rows of a feature table as Annotations without loading the file
+ * Bytes are read from a channel into one buffer and split into lines in a reusable line buffer, so memory does not
+ * depend on the size of the file: only the current chunk (and the queued ones when feeding a consumer) is kept.
+ * Columns, separated by commas: mz,rtMin,intensity,ionizationMode,compoundId,name,formula,lipidType,carbons,doubleBonds,peaks
+ * - ionizationMode is POSITIVE or NEGATIVE, lipidType a LipidType name or empty when unknown
+ * - peaks are the grouped signals as mz:intensity pairs separated by ';', empty when there are none
+ * A first line starting with "mz" is a header. Blank lines are skipped. Fields cannot be quoted.
+ * Rows of the same compoundId share one Lipid, taken from a shared lookup (e.g. a lipid library) when one is given,
+ * or else built from the first of them
+ */
+public class FeatureTableReader implements Closeable {
+
+    public static final int DEFAULT_CHUNK_SIZE = 4096;
+    public static final int DEFAULT_QUEUED_CHUNKS = 4;
+
+    static final int COLUMNS = 11;
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int MAX_CACHED_LIPIDS = 1 << 16;
+    private static final LipidType[] LIPID_TYPES = LipidType.values();
+    private static final double[] POWERS_OF_TEN = new double[23]; // Exactly representable as doubles
+    private static final List<Annotation> END = new ArrayList<>(0);
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private final ReadableByteChannel channel;
+    private final String source;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private byte[] line = new byte[256];
+    private int lineLength;
+    private final int[] fieldStart = new int[COLUMNS + 1];
+    private final int[] fieldEnd = new int[COLUMNS + 1];
+    private double[] peakMz = new double[16];
+    private double[] peakIntensity = new double[16];
+    private final IntFunction<Lipid> sharedLipids;
+    private final Map<Integer, Lipid> lipids = new HashMap<>();
+    private long lineNumber;
+    private boolean endOfInput;
+
+    /**
+     * @param channel to read, closed with the reader
+     * @param source name of the input used in error messages
+     */
+    public FeatureTableReader(ReadableByteChannel channel, String source) {
+        this(channel, source, null);
+    }
+
+    /**
+     * @param channel to read, closed with the reader
+     * @param source name of the input used in error messages
+     * @param sharedLipids returns the Lipid of a compoundId, or null to build it from the row. May be null
+     */
+    public FeatureTableReader(ReadableByteChannel channel, String source, IntFunction<Lipid> sharedLipids) {
+        this.channel = channel;
+        this.source = source;
+        this.sharedLipids = sharedLipids;
+        this.buffer.flip(); // Empty until the first read
+    }
+
+    /**
+     * @param file feature table to read
+     *
+     * @return a reader to be closed when it is not needed anymore
+     * @throws IOException if the file cannot be opened
+     */
+    public static FeatureTableReader open(Path file) throws IOException {
+        return open(file, null);
+    }
+
+    /**
+     * @param file feature table to read
+     * @param sharedLipids returns the Lipid of a compoundId, or null to build it from the row. May be null
+     *
+     * @return a reader to be closed when it is not needed anymore
+     * @throws IOException if the file cannot be opened
+     */
+    public static FeatureTableReader open(Path file, IntFunction<Lipid> sharedLipids) throws IOException {
+        return new FeatureTableReader(FileChannel.open(file, StandardOpenOption.READ), file.toString(), sharedLipids);
+    }
+
+    /**
+     * @return the next row, or null at the end of the table
+     * @throws IOException if the input cannot be read or the row is not valid
+     */
+    public Annotation next() throws IOException {
+        while (readLine()) {
+            if (isBlank() || (lineNumber == 1 && startsWith("mz"))) {
+                continue;
+            }
+            try {
+                return parse();
+            } catch (IllegalArgumentException e) { // Also NumberFormatException
+                throw new IOException(source + ":" + lineNumber + " is not valid: " + e.getMessage(), e);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Read the next rows, sorted by retention time
+     *
+     * @param maxRows maximum number of rows in the chunk
+     *
+     * @return up to maxRows annotations sorted by RT (stable for equal RTs), empty at the end of the table
+     * @throws IOException if the input cannot be read or a row is not valid
+     */
+    public List<Annotation> nextChunk(int maxRows) throws IOException {
+        if (maxRows < 1) {
+            throw new IllegalArgumentException("maxRows must be at least 1, got " + maxRows);
+        }
+        List<Annotation> chunk = new ArrayList<>(Math.min(maxRows, DEFAULT_CHUNK_SIZE));
+        Annotation annotation;
+        while (chunk.size() < maxRows && (annotation = next()) != null) {
+            chunk.add(annotation);
+        }
+        chunk.sort(Comparator.comparingDouble(Annotation::getRtMin));
+        return chunk;
+    }
+
+    /**
+     * Read a table on a background thread and hand its chunks to a consumer on the calling thread
+     * The reader blocks when maxQueuedChunks chunks are waiting, so a slow consumer (e.g. the scoring) limits how much
+     * of the file is in memory at once. If the consumer throws, the reading stops and the exception is rethrown
+     *
+     * @param file feature table to read
+     * @param chunkSize maximum rows per chunk
+     * @param maxQueuedChunks chunks read ahead of the consumer
+     * @param consumer receives each chunk, sorted by RT
+     *
+     * @return the number of rows read
+     * @throws IOException if the file cannot be read or a row is not valid
+     */
+    public static long feed(Path file, int chunkSize, int maxQueuedChunks, Consumer<List<Annotation>> consumer) throws IOException {
+        if (chunkSize < 1 || maxQueuedChunks < 1) {
+            throw new IllegalArgumentException("chunkSize and maxQueuedChunks must be at least 1, got "
+                    + chunkSize + " and " + maxQueuedChunks);
+        }
+        BlockingQueue<List<Annotation>> queue = new ArrayBlockingQueue<>(maxQueuedChunks);
+        IOException[] failure = new IOException[1];
+        FeatureTableReader reader = open(file);
+        Thread producer = new Thread(() -> {
+            try (reader) {
+                List<Annotation> chunk;
+                do {
+                    chunk = reader.nextChunk(chunkSize);
+                    queue.put(chunk.isEmpty() ? END : chunk);
+                } while (!chunk.isEmpty());
+            } catch (IOException e) {
+                failure[0] = e;
+                try {
+                    queue.put(END); // The consumer drains the queue until END
+                } catch (InterruptedException stopped) {
+                    // Stopped by the consumer
+                }
+            } catch (InterruptedException e) {
+                // Stopped by the consumer
+            }
+        }, "feature-table-reader");
+        producer.setDaemon(true);
+        producer.start();
+
+        long rows = 0;
+        boolean finished = false;
+        try {
+            List<Annotation> chunk;
+            while ((chunk = queue.take()) != END) {
+                rows += chunk.size();
+                consumer.accept(chunk);
+            }
+            producer.join();
+            finished = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while reading " + file, e);
+        } finally {
+            if (!finished) {
+                producer.interrupt();
+            }
+        }
+        if (failure[0] != null) { // Visible after join
+            throw failure[0];
+        }
+        return rows;
+    }
+
+    /**
+     * @return the number of lines read so far, including the header and blank lines
+     */
+    public long getLineNumber() {
+        return lineNumber;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Copy the next line into the line buffer, without its terminator
+     *
+     * @return false at the end of the input
+     */
+    private boolean readLine() throws IOException {
+        lineLength = 0;
+        while (true) {
+            if (!buffer.hasRemaining()) {
+                if (endOfInput || !fill()) {
+                    if (lineLength > 0) {
+                        lineNumber++;
+                        return true; // Last line without terminator
+                    }
+                    return false;
+                }
+            }
+            byte[] bytes = buffer.array();
+            int start = buffer.position();
+            int limit = buffer.limit();
+            int end = start;
+            while (end < limit && bytes[end] != '\n') {
+                end++;
+            }
+            append(bytes, start, end - start);
+            if (end < limit) {
+                buffer.position(end + 1);
+                if (lineLength > 0 && line[lineLength - 1] == '\r') {
+                    lineLength--;
+                }
+                lineNumber++;
+                return true;
+            }
+            buffer.position(limit);
+        }
+    }
+
+    private boolean fill() throws IOException {
+        buffer.clear();
+        int read;
+        do {
+            read = channel.read(buffer);
+        } while (read == 0);
+        buffer.flip();
+        if (read < 0) {
+            endOfInput = true;
+            return false;
+        }
+        return true;
+    }
+
+    private void append(byte[] bytes, int from, int length) {
+        if (lineLength + length > line.length) {
+            line = Arrays.copyOf(line, Math.max(line.length * 2, lineLength + length));
+        }
+        System.arraycopy(bytes, from, line, lineLength, length);
+        lineLength += length;
+    }
+
+    private boolean isBlank() {
+        for (int i = 0; i < lineLength; i++) {
+            if (line[i] != ' ' && line[i] != '\t' && line[i] != '\r') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean startsWith(String prefix) {
+        int start = skipSpaces(0, lineLength);
+        if (lineLength - start < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (line[start + i] != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Annotation parse() {
+        int fields = 0;
+        int start = 0;
+        for (int i = 0; i <= lineLength; i++) {
+            if (i == lineLength || line[i] == ',') {
+                if (fields == COLUMNS) {
+                    throw new IllegalArgumentException("more than " + COLUMNS + " columns");
+                }
+                fieldStart[fields] = skipSpaces(start, i);
+                fieldEnd[fields] = trimSpaces(fieldStart[fields], i);
+                fields++;
+                start = i + 1;
+            }
+        }
+        if (fields != COLUMNS) {
+            throw new IllegalArgumentException(fields + " columns, expected " + COLUMNS);
+        }
+        double mz = parseDouble(fieldStart[0], fieldEnd[0]);
+        double rt = parseDouble(fieldStart[1], fieldEnd[1]);
+        double intensity = parseDouble(fieldStart[2], fieldEnd[2]);
+        IoniationMode mode = IoniationMode.valueOf(string(3));
+        Lipid lipid = lipid(parseInt(fieldStart[4], fieldEnd[4]));
+        return new Annotation(lipid, mz, intensity, rt, mode, parsePeaks(fieldStart[10], fieldEnd[10]));
+    }
+
+    private Lipid lipid(int compoundId) {
+        Lipid lipid = sharedLipids == null ? null : sharedLipids.apply(compoundId);
+        if (lipid == null) {
+            lipid = lipids.get(compoundId);
+        }
+        if (lipid == null) {
+            String type = string(7);
+            lipid = new Lipid(compoundId, string(5), string(6), type.isEmpty() ? null : lipidType(type),
+                    parseInt(fieldStart[8], fieldEnd[8]), parseInt(fieldStart[9], fieldEnd[9]));
+            if (lipids.size() == MAX_CACHED_LIPIDS) {
+                lipids.clear(); // Keeps the cache bounded for tables with more distinct compounds than a library
+            }
+            lipids.put(compoundId, lipid);
+        }
+        return lipid;
+    }
+
+    private static LipidType lipidType(String name) {
+        for (LipidType type : LIPID_TYPES) {
+            if (type.name().equals(name)) {
+                return type;
+            }
+        }
+        throw new IllegalArgumentException("Unknown lipid type " + name);
+    }
+
+    private PeakList parsePeaks(int from, int to) {
+        int count = 0;
+        int start = from;
+        for (int i = from; i <= to; i++) {
+            if (i == to || line[i] == ';') {
+                int pairStart = skipSpaces(start, i);
+                int pairEnd = trimSpaces(pairStart, i);
+                if (pairStart < pairEnd) {
+                    int colon = pairStart;
+                    while (colon < pairEnd && line[colon] != ':') {
+                        colon++;
+                    }
+                    if (colon == pairEnd) {
+                        throw new IllegalArgumentException("peak without intensity: " + string(pairStart, pairEnd));
+                    }
+                    if (count == peakMz.length) {
+                        peakMz = Arrays.copyOf(peakMz, count * 2);
+                        peakIntensity = Arrays.copyOf(peakIntensity, count * 2);
+                    }
+                    peakMz[count] = parseDouble(pairStart, trimSpaces(pairStart, colon));
+                    peakIntensity[count] = parseDouble(skipSpaces(colon + 1, pairEnd), pairEnd);
+                    count++;
+                }
+                start = i + 1;
+            }
+        }
+        if (count == 0) {
+            return PeakList.empty();
+        }
+        int distinct = PeakList.sortByMz(peakMz, peakIntensity, count); // In the buffers, so only the result is copied
+        return PeakList.wrap(Arrays.copyOf(peakMz, distinct), Arrays.copyOf(peakIntensity, distinct), 0, distinct);
+    }
+
+    private int skipSpaces(int from, int to) {
+        while (from < to && (line[from] == ' ' || line[from] == '\t')) {
+            from++;
+        }
+        return from;
+    }
+
+    private int trimSpaces(int from, int to) {
+        while (to > from && (line[to - 1] == ' ' || line[to - 1] == '\t')) {
+            to--;
+        }
+        return to;
+    }
+
+    private String string(int field) {
+        return string(fieldStart[field], fieldEnd[field]);
+    }
+
+    private String string(int from, int to) {
+        return new String(line, from, to - from, StandardCharsets.UTF_8);
+    }
+
+    private int parseInt(int from, int to) {
+        if (from == to) {
+            throw new NumberFormatException("empty number");
+        }
+        boolean negative = line[from] == '-';
+        int i = negative || line[from] == '+' ? from + 1 : from;
+        if (i == to || to - i > 9) {
+            return Integer.parseInt(string(from, to)); // Reports the error, or parses values near the limits
+        }
+        int value = 0;
+        for (; i < to; i++) {
+            int digit = line[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return Integer.parseInt(string(from, to));
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Plain decimals with at most 15 significant digits are converted without creating a String: the digits and the
+     * power of ten are both exact doubles, so one division gives the correctly rounded value. Anything else
+     * (exponents, NaN, longer numbers) goes through Double.parseDouble
+     */
+    private double parseDouble(int from, int to) {
+        if (from == to) {
+            throw new NumberFormatException("empty number");
+        }
+        boolean negative = line[from] == '-';
+        int i = negative || line[from] == '+' ? from + 1 : from;
+        long digits = 0;
+        int significant = 0;
+        int decimals = 0;
+        boolean point = false;
+        boolean any = false;
+        for (; i < to; i++) {
+            byte c = line[i];
+            if (c >= '0' && c <= '9') {
+                any = true;
+                if (digits != 0 || c != '0') {
+                    significant++;
+                }
+                if (significant > 15) {
+                    return Double.parseDouble(string(from, to));
+                }
+                digits = digits * 10 + (c - '0');
+                if (point) {
+                    decimals++;
+                }
+            } else if (c == '.' && !point) {
+                point = true;
+            } else {
+                return Double.parseDouble(string(from, to));
+            }
+        }
+        if (!any || decimals >= POWERS_OF_TEN.length) {
+            return Double.parseDouble(string(from, to));
+        }
+        double value = digits / POWERS_OF_TEN[decimals];
+        return negative ? -value : value;
+    }
+}
@@ -1,25 +1,28 @@
 package lipid;
 
-import adduct.Adduct;
+import adduct.AdductDescriptor;
+import adduct.AdductPairDetector;
+import adduct.AdductRegistry;
 
-import java.math.BigDecimal;
-import java.math.RoundingMode;
 import java.util.*;
 
 /**
  * Class to represent the annotation over a lipid
  */
 public class Annotation {
+    private static final AdductPairDetector ADDUCT_DETECTOR = new AdductPairDetector(10);
+    static final AdductDescriptor FALLBACK_ADDUCT = AdductRegistry.get("[M+H]+"); // "Fallback to [M+H]+" rule
+
     private final Lipid lipid;
     private final double mz;
     private final double intensity; // The intensity of the most abundant peak in the groupedPeaks
     private final double rtMin;
     private final IoniationMode ionizationMode;
-    private String adduct; // The adduct will be detected based on the groupedSignals
-    private final Set<Peak> groupedSignals;
+    private AdductDescriptor adduct; // The adduct will be detected based on the groupedSignals
+    private final PeakList groupedSignals; // Sorted by m/z, stored as primitive arrays
     private int score;
     private int totalScoresApplied;
-    private final Set<String> detectedAdducts = new HashSet<>();
+    private long detectedAdducts; // Bit (1L << id) of every other adduct found in the groupedSignals
     private boolean hasBeenScored = false;
 
     private boolean scoreAssigned = false;
@@ -45,13 +48,25 @@ public class Annotation {
      * @param groupedSignals
      */
     public Annotation(Lipid lipid, double mz, double intensity, double retentionTime, IoniationMode ionizationMode, Set<Peak> groupedSignals) {
+        // Sorted by m/z to facilitate deisotoping (ignore the peaks that represent isotopes) and adduct detection
+        this(lipid, mz, intensity, retentionTime, ionizationMode, PeakList.of(groupedSignals));
+    }
+
+    /**
+     * @param lipid
+     * @param mz
+     * @param intensity
+     * @param retentionTime
+     * @param ionizationMode
+     * @param groupedSignals already sorted by m/z, used without copying
+     */
+    public Annotation(Lipid lipid, double mz, double intensity, double retentionTime, IoniationMode ionizationMode, PeakList groupedSignals) {
         this.lipid = lipid;
         this.mz = mz;
         this.rtMin = retentionTime;
         this.intensity = intensity;
         this.ionizationMode = ionizationMode;
-        // Sorted by m/z to facilitate deisotoping (ignore the peaks that represent isotopes) and adduct detection
-        this.groupedSignals = new TreeSet<>(groupedSignals); // TreeSet creates an automatically ordered set
+        this.groupedSignals = groupedSignals;
         // The lowest peak is the principal adduct
         this.score = 0;
         this.totalScoresApplied = 0;
@@ -64,8 +79,35 @@ public class Annotation {
     public void setHasBeenScored(boolean hasBeenScored){
         this.hasBeenScored=hasBeenScored;
     }
+
+    /**
+     * @return names of the other adducts found in the grouped signals, ordered by registry id
+     */
     public Set<String> getDetectedAdducts(){
-        return Collections.unmodifiableSet(detectedAdducts);
+        Set<String> names = new LinkedHashSet<>();
+        for (AdductDescriptor detected : AdductRegistry.fromMask(detectedAdducts)) {
+            names.add(detected.getName());
+        }
+        return Collections.unmodifiableSet(names);
+    }
+
+    /**
+     * @return bit (1L << id) set for every other adduct found in the grouped signals
+     */
+    public long getDetectedAdductMask(){
+        return detectedAdducts;
+    }
+
+    void setDetectedAdductMask(long detectedAdducts){
+        this.detectedAdducts = detectedAdducts;
+    }
+
+    /**
+     * @param adduct descriptor from AdductRegistry
+     * @return true if the adduct was found in the grouped signals
+     */
+    public boolean hasDetectedAdduct(AdductDescriptor adduct){
+        return (detectedAdducts & adduct.getMask()) != 0;
     }
 
     public Lipid getLipid() {
@@ -80,11 +122,40 @@ public class Annotation {
         return rtMin;
     }
 
+    /**
+     * @return the name of the adduct as written in AdductList, or null if not detected yet
+     */
     public String getAdduct() {
+        return adduct == null ? null : adduct.getName();
+    }
+
+    /**
+     * @return the descriptor of the adduct, or null if not detected yet
+     */
+    public AdductDescriptor getAdductDescriptor() {
         return adduct;
     }
 
+    /**
+     * @param adduct name as written in AdductList (an ASCII hyphen is accepted as negative charge sign), or null
+     * @throws IllegalArgumentException if the adduct is not in AdductList
+     */
     public void setAdduct(String adduct) {
+        if (adduct == null) {
+            this.adduct = null;
+            return;
+        }
+        AdductDescriptor descriptor = AdductRegistry.get(adduct);
+        if (descriptor == null) {
+            throw new IllegalArgumentException("Unknown adduct " + adduct);
+        }
+        this.adduct = descriptor;
+    }
+
+    /**
+     * @param adduct descriptor from AdductRegistry, or null
+     */
+    public void setAdduct(AdductDescriptor adduct) {
         this.adduct = adduct;
     }
 
@@ -96,8 +167,18 @@ public class Annotation {
         return ionizationMode;
     }
 
+    /**
+     * @return read-only view of the grouped signals sorted by m/z (Peak objects are created while iterating)
+     */
     public Set<Peak> groupedSignals() {
-        return Collections.unmodifiableSet(groupedSignals);
+        return groupedSignals.asSet();
+    }
+
+    /**
+     * @return the grouped signals sorted by m/z, without creating Peak objects
+     */
+    public PeakList getPeakList() {
+        return groupedSignals;
     }
 
     public int getScore() {
@@ -125,6 +206,16 @@ public class Annotation {
         this.totalScoresApplied++; // sums always 1 to totalScoresApplied even if delta=0
     }
 
+    /**
+     * Apply several comparisons at once, as the elution order rules would one by one
+     * @param points sum of the deltas
+     * @param applied number of scores applied
+     */
+    void addScores(int points, int applied) {
+        this.score += points;
+        this.totalScoresApplied += applied;
+    }
+
     /**
      * @return The normalized score between -1 and 1, being the average of the applied scores
      */
@@ -158,95 +249,58 @@ public class Annotation {
     /**
      * Given a group of ordered peaks and a ppm tolerance
      * @param orderedPeaks by m/z
-     * @param ppmTolerance to identify is two mass are near enough to be considered isotopes (approx 1.00335Da)
-     * @return peaks not isotopes in order they have appeared
+     * @param ppmTolerance to identify is two mass are near enough to be considered isotopes (approx 1.00335Da / charge)
+     * @return monoisotopic peaks (the isotopes of charges 1 to 4 are removed) in m/z order
      */
     public Set<Peak> deisotopePeaks (Set<Peak> orderedPeaks, int ppmTolerance){
-        List<Peak> sorted = new ArrayList<>(orderedPeaks); // Set converted into List
         Set<Peak> filtered = new LinkedHashSet<>(); // Peaks without isotopes
-        for(int i=0; i<sorted.size(); i++){
-            Peak current = sorted.get(i); // Initially assumes that current is not an isotope
-            boolean isIsotope = false;
-            for(int j=i+1; j<sorted.size();j++){
-                Peak candidate = sorted.get(j); // Compares the current peak with all peaks that followed (j>i)
-                double deltaMZ = candidate.getMz()- current.getMz(); // Real difference between masses
-                double deltaAllowed = Adduct.calculateDeltaPPM(current.getMz(), ppmTolerance); // Margin permitted to consider something is "near" (absolute tolerance in Da)
-                if(Math.abs(deltaMZ-1.00335) <= deltaAllowed && candidate.getIntensity()< current.getIntensity()){
-                    isIsotope=true; // If masses difference is 1.00335Da and the next candidate peak has lower intensity than the current, then candidate is an isotope of current
-                    break;
-                }
-            }
-            if(!isIsotope){
-                filtered.add(current); // Save if current peak is not an isotope
-            }
+        for(IsotopeEnvelope envelope : new Deisotoper(ppmTolerance).deisotope(orderedPeaks)){
+            filtered.add(envelope.getMonoisotopicPeak());
         }
         return filtered;
     }
 
+    /**
+     * Same as deisotopePeaks(Set, int) without creating Peak objects
+     * @param orderedPeaks by m/z
+     * @param ppmTolerance to identify is two mass are near enough to be considered isotopes
+     * @return monoisotopic peaks in m/z order
+     */
+    public PeakList deisotopePeaks (PeakList orderedPeaks, int ppmTolerance){
+        return new Deisotoper(ppmTolerance).monoisotopicPeaks(orderedPeaks);
+    }
+
+    /**
+     * Detect the adduct of this annotation from the other adducts of the same molecule found in the grouped signals
+     * The signals are deisotoped and every adduct of the ionization mode is tested with AdductPairDetector.
+     * If no other adduct is found the first adduct of the mode ([M+H]+ or [M-H]−) is assumed, and without grouped
+     * signals [M+H]+ is assumed as the "Fallback to [M+H]+" rule does
+     */
     public void detectAdductFromPeaks(){
-        // Ensure there must be grouped peaks
-        if( groupedSignals != null && !groupedSignals.isEmpty() ){
-           //1. Deisotope signals with 5ppm tolerance
-            Set<Peak> cleanSignals = deisotopePeaks(groupedSignals, 5);
-            //2. Get the peak with highest m/z -> [H+M]+ lowest
-            Peak base = null;
-            for(Peak p:cleanSignals){
-                if(base==null || p.getMz() > base.getMz()){
-                    base=p;
-                }
-            }
-            if(base!=null){
-                double baseMZ = base.getMz(); // If base peak is found, obtain the m/z value
-                // Known adducts
-                double protonMass = 1.0073; // +H = [M+H]+
-                double sodiumMass = 22.9898; //+Na = [M+Na]+
-                double waterLoss = 18.0106; //-H2O = water loss
-                double twoProtons = 2.0146; // +2H = adduct that is doubled charged
-                for(Peak other: cleanSignals){
-                    if (Math.abs(base.getMz() - other.getMz()) < 0.001) continue; // See the other peaks to compare with the base peak
-                    double delta = Math.abs(other.getMz()-baseMZ); // actual m/z difference
-                    double tolerance = Adduct.calculateDeltaPPM(baseMZ,10);
-                    // [M+Na]+ - [M+H]+ = 21.9825
-                    if(Math.abs(delta-(sodiumMass-protonMass)) <= tolerance){
-                        detectedAdducts.add("[M+Na]+");
-                        this.adduct= "[M+H]+"; // If +Na - +H = 21.9825Da then base adduct is [M+H]+
-                        return;
-                    }
-                    // [M+H]+ - [M+H-H20]+ = 18.0106
-                    if(Math.abs(delta-waterLoss) <= tolerance){
-                        detectedAdducts.add(("[M+H-H2O]+"));
-                        this.adduct= "[M+H]+"; // other is [M+H-H2O]+ and [M+H]+ is the base peak
-                        return;
-                    }
-                    // calculate rounded expected m/z for [M+2H]2+
-                    double expectedDoubleChargeMz = roundMz((baseMZ + protonMass) / 2,5);
-                    // round the observed peak
-                    double observedMz= roundMz(other.getMz(),5);
-                    double deltaDouble = Math.abs(observedMz - expectedDoubleChargeMz);
-                    double toleranceDouble = Adduct.calculateDeltaPPM(expectedDoubleChargeMz, 15);
-                    //System.out.printf("Comparing for [M+2H]2+: base=%.5f, other=%.5f, expected=%.5f, delta=%.5f, tol=%.5f%n",
-                     //       baseMZ, other.getMz(), expectedDoubleChargeMz, deltaDouble, toleranceDouble);
-                    // apply threshold
-                    if (deltaDouble <= toleranceDouble) {
-                        this.detectedAdducts.add("[M+2H]2+");
-                        this.adduct = "[M+H]+";
-                        return;
-
-                    }
-                }
-                System.out.println("No known adducts detected for " + lipid.getName() + ", defaulting to [M+H]+");
-                this.adduct = "[M+H]+";
-
-            }
+        if( groupedSignals == null || groupedSignals.isEmpty() ){
+            this.adduct = FALLBACK_ADDUCT;
+            return;
         }
-
+        AdductPairDetector.Assignment assignment = detectAdduct(groupedSignals, ionizationMode, mz);
+        if (assignment == null) {
+            this.adduct = AdductRegistry.forMode(ionizationMode).get(0);
+            return;
+        }
+        this.adduct = assignment.getAdduct();
+        this.detectedAdducts |= assignment.getDetectedMask();
     }
 
-    private static double roundMz(double mz, int decimal) {
-        // Solves that 457.41465 internally converts into 457.41464999999997
-        BigDecimal bd = BigDecimal.valueOf(mz);
-        bd= bd.setScale(decimal, RoundingMode.HALF_UP);
-        return bd.doubleValue();
+    /**
+     * @param groupedSignals sorted by m/z
+     * @param ionizationMode of the annotation
+     * @param mz of the annotation
+     * @return the adduct of mz supported by the most deisotoped peaks, or null if no other adduct is found
+     */
+    static AdductPairDetector.Assignment detectAdduct(PeakList groupedSignals, IoniationMode ionizationMode, double mz) {
+        //1. Deisotope signals with 5ppm tolerance
+        PeakList cleanSignals = new Deisotoper(5).monoisotopicPeaks(groupedSignals);
+        //2. Find the adduct of mz supported by the most peaks of the group
+        return ADDUCT_DETECTOR.detect(cleanSignals, ionizationMode, mz);
     }
 
     public void winComparison() {
@@ -0,0 +1,230 @@
+package lipid;
+
+import adduct.AdductDescriptor;
+import adduct.AdductPairDetector;
+import adduct.AdductRegistry;
+
+/**
+ * Annotations of a sample stored by row, without one Annotation object per row
+ * Implemented on heap arrays (AnnotationTable) and off heap (OffHeapAnnotationStore). Adduct detection and the native
+ * elution order scoring only use the methods of this interface, so they run the same on both;
+ * Annotation objects are only created by view(row), e.g. to fire the DRL rules
+ */
+public interface AnnotationStore {
+
+    /**
+     * Append an annotation that has not been scored yet
+     *
+     * @param lipid annotated, stored once however many rows reference it
+     * @param mz of the annotated peak
+     * @param intensity of the annotated peak
+     * @param rtMin retention time in minutes
+     * @param ionizationMode of the run
+     * @param groupedSignals sorted by m/z, copied into the store
+     *
+     * @return the row of the annotation
+     */
+    int add(Lipid lipid, double mz, double intensity, double rtMin, IoniationMode ionizationMode, PeakList groupedSignals);
+
+    /**
+     * Append a copy of an annotation, with its adduct and scores
+     *
+     * @param annotation to copy
+     *
+     * @return the row of the annotation
+     */
+    default int add(Annotation annotation) {
+        int row = add(annotation.getLipid(), annotation.getMz(), annotation.getIntensity(), annotation.getRtMin(),
+                annotation.getIonizationMode(), annotation.getPeakList());
+        update(row, annotation);
+        return row;
+    }
+
+    int size();
+
+    Lipid getLipid(int row);
+
+    double getMz(int row);
+
+    double getRtMin(int row);
+
+    double getIntensity(int row);
+
+    IoniationMode getIonizationMode(int row);
+
+    /**
+     * @return the registry id of the adduct, or -1 if not detected yet
+     */
+    int getAdductId(int row);
+
+    /**
+     * @return the descriptor of the adduct, or null if not detected yet
+     */
+    default AdductDescriptor getAdduct(int row) {
+        int id = getAdductId(row);
+        return id < 0 ? null : AdductRegistry.get(id);
+    }
+
+    /**
+     * @return bit (1L << id) set for every other adduct found in the grouped signals
+     */
+    long getDetectedAdductMask(int row);
+
+    int getScore(int row);
+
+    int getTotalScoresApplied(int row);
+
+    /**
+     * @return hasBeenScored of the annotation of the row
+     */
+    boolean isScored(int row);
+
+    /**
+     * @return the normalized score between -1 and 1, as Annotation.getNormalizedScore
+     */
+    default double getNormalizedScore(int row) {
+        int applied = getTotalScoresApplied(row);
+        if (applied == 0) return 0.0;
+        double normalized = (double) getScore(row) / applied;
+        return Math.max(-1.0, Math.min(1.0, normalized));
+    }
+
+    /**
+     * @return the grouped signals of the row sorted by m/z
+     */
+    PeakList getPeaks(int row);
+
+    /**
+     * @return total number of peaks stored for all the rows
+     */
+    long getPeakCount();
+
+    /**
+     * @param row to update
+     * @param adductId registry id of the adduct, or -1 for none
+     * @param detectedAdducts bit (1L << id) of every other adduct found in the grouped signals
+     */
+    void setAdduct(int row, int adductId, long detectedAdducts);
+
+    /**
+     * @param row to update
+     * @param score sum of the applied scores
+     * @param totalScoresApplied number of scores applied
+     * @param scored hasBeenScored of the annotation
+     */
+    void setScores(int row, int score, int totalScoresApplied, boolean scored);
+
+    /**
+     * Create an Annotation for a row. Its adduct and scores are copies: changes to the annotation are written back
+     * with update(row, annotation)
+     *
+     * @param row of the annotation
+     *
+     * @return a new annotation with the values of the row
+     */
+    default Annotation view(int row) {
+        Annotation annotation = new Annotation(getLipid(row), getMz(row), getIntensity(row), getRtMin(row),
+                getIonizationMode(row), getPeaks(row));
+        annotation.setAdduct(getAdduct(row));
+        annotation.setDetectedAdductMask(getDetectedAdductMask(row));
+        annotation.addScores(getScore(row), getTotalScoresApplied(row));
+        annotation.setHasBeenScored(isScored(row));
+        return annotation;
+    }
+
+    /**
+     * Copy the adduct and scores of an annotation, e.g. a view scored by the rules, into a row
+     *
+     * @param row to update
+     * @param annotation with the new adduct and scores
+     */
+    default void update(int row, Annotation annotation) {
+        AdductDescriptor adduct = annotation.getAdductDescriptor();
+        setAdduct(row, adduct == null ? -1 : adduct.getId(), annotation.getDetectedAdductMask());
+        setScores(row, annotation.getScore(), annotation.getTotalScoreApplied(), annotation.isHasBeenScored());
+    }
+
+    /**
+     * Detect the adduct of every row without one, as Annotation.detectAdductFromPeaks, so rows without peaks get
+     * [M+H]+
+     */
+    default void detectAdducts() {
+        for (int row = 0; row < size(); row++) {
+            if (getAdductId(row) >= 0) {
+                continue;
+            }
+            PeakList peaks = getPeaks(row);
+            if (peaks.isEmpty()) {
+                setAdduct(row, Annotation.FALLBACK_ADDUCT.getId(), getDetectedAdductMask(row));
+                continue;
+            }
+            IoniationMode mode = getIonizationMode(row);
+            AdductPairDetector.Assignment assignment = Annotation.detectAdduct(peaks, mode, getMz(row));
+            if (assignment == null) {
+                setAdduct(row, AdductRegistry.forMode(mode).get(0).getId(), getDetectedAdductMask(row));
+            } else {
+                setAdduct(row, assignment.getAdduct().getId(), getDetectedAdductMask(row) | assignment.getDetectedMask());
+            }
+        }
+    }
+
+    /**
+     * Score the elution order of all the rows as ElutionOrderScorer, including the fallback score of the unscored ones
+     */
+    default void scoreElutionOrder() {
+        int n = size();
+        Lipid[] lipids = new Lipid[n];
+        double[] rts = new double[n];
+        for (int row = 0; row < n; row++) {
+            lipids[row] = getLipid(row);
+            rts[row] = getRtMin(row);
+        }
+        int[] points = new int[n];
+        int[] applied = new int[n];
+        ElutionOrderScorer.score(lipids, rts, points, applied);
+        for (int row = 0; row < n; row++) {
+            int score = getScore(row);
+            int total = getTotalScoresApplied(row);
+            boolean scored = isScored(row);
+            if (applied[row] > 0) {
+                score += points[row];
+                total += applied[row];
+                scored = true;
+            }
+            if (score == 0 && !scored) { // "Assign fallback score"
+                total++;
+                scored = true;
+            }
+            setScores(row, score, total, scored);
+        }
+    }
+
+    /**
+     * Score every row as LipidScorer.fire would with the flags of the settings. With native adduct detection and
+     * native elution scoring enabled the rules add nothing else, so the rows are scored in place; otherwise every
+     * row is viewed as an Annotation, the rules are fired and the results are written back
+     *
+     * @param settings whose flags are used
+     *
+     * @return the number of rules fired, 0 when scored in place
+     */
+    default int score(LipidScoreUnit settings) {
+        int n = size();
+        if (settings.getNativeAdductDetectionEnabled() && settings.getNativeElutionScoringEnabled()) {
+            detectAdducts(); // Includes the "Fallback to [M+H]+" of the rows without peaks
+            scoreElutionOrder();
+            return 0;
+        }
+        LipidScoreUnit unit = settings.emptyCopy();
+        Annotation[] views = new Annotation[n];
+        for (int row = 0; row < n; row++) {
+            views[row] = view(row);
+            unit.getAnnotations().add(views[row]);
+        }
+        int fired = LipidScorer.fire(unit);
+        for (int row = 0; row < n; row++) {
+            update(row, views[row]);
+        }
+        return fired;
+    }
+}
@@ -0,0 +1,220 @@
+package lipid;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Annotations stored by column: one primitive array per field and one row per annotation, instead of one object each
+ * The lipids are stored once and referenced by their row in getLipids(). The grouped signals of every row are a slice
+ * of two shared peak arrays (m/z and intensity), delimited by an offset per row, so a row costs about 60 bytes plus
+ * 16 bytes per peak. The peaks returned by getPeaks(row) are slices of those arrays, not copies
+ */
+public class AnnotationTable implements AnnotationStore {
+
+    private static final int DEFAULT_ROWS = 1024;
+    private static final IoniationMode[] MODES = IoniationMode.values();
+
+    private final List<Lipid> lipids = new ArrayList<>();
+    private final Map<Lipid, Integer> lipidRows = new IdentityHashMap<>();
+
+    private int size;
+    private int[] lipidRow;
+    private double[] mz;
+    private double[] rtMin;
+    private double[] intensity;
+    private byte[] ionizationMode;
+    private byte[] adductId; // -1 until detected
+    private long[] detectedAdducts; // Bit (1L << id) of every other adduct found in the peaks
+    private int[] score;
+    private int[] totalScoresApplied;
+    private final BitSet scored = new BitSet(); // hasBeenScored of Annotation
+
+    private int[] peakOffset; // Peaks of row i are [peakOffset[i], peakOffset[i + 1]) in the peak arrays
+    private double[] peakMz;
+    private double[] peakIntensity;
+
+    public AnnotationTable() {
+        this(DEFAULT_ROWS, 4 * DEFAULT_ROWS);
+    }
+
+    /**
+     * @param expectedRows initial capacity of the columns, which grow as needed
+     * @param expectedPeaks initial capacity of the peak arrays, which grow as needed
+     */
+    public AnnotationTable(int expectedRows, int expectedPeaks) {
+        if (expectedRows < 0 || expectedPeaks < 0) {
+            throw new IllegalArgumentException("Capacities must not be negative: " + expectedRows + ", " + expectedPeaks);
+        }
+        lipidRow = new int[expectedRows];
+        mz = new double[expectedRows];
+        rtMin = new double[expectedRows];
+        intensity = new double[expectedRows];
+        ionizationMode = new byte[expectedRows];
+        adductId = new byte[expectedRows];
+        detectedAdducts = new long[expectedRows];
+        score = new int[expectedRows];
+        totalScoresApplied = new int[expectedRows];
+        peakOffset = new int[expectedRows + 1];
+        peakMz = new double[expectedPeaks];
+        peakIntensity = new double[expectedPeaks];
+    }
+
+    @Override
+    public int add(Lipid lipid, double mz, double intensity, double rtMin, IoniationMode ionizationMode, PeakList groupedSignals) {
+        int peaks = groupedSignals == null ? 0 : groupedSignals.size();
+        ensureCapacity(size + 1, peakOffset[size] + peaks);
+        int row = size;
+        Integer existing = lipidRows.get(lipid);
+        if (existing == null) {
+            existing = lipids.size();
+            lipids.add(lipid);
+            lipidRows.put(lipid, existing);
+        }
+        this.lipidRow[row] = existing;
+        this.mz[row] = mz;
+        this.rtMin[row] = rtMin;
+        this.intensity[row] = intensity;
+        this.ionizationMode[row] = (byte) ionizationMode.ordinal();
+        this.adductId[row] = -1;
+        int offset = peakOffset[row];
+        for (int i = 0; i < peaks; i++) {
+            peakMz[offset + i] = groupedSignals.getMz(i);
+            peakIntensity[offset + i] = groupedSignals.getIntensity(i);
+        }
+        peakOffset[row + 1] = offset + peaks;
+        size++;
+        return row;
+    }
+
+    private void ensureCapacity(int rows, int peaks) {
+        if (rows > mz.length) {
+            int capacity = Math.max(rows, mz.length + (mz.length >> 1) + 1);
+            lipidRow = Arrays.copyOf(lipidRow, capacity);
+            mz = Arrays.copyOf(mz, capacity);
+            rtMin = Arrays.copyOf(rtMin, capacity);
+            intensity = Arrays.copyOf(intensity, capacity);
+            ionizationMode = Arrays.copyOf(ionizationMode, capacity);
+            adductId = Arrays.copyOf(adductId, capacity);
+            detectedAdducts = Arrays.copyOf(detectedAdducts, capacity);
+            score = Arrays.copyOf(score, capacity);
+            totalScoresApplied = Arrays.copyOf(totalScoresApplied, capacity);
+            peakOffset = Arrays.copyOf(peakOffset, capacity + 1);
+        }
+        if (peaks > peakMz.length) {
+            // Slices already returned by getPeaks keep the previous arrays, whose peaks never change
+            int capacity = Math.max(peaks, peakMz.length + (peakMz.length >> 1) + 1);
+            peakMz = Arrays.copyOf(peakMz, capacity);
+            peakIntensity = Arrays.copyOf(peakIntensity, capacity);
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the distinct lipids of the table, indexed by getLipidRow
+     */
+    public List<Lipid> getLipids() {
+        return Collections.unmodifiableList(lipids);
+    }
+
+    public int getLipidRow(int row) {
+        return lipidRow[checkRow(row)];
+    }
+
+    @Override
+    public Lipid getLipid(int row) {
+        return lipids.get(getLipidRow(row));
+    }
+
+    @Override
+    public double getMz(int row) {
+        return mz[checkRow(row)];
+    }
+
+    @Override
+    public double getRtMin(int row) {
+        return rtMin[checkRow(row)];
+    }
+
+    @Override
+    public double getIntensity(int row) {
+        return intensity[checkRow(row)];
+    }
+
+    @Override
+    public IoniationMode getIonizationMode(int row) {
+        return MODES[ionizationMode[checkRow(row)]];
+    }
+
+    @Override
+    public int getAdductId(int row) {
+        return adductId[checkRow(row)];
+    }
+
+    @Override
+    public long getDetectedAdductMask(int row) {
+        return detectedAdducts[checkRow(row)];
+    }
+
+    @Override
+    public int getScore(int row) {
+        return score[checkRow(row)];
+    }
+
+    @Override
+    public int getTotalScoresApplied(int row) {
+        return totalScoresApplied[checkRow(row)];
+    }
+
+    @Override
+    public boolean isScored(int row) {
+        return scored.get(checkRow(row));
+    }
+
+    /**
+     * @return the grouped signals of the row sorted by m/z, sharing the peak arrays of the table
+     */
+    @Override
+    public PeakList getPeaks(int row) {
+        checkRow(row);
+        return PeakList.wrap(peakMz, peakIntensity, peakOffset[row], peakOffset[row + 1]);
+    }
+
+    @Override
+    public long getPeakCount() {
+        return peakOffset[size];
+    }
+
+    @Override
+    public void setAdduct(int row, int adductId, long detectedAdducts) {
+        this.adductId[checkRow(row)] = (byte) adductId;
+        this.detectedAdducts[row] = detectedAdducts;
+    }
+
+    @Override
+    public void setScores(int row, int score, int totalScoresApplied, boolean scored) {
+        this.score[checkRow(row)] = score;
+        this.totalScoresApplied[row] = totalScoresApplied;
+        this.scored.set(row, scored);
+    }
+
+    private int checkRow(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Row " + row + " out of " + size);
+        }
+        return row;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("AnnotationTable(rows=%d, lipids=%d, peaks=%d)", size, lipids.size(), getPeakCount());
+    }
+}
@@ -0,0 +1,164 @@
+package lipid;
+
+import adduct.Adduct;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Groups m/z sorted peaks into isotope envelopes and keeps the monoisotopic peak of each one
+ * Isotopes of charge z are expected every 1.0033548/z Da (13C - 12C) and must be less intense than the monoisotopic peak.
+ * Each expected isotope is looked up with a binary search, so a spectrum of n peaks takes O(n log n)
+ */
+public class Deisotoper {
+
+    public static final double ISOTOPE_SPACING = 1.0033548; // 13C - 12C in Daltons
+    public static final int MAX_CHARGE = 4;
+
+    private final int ppmTolerance;
+    private final int maxCharge;
+    private final int maxIsotopes;
+
+    /**
+     * @param ppmTolerance to accept a peak as the expected isotope
+     * @param maxCharge highest charge state to test, between 1 and 4
+     * @param maxIsotopes longest envelope to look for after the monoisotopic peak (1 only looks for M+1)
+     */
+    public Deisotoper(int ppmTolerance, int maxCharge, int maxIsotopes) {
+        if (maxCharge < 1 || maxCharge > MAX_CHARGE) {
+            throw new IllegalArgumentException("maxCharge must be between 1 and " + MAX_CHARGE + ", got " + maxCharge);
+        }
+        if (maxIsotopes < 1) {
+            throw new IllegalArgumentException("maxIsotopes must be at least 1, got " + maxIsotopes);
+        }
+        this.ppmTolerance = ppmTolerance;
+        this.maxCharge = maxCharge;
+        this.maxIsotopes = maxIsotopes;
+    }
+
+    /**
+     * @param ppmTolerance to accept a peak as the expected isotope, charges 1 to 4 and envelopes up to M+5
+     */
+    public Deisotoper(int ppmTolerance) {
+        this(ppmTolerance, MAX_CHARGE, 5);
+    }
+
+    /**
+     * @param peaks in any order
+     *
+     * @return the envelopes ordered by the m/z of their monoisotopic peak. Indices refer to the peaks sorted by m/z
+     */
+    public List<IsotopeEnvelope> deisotope(Collection<Peak> peaks) {
+        return deisotope(PeakList.of(peaks));
+    }
+
+    /**
+     * @param peaks sorted by m/z
+     *
+     * @return the envelopes ordered by the m/z of their monoisotopic peak. Indices are positions in peaks
+     */
+    public List<IsotopeEnvelope> deisotope(PeakList peaks) {
+        int size = peaks.size();
+        List<IsotopeEnvelope> envelopes = new ArrayList<>();
+        boolean[] assigned = new boolean[size];
+        int[] candidate = new int[maxIsotopes + 1];
+        int[] best = new int[maxIsotopes + 2];
+        for (int i = 0; i < size; i++) {
+            if (assigned[i]) {
+                continue; // Already an isotope of a lighter peak
+            }
+            int bestLength = findBestEnvelope(peaks, assigned, i, candidate, best);
+            int bestCharge = bestLength > 1 ? best[bestLength] : 0;
+            int[] indices = Arrays.copyOf(best, bestLength);
+            double[] envelopeMz = new double[bestLength];
+            double[] envelopeIntensity = new double[bestLength];
+            for (int k = 0; k < bestLength; k++) {
+                assigned[indices[k]] = true;
+                envelopeMz[k] = peaks.getMz(indices[k]);
+                envelopeIntensity[k] = peaks.getIntensity(indices[k]);
+            }
+            envelopes.add(new IsotopeEnvelope(bestCharge, indices, envelopeMz, envelopeIntensity));
+        }
+        return envelopes;
+    }
+
+    /**
+     * Keep only the monoisotopic peaks, without building envelope objects
+     *
+     * @param peaks sorted by m/z
+     *
+     * @return the monoisotopic peaks
+     */
+    public PeakList monoisotopicPeaks(PeakList peaks) {
+        int size = peaks.size();
+        boolean[] assigned = new boolean[size];
+        int[] candidate = new int[maxIsotopes + 1];
+        int[] best = new int[maxIsotopes + 2];
+        int[] monoisotopic = new int[size];
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (assigned[i]) {
+                continue;
+            }
+            int bestLength = findBestEnvelope(peaks, assigned, i, candidate, best);
+            for (int k = 0; k < bestLength; k++) {
+                assigned[best[k]] = true;
+            }
+            monoisotopic[count++] = i;
+        }
+        return count == size ? peaks : peaks.select(monoisotopic, count);
+    }
+
+    /**
+     * Try every charge for the peak at position monoisotopic
+     *
+     * @param best receives the positions of the longest envelope, followed by its charge
+     *
+     * @return the number of peaks of the longest envelope (1 if no charge has an M+1)
+     */
+    private int findBestEnvelope(PeakList peaks, boolean[] assigned, int monoisotopic, int[] candidate, int[] best) {
+        int bestLength = 1;
+        best[0] = monoisotopic;
+        for (int charge = 1; charge <= maxCharge; charge++) {
+            int length = findEnvelope(peaks, assigned, monoisotopic, charge, candidate);
+            if (length > bestLength) { // Ties keep the lowest charge
+                bestLength = length;
+                System.arraycopy(candidate, 0, best, 0, length);
+                best[length] = charge;
+            }
+        }
+        return bestLength;
+    }
+
+    /**
+     * Follow the isotopes of the peak at position monoisotopic for one charge
+     *
+     * @return the number of peaks found (1 if there is no M+1), whose positions are written in envelope
+     */
+    private int findEnvelope(PeakList peaks, boolean[] assigned, int monoisotopic, int charge, int[] envelope) {
+        envelope[0] = monoisotopic;
+        int length = 1;
+        double spacing = ISOTOPE_SPACING / charge;
+        double monoisotopicMz = peaks.getMz(monoisotopic);
+        double monoisotopicIntensity = peaks.getIntensity(monoisotopic);
+        int size = peaks.size();
+        for (int k = 1; k <= maxIsotopes; k++) {
+            double expected = monoisotopicMz + k * spacing;
+            double tolerance = Adduct.calculateDeltaPPM(expected, ppmTolerance);
+            int closest = -1;
+            for (int j = peaks.lowerBound(expected - tolerance); j < size && peaks.getMz(j) <= expected + tolerance; j++) {
+                if (!assigned[j] && peaks.getIntensity(j) < monoisotopicIntensity
+                        && (closest < 0 || Math.abs(peaks.getMz(j) - expected) < Math.abs(peaks.getMz(closest) - expected))) {
+                    closest = j;
+                }
+            }
+            if (closest < 0) {
+                break; // The envelope ends at the first missing isotope
+            }
+            envelope[length++] = closest;
+        }
+        return length;
+    }
+}
@@ -0,0 +1,312 @@
+package lipid;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Native implementation of the elution order scoring rules of lipids.drl
+ * The rules compare every pair of annotations; here each rule is a count over one partition of the annotations:
+ * - Same type and double bonds: carbons against RT ("Score +1: RT increases with carbon number", "Negative score - RT too early with more carbons")
+ * - Same type and carbons: double bonds against RT ("Score +1: RT increases with fewer double bonds", "Score 0: RT not consistent...")
+ * - Same carbons and double bonds: lipid type against RT ("Score +1: RT increases with lipid type elution order", "Negative score - ... higher type")
+ * Pairs are counted with a Fenwick tree over the RT ranks (O(n log n)). The positive rules that only fire for the annotation with
+ * the lower compound id also depend on the id, and are counted with a divide and conquer over the ids (O(n log² n))
+ * Each pair is scored once per rule, so this is not a drop-in replacement of the rules: when an annotation takes part
+ * in pairs of different rules, the update() of one rule activates the others again and the fired rules score those
+ * pairs more than once (on some series they never stop). The scores only match when no rule activates another again
+ */
+public class ElutionOrderScorer {
+
+    private ElutionOrderScorer() {
+    }
+
+    /**
+     * Score the annotations as the DRL elution order rules would, including the fallback score of the unscored ones
+     *
+     * @param annotations all the annotations of the unit
+     */
+    public static void score(Iterable<Annotation> annotations) {
+        List<Annotation> list = new ArrayList<>();
+        for (Annotation annotation : annotations) {
+            list.add(annotation);
+        }
+        score(list);
+    }
+
+    /**
+     * Score the annotations as the DRL elution order rules would, including the fallback score of the unscored ones
+     *
+     * @param annotations all the annotations of the unit
+     */
+    public static void score(List<Annotation> annotations) {
+        int n = annotations.size();
+        Lipid[] lipids = new Lipid[n];
+        double[] rts = new double[n];
+        for (int i = 0; i < n; i++) {
+            lipids[i] = annotations.get(i).getLipid();
+            rts[i] = annotations.get(i).getRtMin();
+        }
+        int[] points = new int[n];
+        int[] applied = new int[n];
+        score(lipids, rts, points, applied);
+
+        for (int i = 0; i < n; i++) {
+            Annotation annotation = annotations.get(i);
+            if (applied[i] > 0) {
+                annotation.addScores(points[i], applied[i]);
+                annotation.setHasBeenScored(true);
+            }
+            if (annotation.getScore() == 0 && !annotation.isHasBeenScored()) { // "Assign fallback score"
+                annotation.addScore(0);
+                annotation.setHasBeenScored(true);
+            }
+        }
+    }
+
+    /**
+     * Count the scores of the elution order rules without touching any annotation
+     *
+     * @param lipids of each annotation
+     * @param rts of each annotation
+     * @param points sum of the deltas of each annotation, written on return
+     * @param applied number of scores applied to each annotation, written on return
+     */
+    static void score(Lipid[] lipids, double[] rts, int[] points, int[] applied) {
+        int n = lipids.length;
+        int[] ids = new int[n];
+        int[] types = new int[n];
+        int[] typeRanks = new int[n];
+        int[] carbons = new int[n];
+        int[] doubleBonds = new int[n];
+        for (int i = 0; i < n; i++) {
+            Lipid lipid = lipids[i];
+            ids[i] = lipid.getCompoundId();
+            types[i] = lipid.getLipidType() == null ? -1 : lipid.getLipidType().ordinal();
+            typeRanks[i] = LipidUtils.elutionRank(lipid.getLipidType());
+            carbons[i] = lipid.getCarbons();
+            doubleBonds[i] = lipid.getDoubleBonds();
+        }
+
+        int[] rtRanks = new int[n];
+        int[] counts = new int[n];
+        int[] scratch = new int[n];
+
+        // Same type and double bonds: more carbons elute later
+        for (int[] members : partitions(types, doubleBonds)) {
+            FenwickTree tree = new FenwickTree(rankRetentionTimes(members, rts, rtRanks));
+            addDominance(members, ids, carbons, rtRanks, tree, points, applied);
+            countLowerKeyLaterRt(members, ids, carbons, rtRanks, tree, counts, scratch);
+            for (int i : members) { // An annotation with more carbons eluting before another one
+                points[i] -= counts[i];
+                applied[i] += counts[i];
+            }
+        }
+
+        // Same type and carbons: more double bonds elute earlier, every other pair counts as a loss for both
+        for (int[] members : partitions(types, carbons)) {
+            FenwickTree tree = new FenwickTree(rankRetentionTimes(members, rts, rtRanks));
+            countLowerKeyLaterRt(members, ids, doubleBonds, rtRanks, tree, counts, scratch);
+            int[] byId = sortBy(members, ids, false);
+            for (int start = 0, end; start < byId.length; start = end) {
+                end = start + 1;
+                while (end < byId.length && ids[byId[end]] == ids[byId[start]]) {
+                    end++;
+                }
+                for (int k = start; k < end; k++) { // Annotations of the same compound are not compared
+                    points[byId[k]] += counts[byId[k]];
+                    applied[byId[k]] += members.length - (end - start);
+                }
+            }
+        }
+
+        // Same carbons and double bonds: lipid types elute in the order of LipidUtils
+        for (int[] members : partitions(carbons, doubleBonds)) {
+            FenwickTree tree = new FenwickTree(rankRetentionTimes(members, rts, rtRanks));
+            addDominance(members, ids, typeRanks, rtRanks, tree, points, applied);
+            countLowerKeyLaterRt(members, ids, typeRanks, rtRanks, tree, counts, scratch);
+            for (int i : members) { // Both negative rules penalize the annotation of the later type eluting first
+                points[i] -= 2 * counts[i];
+                applied[i] += 2 * counts[i];
+            }
+        }
+    }
+
+    /**
+     * For every pair of members where the one with the lower compound id has a higher key and a higher RT,
+     * that one wins and the other loses ("Score +1" rules on lipid.compoundId > $compoundId1)
+     * Members are ordered by decreasing id and split in halves: the pairs inside each half are counted recursively and
+     * the pairs across halves with a sweep over the key, as a dominance count in three dimensions
+     */
+    private static void addDominance(int[] members, int[] ids, int[] key, int[] rtRanks, FenwickTree tree, int[] points, int[] applied) {
+        // Members with the same id end up sorted by decreasing key, so the strict key comparisons never pair them
+        int[] items = sortBy(sortBy(members, key, true), ids, true);
+        dominance(items, 0, items.length, new int[items.length], key, rtRanks, tree, points, applied);
+    }
+
+    /**
+     * @param items from..to ordered by decreasing id, sorted by increasing key on return
+     */
+    private static void dominance(int[] items, int from, int to, int[] buffer, int[] key, int[] rtRanks, FenwickTree tree,
+                                  int[] points, int[] applied) {
+        if (to - from < 2) {
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        dominance(items, from, mid, buffer, key, rtRanks, tree, points, applied);
+        dominance(items, mid, to, buffer, key, rtRanks, tree, points, applied);
+
+        // Right half (lower ids) wins against the left half members with a lower key and a lower RT
+        int left = from;
+        for (int p = mid; p < to; p++) {
+            int i = items[p];
+            for (; left < mid && key[items[left]] < key[i]; left++) {
+                tree.add(rtRanks[items[left]], 1);
+            }
+            int wins = tree.prefixSum(rtRanks[i]);
+            points[i] += wins;
+            applied[i] += wins;
+        }
+        for (int p = from; p < left; p++) {
+            tree.add(rtRanks[items[p]], -1);
+        }
+
+        // Left half (higher ids) loses against the right half members with a higher key and a higher RT
+        int right = to - 1;
+        int inserted = 0;
+        for (int p = mid - 1; p >= from; p--) {
+            int j = items[p];
+            for (; right >= mid && key[items[right]] > key[j]; right--, inserted++) {
+                tree.add(rtRanks[items[right]], 1);
+            }
+            applied[j] += inserted - tree.prefixSum(rtRanks[j] + 1);
+        }
+        for (int p = right + 1; p < to; p++) {
+            tree.add(rtRanks[items[p]], -1);
+        }
+
+        // Merge both halves by key
+        int a = from;
+        int b = mid;
+        int k = from;
+        while (a < mid && b < to) {
+            buffer[k++] = key[items[a]] <= key[items[b]] ? items[a++] : items[b++];
+        }
+        while (a < mid) {
+            buffer[k++] = items[a++];
+        }
+        while (b < to) {
+            buffer[k++] = items[b++];
+        }
+        System.arraycopy(buffer, from, items, from, to - from);
+    }
+
+    /**
+     * counts[i] = number of members j of another compound with key[j] < key[i] and RT[j] > RT[i]
+     * The pairs inside each compound are counted again and subtracted
+     */
+    private static void countLowerKeyLaterRt(int[] members, int[] ids, int[] key, int[] rtRanks, FenwickTree tree,
+                                             int[] counts, int[] scratch) {
+        countLowerKeyLaterRt(members, key, rtRanks, tree, counts);
+        int[] byId = sortBy(members, ids, false);
+        for (int start = 0, end; start < byId.length; start = end) {
+            end = start + 1;
+            while (end < byId.length && ids[byId[end]] == ids[byId[start]]) {
+                end++;
+            }
+            if (end - start > 1) {
+                int[] compound = Arrays.copyOfRange(byId, start, end);
+                countLowerKeyLaterRt(compound, key, rtRanks, tree, scratch);
+                for (int i : compound) {
+                    counts[i] -= scratch[i];
+                }
+            }
+        }
+    }
+
+    /**
+     * counts[i] = number of members j with key[j] < key[i] and RT[j] > RT[i]. The tree is left empty
+     */
+    private static void countLowerKeyLaterRt(int[] members, int[] key, int[] rtRanks, FenwickTree tree, int[] counts) {
+        int[] sorted = sortBy(members, key, false);
+        int inserted = 0;
+        for (int start = 0, end; start < sorted.length; start = end) {
+            end = start + 1;
+            while (end < sorted.length && key[sorted[end]] == key[sorted[start]]) {
+                end++;
+            }
+            for (int k = start; k < end; k++) { // Query the whole group before inserting it, as keys must be strictly lower
+                int i = sorted[k];
+                counts[i] = inserted - tree.prefixSum(rtRanks[i] + 1);
+            }
+            for (int k = start; k < end; k++) {
+                tree.add(rtRanks[sorted[k]], 1);
+            }
+            inserted += end - start;
+        }
+        for (int i : sorted) {
+            tree.add(rtRanks[i], -1);
+        }
+    }
+
+    /**
+     * @return the number of distinct RTs of the members, whose ranks (0 for the earliest) are written in rtRanks
+     */
+    private static int rankRetentionTimes(int[] members, double[] rts, int[] rtRanks) {
+        double[] sorted = new double[members.length];
+        for (int k = 0; k < members.length; k++) {
+            sorted[k] = rts[members[k]];
+        }
+        Arrays.sort(sorted);
+        int distinct = 0;
+        for (int k = 0; k < sorted.length; k++) {
+            if (distinct == 0 || sorted[k] != sorted[distinct - 1]) {
+                sorted[distinct++] = sorted[k];
+            }
+        }
+        for (int i : members) {
+            rtRanks[i] = Arrays.binarySearch(sorted, 0, distinct, rts[i]);
+        }
+        return distinct;
+    }
+
+    /**
+     * @return the groups of two or more annotations sharing both keys
+     */
+    private static List<int[]> partitions(int[] first, int[] second) {
+        int[] all = new int[first.length];
+        for (int i = 0; i < all.length; i++) {
+            all[i] = i;
+        }
+        int[] sorted = sortBy(sortBy(all, second, false), first, false);
+        List<int[]> partitions = new ArrayList<>();
+        for (int start = 0, end; start < sorted.length; start = end) {
+            int i = sorted[start];
+            end = start + 1;
+            while (end < sorted.length && first[sorted[end]] == first[i] && second[sorted[end]] == second[i]) {
+                end++;
+            }
+            if (end - start > 1) {
+                partitions.add(Arrays.copyOfRange(sorted, start, end));
+            }
+        }
+        return partitions;
+    }
+
+    /**
+     * Stable sort of annotation indices by an int key, packing key and position in one long to sort primitives
+     */
+    private static int[] sortBy(int[] items, int[] key, boolean descending) {
+        long[] packed = new long[items.length];
+        for (int p = 0; p < items.length; p++) {
+            int k = key[items[p]];
+            packed[p] = ((long) (descending ? ~k : k) << 32) | p;
+        }
+        Arrays.sort(packed);
+        int[] sorted = new int[items.length];
+        for (int p = 0; p < items.length; p++) {
+            sorted[p] = items[(int) packed[p]];
+        }
+        return sorted;
+    }
+}
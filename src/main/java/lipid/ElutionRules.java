@@ -0,0 +1,43 @@
+package lipid;
+
+/**
+ * Elution order rule families that fire, as the first pattern of the pairwise rules (/elutionRules in lipids.drl): a
+ * family that does not fire never joins its pairs. Set by LipidScoreUnit from its flags
+ */
+public final class ElutionRules {
+    private final boolean carbons;
+    private final boolean doubleBonds;
+    private final boolean lipidTypes;
+
+    ElutionRules(boolean carbons, boolean doubleBonds, boolean lipidTypes) {
+        this.carbons = carbons;
+        this.doubleBonds = doubleBonds;
+        this.lipidTypes = lipidTypes;
+    }
+
+    /**
+     * @return true when the rules comparing carbons (same type and DB) fire
+     */
+    public boolean getCarbons() {
+        return carbons;
+    }
+
+    /**
+     * @return true when the rules comparing double bonds (same type and C) fire
+     */
+    public boolean getDoubleBonds() {
+        return doubleBonds;
+    }
+
+    /**
+     * @return true when the rules comparing lipid types (same C and DB) fire
+     */
+    public boolean getLipidTypes() {
+        return lipidTypes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ElutionRules(carbons=%b, doubleBonds=%b, lipidTypes=%b)", carbons, doubleBonds, lipidTypes);
+    }
+}
@@ -0,0 +1,324 @@
+package lipid;
+
+import adduct.Adduct;
+import adduct.AdductDescriptor;
+import adduct.AdductPairDetector;
+import adduct.AdductRegistry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Groups the raw peaks of a run (m/z, RT, intensity) into the co-eluting signals of one molecule, as expected by the
+ * groupedSignals of Annotation
+ * Peaks are taken by decreasing intensity; every peak not grouped yet seeds a group and is its apex. The group takes the
+ * ungrouped peaks eluting within rtTolerance of the seed that are:
+ * - other adducts of the same neutral mass: every adduct of the mode is tried for the seed, and the one that explains
+ *   the most peaks gives the neutral mass (AdductPairDetector.expectedMz); the most intense peak of each other adduct joins
+ * - isotopes of charge 1 to maxCharge of a peak of the group, the most intense one at each spacing
+ * So the RT span of a group is at most twice rtTolerance and its size is bounded by the adducts of the mode and the
+ * isotopes, however dense the run is.
+ * Peaks are indexed in a grid of RT cells of rtTolerance width sorted by m/z, so each expected m/z is a binary search
+ * in three cells: n peaks take O(n a² log n) for a adducts of the mode
+ */
+public class FeatureGrouper {
+
+    private final IoniationMode mode;
+    private final int ppmTolerance;
+    private final double rtTolerance;
+    private final int maxCharge;
+
+    /**
+     * @param mode ionization mode of the run, only its adducts are grouped
+     * @param ppmTolerance to accept a peak at an expected m/z
+     * @param rtTolerance largest RT difference, in minutes, between a peak and the apex of its group
+     * @param maxCharge highest isotope charge state grouped, between 1 and Deisotoper.MAX_CHARGE
+     */
+    public FeatureGrouper(IoniationMode mode, int ppmTolerance, double rtTolerance, int maxCharge) {
+        if (!(rtTolerance > 0)) {
+            throw new IllegalArgumentException("rtTolerance must be positive, got " + rtTolerance);
+        }
+        if (maxCharge < 1 || maxCharge > Deisotoper.MAX_CHARGE) {
+            throw new IllegalArgumentException("maxCharge must be between 1 and " + Deisotoper.MAX_CHARGE + ", got " + maxCharge);
+        }
+        this.mode = mode;
+        this.ppmTolerance = ppmTolerance;
+        this.rtTolerance = rtTolerance;
+        this.maxCharge = maxCharge;
+    }
+
+    /**
+     * @param mode ionization mode of the run
+     * @param ppmTolerance to accept a peak at an expected m/z
+     * @param rtTolerance largest RT difference, in minutes, between a peak and the apex of its group; isotopes of
+     *                    charges 1 and 2
+     */
+    public FeatureGrouper(IoniationMode mode, int ppmTolerance, double rtTolerance) {
+        this(mode, ppmTolerance, rtTolerance, 2);
+    }
+
+    /**
+     * @param mz of each peak
+     * @param rtMin of each peak
+     * @param intensity of each peak
+     *
+     * @return every group, including the peaks grouped with no other one, ordered by RT and m/z of their apex
+     */
+    public List<Group> group(double[] mz, double[] rtMin, double[] intensity) {
+        if (mz.length != rtMin.length || mz.length != intensity.length) {
+            throw new IllegalArgumentException("Got " + mz.length + " m/z values, " + rtMin.length + " RTs and "
+                    + intensity.length + " intensities");
+        }
+        int n = mz.length;
+        Grid grid = new Grid(mz, rtMin);
+        boolean[] grouped = new boolean[n];
+        int[] members = new int[n]; // Members of the current group, reused
+        List<AdductDescriptor> adducts = AdductRegistry.forMode(mode);
+        List<Group> groups = new ArrayList<>();
+        int[] byIntensity = orderBy(intensity);
+        for (int k = n - 1; k >= 0; k--) {
+            int seed = byIntensity[k];
+            if (grouped[seed]) {
+                continue;
+            }
+            grouped[seed] = true;
+            members[0] = seed;
+            int size = 1;
+
+            // The adduct of the seed explaining the most peaks fixes the neutral mass of the group
+            AdductDescriptor best = null;
+            int bestPartners = 0;
+            for (AdductDescriptor from : adducts) {
+                int partners = 0;
+                for (AdductDescriptor to : adducts) {
+                    if (from != to && find(grid, seed, AdductPairDetector.expectedMz(from, mz[seed], to), mz, rtMin,
+                            intensity, grouped) >= 0) {
+                        partners++;
+                    }
+                }
+                if (partners > bestPartners) {
+                    best = from;
+                    bestPartners = partners;
+                }
+            }
+            if (best != null) {
+                for (AdductDescriptor to : adducts) {
+                    int j = best == to ? -1 : find(grid, seed, AdductPairDetector.expectedMz(best, mz[seed], to), mz,
+                            rtMin, intensity, grouped);
+                    if (j >= 0) {
+                        grouped[j] = true;
+                        members[size++] = j;
+                    }
+                }
+            }
+            // Isotopes of every member, including the isotopes just added
+            for (int m = 0; m < size; m++) {
+                for (int charge = 1; charge <= maxCharge; charge++) {
+                    int j = find(grid, seed, mz[members[m]] + Deisotoper.ISOTOPE_SPACING / charge, mz, rtMin,
+                            intensity, grouped);
+                    if (j >= 0) {
+                        grouped[j] = true;
+                        members[size++] = j;
+                    }
+                }
+            }
+            int[] group = Arrays.copyOf(members, size);
+            Arrays.sort(group);
+            groups.add(new Group(group, seed, mz, rtMin, intensity, mode));
+        }
+        groups.sort(Comparator.comparingDouble(Group::getRtMin).thenComparingDouble(Group::getMz));
+        return groups;
+    }
+
+    /**
+     * @return the most intense peak not grouped yet at the expected m/z eluting within rtTolerance of the seed, or -1
+     */
+    private int find(Grid grid, int seed, double expected, double[] mz, double[] rtMin, double[] intensity,
+                     boolean[] grouped) {
+        double tolerance = Adduct.calculateDeltaPPM(expected, ppmTolerance);
+        int found = -1;
+        int cell = grid.cellOf[seed];
+        for (int c = Math.max(0, cell - 1); c <= Math.min(grid.cellKeys.length - 1, cell + 1); c++) {
+            if (Math.abs(grid.cellKeys[c] - grid.cellKeys[cell]) > 1) {
+                continue; // Not an adjacent RT cell
+            }
+            for (int p = grid.lowerBound(c, expected - tolerance); p < grid.cellStart[c + 1]
+                    && grid.sortedMz[p] <= expected + tolerance; p++) {
+                int j = grid.order[p];
+                if (!grouped[j] && Math.abs(rtMin[j] - rtMin[seed]) <= rtTolerance
+                        && (found < 0 || intensity[j] > intensity[found])) {
+                    found = j;
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @return the positions of the values sorted by increasing value, ties by position
+     */
+    static int[] orderBy(double[] values) {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        long[] packed = new long[values.length];
+        for (int i = 0; i < values.length; i++) {
+            packed[i] = ((long) Arrays.binarySearch(sorted, values[i]) << 32) | i; // Equal values get the same rank
+        }
+        Arrays.sort(packed);
+        int[] order = new int[values.length];
+        for (int p = 0; p < values.length; p++) {
+            order[p] = (int) packed[p];
+        }
+        return order;
+    }
+
+    /**
+     * Peaks sorted by RT cell (floor(RT / rtTolerance)) and then by m/z
+     */
+    private final class Grid {
+        private final int[] order; // Peak at each position
+        private final double[] sortedMz; // m/z at each position
+        private final long[] cellKeys; // Distinct cells, increasing
+        private final int[] cellStart; // Positions of cell c are [cellStart[c], cellStart[c + 1])
+        private final int[] cellOf; // Cell index of each peak
+
+        private Grid(double[] mz, double[] rtMin) {
+            int n = mz.length;
+            long[] keys = new long[n];
+            for (int i = 0; i < n; i++) {
+                keys[i] = (long) Math.floor(rtMin[i] / rtTolerance);
+            }
+            long[] distinct = keys.clone();
+            Arrays.sort(distinct);
+            int cells = 0;
+            for (int i = 0; i < n; i++) {
+                if (cells == 0 || distinct[i] != distinct[cells - 1]) {
+                    distinct[cells++] = distinct[i];
+                }
+            }
+            cellKeys = Arrays.copyOf(distinct, cells);
+
+            // Stable sort of the peaks in m/z order by cell: the cell index in the high bits, the m/z position in the low
+            int[] byMz = orderBy(mz);
+            long[] packed = new long[n];
+            for (int p = 0; p < n; p++) {
+                packed[p] = ((long) Arrays.binarySearch(cellKeys, keys[byMz[p]]) << 32) | p;
+            }
+            Arrays.sort(packed);
+            order = new int[n];
+            sortedMz = new double[n];
+            cellOf = new int[n];
+            cellStart = new int[cells + 1];
+            for (int p = 0; p < n; p++) {
+                int i = byMz[(int) packed[p]];
+                int c = (int) (packed[p] >>> 32);
+                order[p] = i;
+                sortedMz[p] = mz[i];
+                cellOf[i] = c;
+                if (p == 0 || c != (int) (packed[p - 1] >>> 32)) {
+                    cellStart[c] = p;
+                }
+            }
+            cellStart[cells] = n;
+        }
+
+        /**
+         * @return the first position of the cell with an m/z >= value
+         */
+        private int lowerBound(int cell, double value) {
+            int low = cellStart[cell];
+            int high = cellStart[cell + 1];
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (sortedMz[mid] < value) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+
+    /**
+     * Co-eluting peaks of one molecule, with the most intense one as apex
+     */
+    public static final class Group {
+        private final int[] members;
+        private final PeakList peaks;
+        private final double mz;
+        private final double rtMin;
+        private final double intensity;
+        private final IoniationMode mode;
+
+        private Group(int[] members, int apex, double[] mz, double[] rtMin, double[] intensity, IoniationMode mode) {
+            double[] memberMz = new double[members.length];
+            double[] memberIntensity = new double[members.length];
+            for (int k = 0; k < members.length; k++) {
+                memberMz[k] = mz[members[k]];
+                memberIntensity[k] = intensity[members[k]];
+            }
+            this.members = members;
+            this.peaks = PeakList.of(memberMz, memberIntensity);
+            this.mz = mz[apex];
+            this.rtMin = rtMin[apex];
+            this.intensity = intensity[apex];
+            this.mode = mode;
+        }
+
+        /**
+         * @return positions of the peaks of the group in the arrays given to FeatureGrouper.group, increasing
+         */
+        public int[] getMembers() {
+            return members.clone();
+        }
+
+        /**
+         * @return the peaks of the group sorted by m/z, to be used as the groupedSignals of an Annotation
+         */
+        public PeakList getPeaks() {
+            return peaks;
+        }
+
+        public int size() {
+            return members.length;
+        }
+
+        /**
+         * @return m/z of the apex
+         */
+        public double getMz() {
+            return mz;
+        }
+
+        /**
+         * @return RT of the apex
+         */
+        public double getRtMin() {
+            return rtMin;
+        }
+
+        /**
+         * @return intensity of the apex
+         */
+        public double getIntensity() {
+            return intensity;
+        }
+
+        /**
+         * @param lipid matched to the apex m/z
+         *
+         * @return a new annotation of the apex with the peaks of the group as grouped signals
+         */
+        public Annotation annotate(Lipid lipid) {
+            return new Annotation(lipid, mz, intensity, rtMin, mode, peaks);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Group(mz=%.4f, RT=%.2f, intensity=%.1f, peaks=%d)", mz, rtMin, intensity, members.length);
+        }
+    }
+}
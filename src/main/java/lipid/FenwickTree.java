@@ -0,0 +1,40 @@
+package lipid;
+
+/**
+ * Binary indexed tree of counts over the positions 0..size-1: add and prefix sums in O(log size)
+ */
+final class FenwickTree {
+
+    private final int[] tree;
+
+    FenwickTree(int size) {
+        this.tree = new int[size + 1];
+    }
+
+    int size() {
+        return tree.length - 1;
+    }
+
+    /**
+     * @param index position between 0 and size-1
+     * @param delta added to the count of the position
+     */
+    void add(int index, int delta) {
+        for (int i = index + 1; i < tree.length; i += i & -i) {
+            tree[i] += delta;
+        }
+    }
+
+    /**
+     * @param end exclusive, between 0 and size
+     *
+     * @return the sum of the counts of the positions below end
+     */
+    int prefixSum(int end) {
+        int sum = 0;
+        for (int i = end; i > 0; i -= i & -i) {
+            sum += tree[i];
+        }
+        return sum;
+    }
+}
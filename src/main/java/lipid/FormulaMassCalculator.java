@@ -0,0 +1,136 @@
+package lipid;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Calculates monoisotopic masses from molecular formulas such as C42H82NO8P
+ * Elements are looked up in a flat table indexed by their symbol, and the masses of the formulas are cached in a
+ * concurrent map shared by every thread
+ */
+public class FormulaMassCalculator {
+
+    private static final int CACHE_SIZE = 65_536;
+    private static final double[] ELEMENT_MASSES = new double[26 * 27]; // [first letter][second letter or none]
+
+    static {
+        Arrays.fill(ELEMENT_MASSES, Double.NaN);
+        // Monoisotopic mass of the most abundant isotope of each element
+        ELEMENT_MASSES[index('H', (char) 0)] = 1.00782503207;
+        ELEMENT_MASSES[index('D', (char) 0)] = 2.0141017778;
+        ELEMENT_MASSES[index('C', (char) 0)] = 12.0;
+        ELEMENT_MASSES[index('N', (char) 0)] = 14.0030740048;
+        ELEMENT_MASSES[index('O', (char) 0)] = 15.99491461956;
+        ELEMENT_MASSES[index('F', (char) 0)] = 18.99840322;
+        ELEMENT_MASSES[index('N', 'a')] = 22.9897692809;
+        ELEMENT_MASSES[index('M', 'g')] = 23.985041700;
+        ELEMENT_MASSES[index('S', 'i')] = 27.9769265325;
+        ELEMENT_MASSES[index('P', (char) 0)] = 30.97376163;
+        ELEMENT_MASSES[index('S', (char) 0)] = 31.97207100;
+        ELEMENT_MASSES[index('C', 'l')] = 34.96885268;
+        ELEMENT_MASSES[index('K', (char) 0)] = 38.96370668;
+        ELEMENT_MASSES[index('C', 'a')] = 39.96259098;
+        ELEMENT_MASSES[index('F', 'e')] = 55.9349375;
+        ELEMENT_MASSES[index('S', 'e')] = 79.9165213;
+        ELEMENT_MASSES[index('B', 'r')] = 78.9183371;
+        ELEMENT_MASSES[index('I', (char) 0)] = 126.904473;
+    }
+
+    // Lookups take no lock; the cache is cleared once full
+    private static final Map<String, Double> CACHE = new ConcurrentHashMap<>(1024);
+
+    private FormulaMassCalculator() {
+    }
+
+    private static int index(char first, char second) {
+        return (first - 'A') * 27 + (second == 0 ? 0 : second - 'a' + 1);
+    }
+
+    /**
+     * @param symbol of the element, e.g. "Na"
+     *
+     * @return its monoisotopic mass, or NaN if the element is not in the table
+     */
+    public static double getElementMass(String symbol) {
+        if (symbol == null || symbol.isEmpty() || symbol.length() > 2 || !isUpperCase(symbol.charAt(0))
+                || (symbol.length() == 2 && !isLowerCase(symbol.charAt(1)))) {
+            return Double.NaN;
+        }
+        return ELEMENT_MASSES[index(symbol.charAt(0), symbol.length() == 2 ? symbol.charAt(1) : (char) 0)];
+    }
+
+    /**
+     * Monoisotopic mass of a formula, using the cache
+     *
+     * @param formula molecular formula, e.g. C42H82NO8P
+     *
+     * @return the monoisotopic mass in Daltons
+     * @throws IllegalArgumentException if the formula is null or cannot be parsed
+     */
+    public static double getMonoisotopicMass(String formula) {
+        if (formula == null) {
+            throw new IllegalArgumentException("The formula is null");
+        }
+        Double mass = CACHE.get(formula);
+        if (mass == null) {
+            mass = calculateMonoisotopicMass(formula);
+            if (CACHE.size() >= CACHE_SIZE) {
+                CACHE.clear(); // Keeps the cache bounded for more distinct formulas than a library
+            }
+            CACHE.put(formula, mass);
+        }
+        return mass;
+    }
+
+    /**
+     * Monoisotopic mass of a formula, parsing it without the cache
+     * Each element is an upper case letter, an optional lower case letter and an optional count (1 by default)
+     *
+     * @param formula molecular formula, e.g. C42H82NO8P
+     *
+     * @return the monoisotopic mass in Daltons
+     * @throws IllegalArgumentException if the formula is null or cannot be parsed
+     */
+    public static double calculateMonoisotopicMass(String formula) {
+        if (formula == null || formula.isEmpty()) {
+            throw new IllegalArgumentException("The formula is empty");
+        }
+        double mass = 0;
+        int length = formula.length();
+        int i = 0;
+        while (i < length) {
+            char first = formula.charAt(i++);
+            if (!isUpperCase(first)) {
+                throw new IllegalArgumentException("Unexpected '" + first + "' at position " + (i - 1) + " of " + formula);
+            }
+            char second = 0;
+            if (i < length && isLowerCase(formula.charAt(i))) {
+                second = formula.charAt(i++);
+            }
+            double elementMass = ELEMENT_MASSES[index(first, second)];
+            if (Double.isNaN(elementMass)) {
+                throw new IllegalArgumentException("Unknown element " + first + (second == 0 ? "" : String.valueOf(second)) + " in " + formula);
+            }
+            int count = 0;
+            int digits = 0;
+            while (i < length && formula.charAt(i) >= '0' && formula.charAt(i) <= '9') {
+                count = count * 10 + (formula.charAt(i++) - '0');
+                digits++;
+            }
+            if (digits > 9) {
+                throw new IllegalArgumentException("Element count too large in " + formula);
+            }
+            mass += elementMass * (digits == 0 ? 1 : count);
+        }
+        return mass;
+    }
+
+    private static boolean isUpperCase(char c) {
+        return c >= 'A' && c <= 'Z';
+    }
+
+    private static boolean isLowerCase(char c) {
+        return c >= 'a' && c <= 'z';
+    }
+}
@@ -0,0 +1,248 @@
+package lipid;
+
+import org.drools.ruleunits.api.DataHandle;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the elution order scores of a LipidScoreUnit up to date while annotations are added and retracted
+ * Each elution rule of lipids.drl compares two annotations sharing a group: (type, double bonds), (type, carbons)
+ * or (carbons, double bonds). Adding an annotation applies the comparisons with the other members of its three groups,
+ * and retracting it applies the same comparisons with the opposite sign, so the cost of a change is the size of those groups.
+ * The scores always equal ElutionOrderScorer run over the current annotations, including the fallback score.
+ * Annotations must not have been scored before they are added, and are left unscored when retracted
+ */
+public class IncrementalElutionScorer {
+
+    private final LipidScoreUnit unit;
+    private final Map<DataHandle, Entry> entries = new HashMap<>();
+    private final Map<Long, List<Entry>> typeAndDoubleBonds = new HashMap<>();
+    private final Map<Long, List<Entry>> typeAndCarbons = new HashMap<>();
+    private final Map<Long, List<Entry>> carbonsAndDoubleBonds = new HashMap<>();
+
+    /**
+     * @param settings copied into the unit of this scorer, with the native elution scoring enabled so that the DRL
+     *                 elution rules do not score the annotations again when the unit is fired
+     */
+    public IncrementalElutionScorer(LipidScoreUnit settings) {
+        this.unit = settings.emptyCopy();
+        this.unit.setNativeElutionScoringEnabled(true);
+    }
+
+    /**
+     * @return the unit holding the current annotations, to fire the remaining rules (e.g. adduct detection)
+     */
+    public LipidScoreUnit getUnit() {
+        return unit;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Insert an annotation in the unit and apply the comparisons it takes part in
+     *
+     * @param annotation not scored yet
+     *
+     * @return the handle of the annotation in the DataStore of the unit, to retract it
+     */
+    public DataHandle add(Annotation annotation) {
+        DataHandle handle = unit.getAnnotations().add(annotation);
+        Entry entry = new Entry(annotation);
+        entries.put(handle, entry);
+        Lipid lipid = annotation.getLipid();
+        List<Entry> byCarbons = group(typeAndDoubleBonds, entry.type, lipid.getDoubleBonds());
+        List<Entry> byDoubleBonds = group(typeAndCarbons, entry.type, lipid.getCarbons());
+        List<Entry> byType = group(carbonsAndDoubleBonds, lipid.getCarbons(), lipid.getDoubleBonds());
+        compareAll(entry, byCarbons, byDoubleBonds, byType, 1);
+        byCarbons.add(entry);
+        byDoubleBonds.add(entry);
+        byType.add(entry);
+        settle(entry);
+        return handle;
+    }
+
+    /**
+     * Revert the comparisons of an annotation and retract it from the unit
+     *
+     * @param handle returned by add
+     *
+     * @return the retracted annotation, with no score applied
+     * @throws IllegalArgumentException if the handle was not returned by this scorer or was already retracted
+     */
+    public Annotation remove(DataHandle handle) {
+        Entry entry = entries.remove(handle);
+        if (entry == null) {
+            throw new IllegalArgumentException("Unknown or already retracted handle " + handle);
+        }
+        unit.getAnnotations().remove(handle);
+        Lipid lipid = entry.annotation.getLipid();
+        List<Entry> byCarbons = group(typeAndDoubleBonds, entry.type, lipid.getDoubleBonds());
+        List<Entry> byDoubleBonds = group(typeAndCarbons, entry.type, lipid.getCarbons());
+        List<Entry> byType = group(carbonsAndDoubleBonds, lipid.getCarbons(), lipid.getDoubleBonds());
+        byCarbons.remove(entry);
+        byDoubleBonds.remove(entry);
+        byType.remove(entry);
+        compareAll(entry, byCarbons, byDoubleBonds, byType, -1);
+        if (entry.fallback) {
+            entry.annotation.addScores(0, -1);
+            entry.fallback = false;
+        }
+        entry.annotation.setHasBeenScored(false);
+        prune(typeAndDoubleBonds, entry.type, lipid.getDoubleBonds());
+        prune(typeAndCarbons, entry.type, lipid.getCarbons());
+        prune(carbonsAndDoubleBonds, lipid.getCarbons(), lipid.getDoubleBonds());
+        return entry.annotation;
+    }
+
+    /**
+     * Retract an annotation from the unit without reverting anything: its score and the comparisons already applied
+     * to the other annotations are kept, and annotations added later are not compared with it
+     *
+     * @param handle returned by add
+     *
+     * @return the retracted annotation, with its final score
+     * @throws IllegalArgumentException if the handle was not returned by this scorer or was already retracted
+     */
+    public Annotation retire(DataHandle handle) {
+        Entry entry = entries.remove(handle);
+        if (entry == null) {
+            throw new IllegalArgumentException("Unknown or already retracted handle " + handle);
+        }
+        unit.getAnnotations().remove(handle);
+        Lipid lipid = entry.annotation.getLipid();
+        group(typeAndDoubleBonds, entry.type, lipid.getDoubleBonds()).remove(entry);
+        group(typeAndCarbons, entry.type, lipid.getCarbons()).remove(entry);
+        group(carbonsAndDoubleBonds, lipid.getCarbons(), lipid.getDoubleBonds()).remove(entry);
+        prune(typeAndDoubleBonds, entry.type, lipid.getDoubleBonds());
+        prune(typeAndCarbons, entry.type, lipid.getCarbons());
+        prune(carbonsAndDoubleBonds, lipid.getCarbons(), lipid.getDoubleBonds());
+        return entry.annotation;
+    }
+
+    /**
+     * Apply (sign 1) or revert (sign -1) the comparisons of an entry with the members of its groups
+     */
+    private static void compareAll(Entry entry, List<Entry> byCarbons, List<Entry> byDoubleBonds, List<Entry> byType, int sign) {
+        for (Entry other : byCarbons) {
+            if (other.id != entry.id) {
+                compareCarbons(entry, other, sign);
+                settle(other);
+            }
+        }
+        for (Entry other : byDoubleBonds) {
+            if (other.id != entry.id) {
+                compareDoubleBonds(entry, other, sign);
+                settle(other);
+            }
+        }
+        for (Entry other : byType) {
+            if (other.id != entry.id) {
+                compareTypes(entry, other, sign);
+                settle(other);
+            }
+        }
+    }
+
+    /**
+     * Same type and double bonds: "Score +1: RT increases with carbon number" and "Negative score - RT too early with more carbons"
+     */
+    private static void compareCarbons(Entry a, Entry b, int sign) {
+        Entry low = a.id < b.id ? a : b;
+        Entry high = low == a ? b : a;
+        if (low.carbons > high.carbons && low.rt > high.rt) {
+            low.apply(sign, sign);
+            high.apply(0, sign);
+        }
+        if (a.carbons > b.carbons && a.rt < b.rt) {
+            a.apply(-sign, sign);
+        } else if (b.carbons > a.carbons && b.rt < a.rt) {
+            b.apply(-sign, sign);
+        }
+    }
+
+    /**
+     * Same type and carbons: "Score +1: RT increases with fewer double bonds" (both directions) and "Score 0: RT not consistent..."
+     */
+    private static void compareDoubleBonds(Entry a, Entry b, int sign) {
+        if (a.doubleBonds > b.doubleBonds && a.rt < b.rt) {
+            a.apply(sign, sign);
+            b.apply(0, sign);
+        } else if (b.doubleBonds > a.doubleBonds && b.rt < a.rt) {
+            b.apply(sign, sign);
+            a.apply(0, sign);
+        } else {
+            a.apply(0, sign);
+            b.apply(0, sign);
+        }
+    }
+
+    /**
+     * Same carbons and double bonds: "Score +1: RT increases with lipid type elution order" and both "elutes too early with higher type"
+     */
+    private static void compareTypes(Entry a, Entry b, int sign) {
+        Entry low = a.id < b.id ? a : b;
+        Entry high = low == a ? b : a;
+        if (low.typeRank > high.typeRank && low.rt > high.rt) {
+            low.apply(sign, sign);
+            high.apply(0, sign);
+        }
+        if (a.typeRank > b.typeRank && a.rt < b.rt) {
+            a.apply(-2 * sign, 2 * sign);
+        } else if (b.typeRank > a.typeRank && b.rt < a.rt) {
+            b.apply(-2 * sign, 2 * sign);
+        }
+    }
+
+    /**
+     * The fallback score is applied while the annotation takes part in no comparison
+     */
+    private static void settle(Entry entry) {
+        boolean fallback = entry.compared == 0;
+        if (fallback != entry.fallback) {
+            entry.annotation.addScores(0, fallback ? 1 : -1);
+            entry.fallback = fallback;
+        }
+        entry.annotation.setHasBeenScored(true);
+    }
+
+    private static List<Entry> group(Map<Long, List<Entry>> groups, int first, int second) {
+        return groups.computeIfAbsent(((long) first << 32) | (second & 0xFFFFFFFFL), key -> new ArrayList<>());
+    }
+
+    private static void prune(Map<Long, List<Entry>> groups, int first, int second) {
+        groups.remove(((long) first << 32) | (second & 0xFFFFFFFFL), List.of());
+    }
+
+    private static final class Entry {
+        private final Annotation annotation;
+        private final int id;
+        private final int type;
+        private final int typeRank;
+        private final int carbons;
+        private final int doubleBonds;
+        private final double rt;
+        private int compared; // Scores applied by comparisons, without the fallback
+        private boolean fallback;
+
+        private Entry(Annotation annotation) {
+            Lipid lipid = annotation.getLipid();
+            this.annotation = annotation;
+            this.id = lipid.getCompoundId();
+            this.type = lipid.getLipidType() == null ? -1 : lipid.getLipidType().ordinal();
+            this.typeRank = LipidUtils.elutionRank(lipid.getLipidType());
+            this.carbons = lipid.getCarbons();
+            this.doubleBonds = lipid.getDoubleBonds();
+            this.rt = annotation.getRtMin();
+        }
+
+        private void apply(int points, int applied) {
+            annotation.addScores(points, applied);
+            compared += applied;
+        }
+    }
+}
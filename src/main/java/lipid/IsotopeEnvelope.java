@@ -0,0 +1,78 @@
+package lipid;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Isotope envelope found by the Deisotoper: the monoisotopic peak (M) followed by its isotopes (M+1, M+2, ...)
+ */
+public final class IsotopeEnvelope {
+    private final int charge; // 0 when the peak has no isotopes, so the charge could not be determined
+    private final int[] indices; // Positions of the peaks in the m/z sorted input
+    private final double[] mz;
+    private final double[] intensity;
+
+    IsotopeEnvelope(int charge, int[] indices, double[] mz, double[] intensity) {
+        this.charge = charge;
+        this.indices = indices;
+        this.mz = mz;
+        this.intensity = intensity;
+    }
+
+    public int getCharge() {
+        return charge;
+    }
+
+    /**
+     * @return number of peaks, including the monoisotopic one
+     */
+    public int size() {
+        return indices.length;
+    }
+
+    /**
+     * @param k 0 for the monoisotopic peak, 1 for M+1...
+     *
+     * @return position of the peak in the m/z sorted input of the Deisotoper
+     */
+    public int getIndex(int k) {
+        return indices[k];
+    }
+
+    public double getMz(int k) {
+        return mz[k];
+    }
+
+    public double getIntensity(int k) {
+        return intensity[k];
+    }
+
+    public double getMonoisotopicMz() {
+        return mz[0];
+    }
+
+    public double getMonoisotopicIntensity() {
+        return intensity[0];
+    }
+
+    public Peak getMonoisotopicPeak() {
+        return new Peak(mz[0], intensity[0]);
+    }
+
+    /**
+     * @return the peaks of the envelope, monoisotopic first
+     */
+    public List<Peak> getPeaks() {
+        List<Peak> peaks = new ArrayList<>(indices.length);
+        for (int k = 0; k < indices.length; k++) {
+            peaks.add(new Peak(mz[k], intensity[k]));
+        }
+        return Collections.unmodifiableList(peaks);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("IsotopeEnvelope(mz=%.4f, charge=%d, peaks=%d)", mz[0], charge, indices.length);
+    }
+}
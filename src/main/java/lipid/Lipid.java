@@ -12,6 +12,7 @@ public class Lipid {
     private final LipidType lipidType; // Transformed into an enumeration
     private final int carbonCount;
     private final int doubleBondsCount;
+    private volatile double monoisotopicMass = Double.NaN; // Calculated from the formula the first time it is requested
 
 
     /**
@@ -55,6 +56,19 @@ public class Lipid {
         return doubleBondsCount;
     }
 
+    /**
+     * @return the monoisotopic mass calculated from the formula, which is only calculated once
+     * @throws IllegalArgumentException if the formula is null or cannot be parsed
+     */
+    public double getMonoisotopicMass() {
+        double mass = monoisotopicMass;
+        if (Double.isNaN(mass)) {
+            mass = FormulaMassCalculator.getMonoisotopicMass(formula);
+            monoisotopicMass = mass;
+        }
+        return mass;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (!(o instanceof Lipid)) return false;
@@ -1,9 +1,17 @@
 package lipid;
 
+import org.drools.ruleunits.api.DataHandle;
+import org.drools.ruleunits.api.DataProcessor;
 import org.drools.ruleunits.api.DataSource;
 import org.drools.ruleunits.api.DataStore;
 import org.drools.ruleunits.api.RuleUnitData;
-import java.util.HashSet;
+import org.drools.ruleunits.api.SingletonStore;
+import org.kie.api.runtime.rule.FactHandle;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Class that serves as a Rule Unit - a container that holds the data (facts) that Drools rules will process
@@ -11,7 +19,15 @@ import java.util.HashSet;
 public class LipidScoreUnit implements RuleUnitData {
 
     private final DataStore<Annotation> annotations; // Facts saved as objects of type Annotation
+    private final Map<DataHandle, Annotation> added = new LinkedHashMap<>(); // Same facts in order, kept by a subscriber of the store
+    private final SingletonStore<ElutionRules> elutionRules = DataSource.createSingleton(); // The flags below, as a fact
     private boolean positiveScoringEnabled;
+    private boolean nativeAdductDetectionEnabled; // Detect adducts with AdductPairDetector instead of the DRL tolerance rules
+    private boolean nativeElutionScoringEnabled; // Score the elution order with ElutionOrderScorer instead of the pairwise DRL rules
+    private boolean carbonRulesEnabled = true; // Elution order rules comparing carbons with the same type and DB
+    private boolean doubleBondRulesEnabled = true; // Elution order rules comparing double bonds with the same type and C
+    private boolean lipidTypeRulesEnabled = true; // Elution order rules comparing lipid types with the same C and DB
+    private boolean fallbackScoreEnabled = true; // "Assign fallback score"
 
     /**
      * Default constructor: to create a new empty DatStore<Annotation>
@@ -26,7 +42,44 @@ public class LipidScoreUnit implements RuleUnitData {
      */
     public LipidScoreUnit(DataStore<Annotation> annotations) {
         this.annotations = annotations;
+        annotations.subscribe(new Tracker()); // Receives the facts already in the store too
+        refreshElutionRules();
+    }
+
+    private void refreshElutionRules() {
+        boolean pairRules = !nativeElutionScoringEnabled;
+        elutionRules.set(new ElutionRules(pairRules && carbonRulesEnabled, pairRules && doubleBondRulesEnabled,
+                pairRules && lipidTypeRulesEnabled));
     }
+
+    /**
+     * A DataStore cannot be iterated, so the annotations added to it are tracked by this subscriber for the native scorers
+     */
+    private final class Tracker implements DataProcessor<Annotation> {
+        @Override
+        public FactHandle insert(DataHandle handle, Annotation annotation) {
+            added.put(handle, annotation);
+            return null; // Not a rule session: the store keeps no fact handle for this subscriber
+        }
+
+        @Override
+        public void update(DataHandle handle, Annotation annotation) {
+            added.put(handle, annotation);
+        }
+
+        @Override
+        public void delete(DataHandle handle) {
+            added.remove(handle);
+        }
+    }
+
+    /**
+     * @return the annotations currently in the store, in the order they were added
+     */
+    List<Annotation> annotationList() {
+        return new ArrayList<>(added.values());
+    }
+
     /**
      * Provides access to the DataStore so that Drools can evaluate and modify the facts
      * Drools Rule Units automatically discover facts by calling getX() methods.
@@ -36,6 +89,30 @@ public class LipidScoreUnit implements RuleUnitData {
         return annotations;
     }
 
+    /**
+     * @return the elution order rule families that fire, set from nativeElutionScoringEnabled and the rule flags.
+     * Rules reference /elutionRules
+     */
+    public SingletonStore<ElutionRules> getElutionRules() {
+        return elutionRules;
+    }
+
+    /**
+     * @return a new unit with an empty DataStore and the same settings as this one
+     */
+    public LipidScoreUnit emptyCopy() {
+        LipidScoreUnit copy = new LipidScoreUnit();
+        copy.positiveScoringEnabled = positiveScoringEnabled;
+        copy.nativeAdductDetectionEnabled = nativeAdductDetectionEnabled;
+        copy.nativeElutionScoringEnabled = nativeElutionScoringEnabled;
+        copy.carbonRulesEnabled = carbonRulesEnabled;
+        copy.doubleBondRulesEnabled = doubleBondRulesEnabled;
+        copy.lipidTypeRulesEnabled = lipidTypeRulesEnabled;
+        copy.fallbackScoreEnabled = fallbackScoreEnabled;
+        copy.refreshElutionRules();
+        return copy;
+    }
+
     public boolean getPositiveScoringEnabled() {
         return positiveScoringEnabled;
     }
@@ -45,6 +122,78 @@ public class LipidScoreUnit implements RuleUnitData {
         this.positiveScoringEnabled = positiveScoringEnabled;
     }
 
-}
+    public boolean getNativeAdductDetectionEnabled() {
+        return nativeAdductDetectionEnabled;
+    }
+
+    /**
+     * @param nativeAdductDetectionEnabled true to detect the adducts from every AdductList relationship
+     *                                     (Annotation.detectAdductFromPeaks) and skip the DRL adduct rules
+     */
+    public void setNativeAdductDetectionEnabled(boolean nativeAdductDetectionEnabled) {
+        this.nativeAdductDetectionEnabled = nativeAdductDetectionEnabled;
+    }
+
+    public boolean getNativeElutionScoringEnabled() {
+        return nativeElutionScoringEnabled;
+    }
+
+    /**
+     * @param nativeElutionScoringEnabled true to score the elution order with ElutionOrderScorer (see LipidScorer.fire)
+     *                                    and skip the pairwise DRL scoring rules. Each pair is scored once, so the
+     *                                    scores differ from the rules when their updates activate each other again
+     */
+    public void setNativeElutionScoringEnabled(boolean nativeElutionScoringEnabled) {
+        this.nativeElutionScoringEnabled = nativeElutionScoringEnabled;
+        refreshElutionRules();
+    }
 
+    public boolean getCarbonRulesEnabled() {
+        return carbonRulesEnabled;
+    }
 
+    /**
+     * @param carbonRulesEnabled false to skip the DRL elution order rules comparing carbons (same type and DB)
+     */
+    public void setCarbonRulesEnabled(boolean carbonRulesEnabled) {
+        this.carbonRulesEnabled = carbonRulesEnabled;
+        refreshElutionRules();
+    }
+
+    public boolean getDoubleBondRulesEnabled() {
+        return doubleBondRulesEnabled;
+    }
+
+    /**
+     * @param doubleBondRulesEnabled false to skip the DRL elution order rules comparing double bonds (same type and C)
+     */
+    public void setDoubleBondRulesEnabled(boolean doubleBondRulesEnabled) {
+        this.doubleBondRulesEnabled = doubleBondRulesEnabled;
+        refreshElutionRules();
+    }
+
+    public boolean getLipidTypeRulesEnabled() {
+        return lipidTypeRulesEnabled;
+    }
+
+    /**
+     * @param lipidTypeRulesEnabled false to skip the DRL elution order rules comparing lipid types (same C and DB)
+     */
+    public void setLipidTypeRulesEnabled(boolean lipidTypeRulesEnabled) {
+        this.lipidTypeRulesEnabled = lipidTypeRulesEnabled;
+        refreshElutionRules();
+    }
+
+    public boolean getFallbackScoreEnabled() {
+        return fallbackScoreEnabled;
+    }
+
+    /**
+     * @param fallbackScoreEnabled false to leave the annotations no rule scored unscored, so a later unit can still
+     *                             score them
+     */
+    public void setFallbackScoreEnabled(boolean fallbackScoreEnabled) {
+        this.fallbackScoreEnabled = fallbackScoreEnabled;
+    }
+
+}
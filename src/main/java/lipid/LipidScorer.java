@@ -0,0 +1,73 @@
+package lipid;
+
+import org.drools.ruleunits.api.RuleUnitInstance;
+import org.kie.api.runtime.rule.AgendaFilter;
+
+/**
+ * Fires the rules of a LipidScoreUnit, running first the native scorers enabled in the unit
+ */
+public class LipidScorer {
+
+    private LipidScorer() {
+    }
+
+    /**
+     * @param unit with the annotations to score
+     *
+     * @return the number of rules fired
+     */
+    public static int fire(LipidScoreUnit unit) {
+        return fire(unit, null);
+    }
+
+    /**
+     * @param unit with the annotations to score
+     * @param profiler collecting the activations of the rules, or null to fire without instrumentation
+     *
+     * @return the number of rules fired
+     */
+    public static int fire(LipidScoreUnit unit, RuleProfiler profiler) {
+        return fire(unit, profiler, null);
+    }
+
+    /**
+     * @param unit with the annotations to score
+     * @param profiler collecting the activations of the rules, or null to fire without instrumentation
+     * @param filter of the matches to fire, or null to fire them all. The pair rules update both annotations, so on
+     *               some data they re-activate each other forever: a filter rejecting every match after a deadline
+     *               stops the firing
+     *
+     * @return the number of rules fired
+     */
+    public static int fire(LipidScoreUnit unit, RuleProfiler profiler, AgendaFilter filter) {
+        scoreNatively(unit, unit.annotationList());
+        return fireRules(unit, profiler, filter);
+    }
+
+    /**
+     * Fire the rules only, for annotations already scored natively
+     *
+     * @return the number of rules fired
+     */
+    static int fireRules(LipidScoreUnit unit, RuleProfiler profiler) {
+        return fireRules(unit, profiler, null);
+    }
+
+    private static int fireRules(LipidScoreUnit unit, RuleProfiler profiler, AgendaFilter filter) {
+        RuleUnitInstance<LipidScoreUnit> instance = RuleProfiler.createInstance(unit, profiler);
+        try {
+            return filter == null ? instance.fire() : instance.fire(filter);
+        } finally {
+            instance.close();
+        }
+    }
+
+    /**
+     * Run the native scorers enabled in the settings over the annotations
+     */
+    static void scoreNatively(LipidScoreUnit settings, Iterable<Annotation> annotations) {
+        if (settings.getNativeElutionScoringEnabled()) {
+            ElutionOrderScorer.score(annotations);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package lipid;
+
+import org.drools.ruleunits.api.DataHandle;
+import org.drools.ruleunits.api.RuleUnitInstance;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scores small batches of annotations on warm rule unit instances instead of building one per batch
+ * Each session is a LipidScoreUnit with its RuleUnitInstance. A batch is inserted into a free session, fired, and
+ * removed again through its DataHandles, so the session is empty for the next caller.
+ * At most maxSessions batches are scored at the same time; other callers wait in arrival order.
+ * Sessions are created on demand and discarded if firing fails
+ */
+public class LipidScorerPool implements AutoCloseable {
+
+    private final LipidScoreUnit settings;
+    private final RuleProfiler profiler;
+    private final Semaphore permits;
+    private final ConcurrentLinkedQueue<Session> idle = new ConcurrentLinkedQueue<>();
+    private volatile boolean closed;
+
+    /**
+     * @param settings unit whose settings are copied into every session (its own annotations are ignored)
+     * @param maxSessions number of batches that can be scored at the same time
+     */
+    public LipidScorerPool(LipidScoreUnit settings, int maxSessions) {
+        this(settings, maxSessions, null);
+    }
+
+    /**
+     * @param settings unit whose settings are copied into every session (its own annotations are ignored)
+     * @param maxSessions number of batches that can be scored at the same time
+     * @param profiler attached to every session, or null to fire without instrumentation
+     */
+    public LipidScorerPool(LipidScoreUnit settings, int maxSessions, RuleProfiler profiler) {
+        if (maxSessions < 1) {
+            throw new IllegalArgumentException("maxSessions must be at least 1, got " + maxSessions);
+        }
+        this.settings = settings.emptyCopy();
+        this.profiler = profiler;
+        this.permits = new Semaphore(maxSessions, true); // Fair, so waiting callers are served in order
+    }
+
+    /**
+     * Score a batch, waiting for a free session if all of them are in use
+     *
+     * @param batch annotations to score, updated in place
+     *
+     * @return the number of rules fired
+     */
+    public int score(Collection<Annotation> batch) {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a scoring session", e);
+        }
+        return scoreWithPermit(batch);
+    }
+
+    /**
+     * Score a batch, waiting at most timeout for a free session
+     *
+     * @param batch annotations to score, updated in place
+     * @param timeout maximum time to wait for a session
+     * @param unit of the timeout
+     *
+     * @return the number of rules fired, or -1 if no session became free in time (the batch is not scored)
+     */
+    public int score(Collection<Annotation> batch, long timeout, TimeUnit unit) {
+        try {
+            if (!permits.tryAcquire(timeout, unit)) {
+                return -1;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a scoring session", e);
+        }
+        return scoreWithPermit(batch);
+    }
+
+    private int scoreWithPermit(Collection<Annotation> batch) {
+        Session session = null;
+        boolean healthy = false;
+        try {
+            if (closed) {
+                throw new IllegalStateException("The scoring pool is closed");
+            }
+            session = idle.poll();
+            if (session == null) {
+                session = new Session(settings.emptyCopy(), profiler);
+            }
+            LipidScorer.scoreNatively(settings, batch);
+            for (Annotation annotation : batch) {
+                session.handles.add(session.unit.getAnnotations().add(annotation));
+            }
+            int fired = session.instance.fire();
+            healthy = true;
+            return fired;
+        } finally {
+            if (session != null) {
+                release(session, healthy);
+            }
+            permits.release();
+        }
+    }
+
+    private void release(Session session, boolean healthy) {
+        try {
+            for (DataHandle handle : session.handles) {
+                session.unit.getAnnotations().remove(handle);
+            }
+        } catch (RuntimeException e) {
+            healthy = false;
+        }
+        session.handles.clear();
+        if (healthy && !closed) {
+            idle.offer(session);
+            if (closed && idle.remove(session)) { // Closed meanwhile
+                session.instance.close();
+            }
+        } else {
+            session.instance.close();
+        }
+    }
+
+    /**
+     * @return the number of warm sessions waiting for a batch
+     */
+    public int idleSessions() {
+        return idle.size();
+    }
+
+    /**
+     * Close the idle sessions. Sessions in use are closed when their batch finishes
+     */
+    @Override
+    public void close() {
+        closed = true;
+        Session session;
+        while ((session = idle.poll()) != null) {
+            session.instance.close();
+        }
+    }
+
+    private static final class Session {
+        private final LipidScoreUnit unit;
+        private final RuleUnitInstance<LipidScoreUnit> instance;
+        private final List<DataHandle> handles = new ArrayList<>();
+
+        private Session(LipidScoreUnit unit, RuleProfiler profiler) {
+            this.unit = unit;
+            this.instance = RuleProfiler.createInstance(unit, profiler);
+        }
+    }
+}
@@ -39,6 +39,16 @@ public class LipidUtils {
         return Integer.compare(index1, index2);
     }
 
+    /**
+     * Position of a LipidType in the elution order, consistent with compareLipidTypes
+     * @param type
+     * @return the index in the elution order, or the number of known types if it is unknown (all unknown types elute together, last)
+     */
+    public static int elutionRank(LipidType type){
+        int index = ELUTION_ORDER.indexOf(type);
+        return index == -1 ? ELUTION_ORDER.size() : index;
+    }
+
     public static boolean elutesBefore(LipidType type1, LipidType type2){
         return compareLipidTypes(type1, type2)<0;
     }
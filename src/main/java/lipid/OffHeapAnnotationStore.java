@@ -0,0 +1,324 @@
+package lipid;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Annotations and their peaks stored outside the heap, in fixed size chunks of direct or memory mapped buffers
+ * Each row is a record of ROW_BYTES and each peak of PEAK_BYTES, so the heap only holds the chunk references and the
+ * distinct lipids, whatever the number of rows. A store holds the annotations of one sample: it is closed when the
+ * sample is done and every access afterwards fails. Closing drops the chunks but does not free them: direct buffers
+ * and mappings are freed when the GC collects them, as Java 21 has no final API to free them earlier. So a mapped store
+ * truncates and deletes its file at close, and maps small chunks to leave little address space mapped until then.
+ * getPeaks(row) copies the peaks of the row into a small PeakList. Not thread safe
+ */
+public class OffHeapAnnotationStore implements AnnotationStore, Closeable {
+
+    static final int ROW_BYTES = 64;
+    static final int PEAK_BYTES = 16;
+    static final int DEFAULT_ROWS_PER_CHUNK = 1 << 16; // 4 MiB of rows
+    static final int DEFAULT_PEAKS_PER_CHUNK = 1 << 18; // 4 MiB of peaks
+    static final int MAPPED_ROWS_PER_CHUNK = 1 << 12; // 256 KiB of rows
+    static final int MAPPED_PEAKS_PER_CHUNK = 1 << 14; // 256 KiB of peaks
+
+    // Row record
+    private static final int MZ = 0;
+    private static final int RT = 8;
+    private static final int INTENSITY = 16;
+    private static final int DETECTED = 24;
+    private static final int FIRST_PEAK = 32; // long
+    private static final int LIPID_ROW = 40;
+    private static final int PEAKS = 44;
+    private static final int SCORE = 48;
+    private static final int APPLIED = 52;
+    private static final int ADDUCT = 56; // byte, -1 until detected
+    private static final int MODE = 57; // byte
+    private static final int SCORED = 58; // byte
+
+    private static final IoniationMode[] MODES = IoniationMode.values();
+
+    private final FileChannel file; // null when the chunks are direct buffers
+    private final int rowShift;
+    private final int peakShift;
+    private final List<ByteBuffer> rowChunks = new ArrayList<>();
+    private final List<ByteBuffer> peakChunks = new ArrayList<>();
+    private final List<Lipid> lipids = new ArrayList<>();
+    private final Map<Lipid, Integer> lipidRows = new IdentityHashMap<>();
+    private long fileLength;
+    private int size;
+    private long peakCount;
+    private boolean closed;
+
+    /**
+     * @param file to map the chunks from, or null to allocate direct buffers
+     * @param rowsPerChunk power of two
+     * @param peaksPerChunk power of two
+     */
+    OffHeapAnnotationStore(FileChannel file, int rowsPerChunk, int peaksPerChunk) {
+        if (Integer.bitCount(rowsPerChunk) != 1 || Integer.bitCount(peaksPerChunk) != 1) {
+            throw new IllegalArgumentException("Chunk sizes must be powers of two: " + rowsPerChunk + ", " + peaksPerChunk);
+        }
+        this.file = file;
+        this.rowShift = Integer.numberOfTrailingZeros(rowsPerChunk);
+        this.peakShift = Integer.numberOfTrailingZeros(peaksPerChunk);
+    }
+
+    /**
+     * @return an empty store on direct buffers
+     */
+    public static OffHeapAnnotationStore allocate() {
+        return new OffHeapAnnotationStore(null, DEFAULT_ROWS_PER_CHUNK, DEFAULT_PEAKS_PER_CHUNK);
+    }
+
+    /**
+     * Create an empty store mapped from a new file, so the rows can be paged out to disk instead of taking memory
+     * Its chunks are small (MAPPED_ROWS_PER_CHUNK rows): a closed store keeps its mappings until they are collected, and
+     * those are then at most its own rows and peaks rounded up to 256 KiB
+     *
+     * @param directory where the file is created. The file is deleted when the store is closed, or as soon as it is
+     *                  opened on systems that allow it
+     *
+     * @return the store
+     * @throws IOException if the file cannot be created
+     */
+    public static OffHeapAnnotationStore mapped(Path directory) throws IOException {
+        Path path = Files.createTempFile(directory, "annotations", ".store");
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.DELETE_ON_CLOSE);
+        return new OffHeapAnnotationStore(channel, MAPPED_ROWS_PER_CHUNK, MAPPED_PEAKS_PER_CHUNK);
+    }
+
+    private ByteBuffer allocateChunk(int bytes) {
+        if (file == null) {
+            return ByteBuffer.allocateDirect(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        try {
+            ByteBuffer chunk = file.map(FileChannel.MapMode.READ_WRITE, fileLength, bytes).order(ByteOrder.LITTLE_ENDIAN);
+            fileLength += bytes;
+            return chunk;
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot extend the store file to " + (fileLength + bytes) + " bytes", e);
+        }
+    }
+
+    @Override
+    public int add(Lipid lipid, double mz, double intensity, double rtMin, IoniationMode ionizationMode, PeakList groupedSignals) {
+        checkOpen();
+        if (size == Integer.MAX_VALUE) {
+            throw new IllegalStateException("The store is full");
+        }
+        int peaks = groupedSignals == null ? 0 : groupedSignals.size();
+        int row = size;
+        if ((row >>> rowShift) == rowChunks.size()) {
+            rowChunks.add(allocateChunk(ROW_BYTES << rowShift));
+        }
+        while (peaks > 0 && ((peakCount + peaks - 1) >>> peakShift) >= peakChunks.size()) {
+            peakChunks.add(allocateChunk(PEAK_BYTES << peakShift));
+        }
+        Integer existing = lipidRows.get(lipid);
+        if (existing == null) {
+            existing = lipids.size();
+            lipids.add(lipid);
+            lipidRows.put(lipid, existing);
+        }
+
+        ByteBuffer chunk = rowChunks.get(row >>> rowShift);
+        int at = rowPosition(row);
+        chunk.putDouble(at + MZ, mz);
+        chunk.putDouble(at + RT, rtMin);
+        chunk.putDouble(at + INTENSITY, intensity);
+        chunk.putLong(at + DETECTED, 0);
+        chunk.putLong(at + FIRST_PEAK, peakCount);
+        chunk.putInt(at + LIPID_ROW, existing);
+        chunk.putInt(at + PEAKS, peaks);
+        chunk.putInt(at + SCORE, 0);
+        chunk.putInt(at + APPLIED, 0);
+        chunk.put(at + ADDUCT, (byte) -1);
+        chunk.put(at + MODE, (byte) ionizationMode.ordinal());
+        chunk.put(at + SCORED, (byte) 0);
+        for (int i = 0; i < peaks; i++) {
+            long peak = peakCount + i;
+            ByteBuffer peakChunk = peakChunks.get((int) (peak >>> peakShift));
+            int position = peakPosition(peak);
+            peakChunk.putDouble(position, groupedSignals.getMz(i));
+            peakChunk.putDouble(position + 8, groupedSignals.getIntensity(i));
+        }
+        peakCount += peaks;
+        size++;
+        return row;
+    }
+
+    private int rowPosition(int row) {
+        return (row & ((1 << rowShift) - 1)) * ROW_BYTES;
+    }
+
+    private int peakPosition(long peak) {
+        return (int) (peak & ((1L << peakShift) - 1)) * PEAK_BYTES;
+    }
+
+    /**
+     * @return the chunk holding the row, whose record starts at rowPosition(row)
+     */
+    private ByteBuffer rowChunk(int row) {
+        checkOpen();
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Row " + row + " out of " + size);
+        }
+        return rowChunks.get(row >>> rowShift);
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("The store is closed");
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Lipid getLipid(int row) {
+        return lipids.get(rowChunk(row).getInt(rowPosition(row) + LIPID_ROW));
+    }
+
+    @Override
+    public double getMz(int row) {
+        return rowChunk(row).getDouble(rowPosition(row) + MZ);
+    }
+
+    @Override
+    public double getRtMin(int row) {
+        return rowChunk(row).getDouble(rowPosition(row) + RT);
+    }
+
+    @Override
+    public double getIntensity(int row) {
+        return rowChunk(row).getDouble(rowPosition(row) + INTENSITY);
+    }
+
+    @Override
+    public IoniationMode getIonizationMode(int row) {
+        return MODES[rowChunk(row).get(rowPosition(row) + MODE)];
+    }
+
+    @Override
+    public int getAdductId(int row) {
+        return rowChunk(row).get(rowPosition(row) + ADDUCT);
+    }
+
+    @Override
+    public long getDetectedAdductMask(int row) {
+        return rowChunk(row).getLong(rowPosition(row) + DETECTED);
+    }
+
+    @Override
+    public int getScore(int row) {
+        return rowChunk(row).getInt(rowPosition(row) + SCORE);
+    }
+
+    @Override
+    public int getTotalScoresApplied(int row) {
+        return rowChunk(row).getInt(rowPosition(row) + APPLIED);
+    }
+
+    @Override
+    public boolean isScored(int row) {
+        return rowChunk(row).get(rowPosition(row) + SCORED) != 0;
+    }
+
+    /**
+     * @return a copy of the grouped signals of the row sorted by m/z
+     */
+    @Override
+    public PeakList getPeaks(int row) {
+        ByteBuffer chunk = rowChunk(row);
+        int at = rowPosition(row);
+        int peaks = chunk.getInt(at + PEAKS);
+        if (peaks == 0) {
+            return PeakList.empty();
+        }
+        long first = chunk.getLong(at + FIRST_PEAK);
+        double[] mz = new double[peaks];
+        double[] intensity = new double[peaks];
+        for (int i = 0; i < peaks; i++) {
+            long peak = first + i;
+            ByteBuffer peakChunk = peakChunks.get((int) (peak >>> peakShift));
+            int position = peakPosition(peak);
+            mz[i] = peakChunk.getDouble(position);
+            intensity[i] = peakChunk.getDouble(position + 8);
+        }
+        return PeakList.wrap(mz, intensity, 0, peaks);
+    }
+
+    @Override
+    public long getPeakCount() {
+        return peakCount;
+    }
+
+    @Override
+    public void setAdduct(int row, int adductId, long detectedAdducts) {
+        ByteBuffer chunk = rowChunk(row);
+        int at = rowPosition(row);
+        chunk.put(at + ADDUCT, (byte) adductId);
+        chunk.putLong(at + DETECTED, detectedAdducts);
+    }
+
+    @Override
+    public void setScores(int row, int score, int totalScoresApplied, boolean scored) {
+        ByteBuffer chunk = rowChunk(row);
+        int at = rowPosition(row);
+        chunk.putInt(at + SCORE, score);
+        chunk.putInt(at + APPLIED, totalScoresApplied);
+        chunk.put(at + SCORED, (byte) (scored ? 1 : 0));
+    }
+
+    /**
+     * @return bytes reserved outside the heap (or in the file) for the rows and peaks
+     */
+    public long getReservedBytes() {
+        return (long) rowChunks.size() * (ROW_BYTES << rowShift) + (long) peakChunks.size() * (PEAK_BYTES << peakShift);
+    }
+
+    /**
+     * Drop the chunks, so every access afterwards fails. The memory of direct buffers and the mappings are not freed
+     * now but when the GC collects them. The file, if any, is truncated and deleted now, so its pages are freed now
+     *
+     * @throws IOException if the file cannot be truncated or closed
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        rowChunks.clear();
+        peakChunks.clear();
+        lipids.clear();
+        lipidRows.clear();
+        if (file != null) {
+            try {
+                file.truncate(0);
+            } finally {
+                file.close();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("OffHeapAnnotationStore(rows=%d, peaks=%d, reserved=%d, mapped=%b)", size, peakCount,
+                getReservedBytes(), file != null);
+    }
+}
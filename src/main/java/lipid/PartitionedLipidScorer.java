@@ -0,0 +1,226 @@
+package lipid;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.ToLongFunction;
+
+/**
+ * Fires the rules of lipids.drl over independent groups of annotations in parallel
+ * The elution order rules form three families, each comparing annotations that share a key: carbons (same type and
+ * double bonds), double bonds (same type and carbons) and lipid types (same carbons and double bonds). Joining the keys
+ * connects every series of a real run, so each family is fired on its own over the partitions of its key, with the
+ * other families disabled: first by (type, double bonds), then by (type, carbons), then by (carbons, double bonds).
+ * Every phase adds its scores to the same Annotation objects, each of them in exactly one partition per phase, so the
+ * scores are merged without copies. The fallback score is only assigned in the last phase, once every family has scored.
+ * The adduct rules look at one annotation at a time and fire in the first phase.
+ * Limits:
+ * - The parallelism of a phase is its number of keys, a few dozen to a few hundred on real runs, and its largest key
+ *   is still compared pairwise (O(m²)) on one thread. A long series of one type, carbons and double bonds stays one task.
+ * - A family never sees the update() of another one. When an annotation takes part in pairs of different families, a
+ *   single fire() can activate a pair again and score it twice (see ElutionOrderScorer); here each family scores its
+ *   pairs as if it fired alone. Both give the same scores only when no rule activates another again.
+ * With native elution scoring, ElutionOrderScorer scores all the annotations at once and only the adduct rules are
+ * fired, over the partitions of the first phase.
+ * Small partitions are packed together until minPartitionSize to save the cost of creating a rule unit instance per group
+ */
+public class PartitionedLipidScorer {
+
+    public static final int DEFAULT_MIN_PARTITION_SIZE = 64;
+
+    private final ExecutorService executor;
+    private final int minPartitionSize;
+    private final RuleProfiler profiler;
+
+    /**
+     * Use the common ForkJoinPool (one thread per core)
+     */
+    public PartitionedLipidScorer() {
+        this(ForkJoinPool.commonPool(), DEFAULT_MIN_PARTITION_SIZE);
+    }
+
+    /**
+     * @param executor runs one task per partition, e.g. a ForkJoinPool sized to the cores, or
+     *                 Executors.newVirtualThreadPerTaskExecutor(). It is not shut down by this class
+     * @param minPartitionSize components smaller than this are packed together into one unit
+     */
+    public PartitionedLipidScorer(ExecutorService executor, int minPartitionSize) {
+        this(executor, minPartitionSize, null);
+    }
+
+    /**
+     * @param executor runs one task per partition. It is not shut down by this class
+     * @param minPartitionSize components smaller than this are packed together into one unit
+     * @param profiler shared by the units of all the partitions, or null to fire without instrumentation
+     */
+    public PartitionedLipidScorer(ExecutorService executor, int minPartitionSize, RuleProfiler profiler) {
+        if (minPartitionSize < 1) {
+            throw new IllegalArgumentException("minPartitionSize must be at least 1, got " + minPartitionSize);
+        }
+        this.executor = executor;
+        this.minPartitionSize = minPartitionSize;
+        this.profiler = profiler;
+    }
+
+    /**
+     * Fire the rules over the annotations of a unit, one unit with the same settings per partition
+     *
+     * @param unit with the settings and the annotations to score
+     *
+     * @return the number of rules fired in all the partitions
+     */
+    public int fire(LipidScoreUnit unit) {
+        return fire(unit, unit.annotationList());
+    }
+
+    /**
+     * @param settings unit whose settings are copied into each partition (its own annotations are ignored)
+     * @param annotations to score
+     *
+     * @return the number of rules fired in all the partitions
+     */
+    public int fire(LipidScoreUnit settings, Collection<Annotation> annotations) {
+        List<Annotation> all = new ArrayList<>(annotations);
+        if (settings.getNativeElutionScoringEnabled()) {
+            LipidScorer.scoreNatively(settings, all);
+            return firePartitions(settings, partitionByTypeAndDoubleBonds(all));
+        }
+        LipidScoreUnit carbons = settings.emptyCopy();
+        carbons.setDoubleBondRulesEnabled(false);
+        carbons.setLipidTypeRulesEnabled(false);
+        carbons.setFallbackScoreEnabled(false);
+        int fired = firePartitions(carbons, partitionByTypeAndDoubleBonds(all));
+        LipidScoreUnit doubleBonds = settings.emptyCopy();
+        doubleBonds.setCarbonRulesEnabled(false);
+        doubleBonds.setLipidTypeRulesEnabled(false);
+        doubleBonds.setFallbackScoreEnabled(false);
+        fired += firePartitions(doubleBonds, partitionByTypeAndCarbons(all));
+        LipidScoreUnit lipidTypes = settings.emptyCopy();
+        lipidTypes.setCarbonRulesEnabled(false);
+        lipidTypes.setDoubleBondRulesEnabled(false);
+        return fired + firePartitions(lipidTypes, partitionByCarbonsAndDoubleBonds(all));
+    }
+
+    /**
+     * @return the number of rules fired in all the partitions, once all of them are done
+     */
+    private int firePartitions(LipidScoreUnit settings, List<List<Annotation>> components) {
+        List<List<Annotation>> partitions = pack(components, minPartitionSize);
+        if (partitions.size() == 1) {
+            return fireOne(settings, partitions.get(0)); // Nothing to run in parallel
+        }
+        List<Future<Integer>> results = new ArrayList<>(partitions.size());
+        for (List<Annotation> partition : partitions) {
+            results.add(executor.submit(() -> fireOne(settings, partition)));
+        }
+        int fired = 0;
+        try {
+            for (Future<Integer> result : results) {
+                fired += result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            results.forEach(result -> result.cancel(true));
+            throw new IllegalStateException("Interrupted while scoring the partitions", e);
+        } catch (ExecutionException e) {
+            results.forEach(result -> result.cancel(true));
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Scoring a partition failed", e.getCause());
+        }
+        return fired;
+    }
+
+    private int fireOne(LipidScoreUnit settings, List<Annotation> annotations) {
+        LipidScoreUnit unit = settings.emptyCopy();
+        for (Annotation annotation : annotations) {
+            unit.getAnnotations().add(annotation);
+        }
+        return LipidScorer.fireRules(unit, profiler); // Native scoring, if any, already covered all the annotations
+    }
+
+    /**
+     * Split annotations by lipid type and double bonds, the partitions of the rules comparing carbons
+     *
+     * @param annotations to split
+     *
+     * @return one partition per (type, double bonds), in the order of their first annotation
+     */
+    public static List<List<Annotation>> partitionByTypeAndDoubleBonds(Collection<Annotation> annotations) {
+        return partition(annotations, lipid -> key(typeKey(lipid), lipid.getDoubleBonds()));
+    }
+
+    /**
+     * Split annotations by lipid type and carbons, the partitions of the rules comparing double bonds
+     *
+     * @param annotations to split
+     *
+     * @return one partition per (type, carbons), in the order of their first annotation
+     */
+    public static List<List<Annotation>> partitionByTypeAndCarbons(Collection<Annotation> annotations) {
+        return partition(annotations, lipid -> key(typeKey(lipid), lipid.getCarbons()));
+    }
+
+    /**
+     * Split annotations by carbons and double bonds, the partitions of the rules comparing lipid types
+     *
+     * @param annotations to split
+     *
+     * @return one partition per (carbons, double bonds), in the order of their first annotation
+     */
+    public static List<List<Annotation>> partitionByCarbonsAndDoubleBonds(Collection<Annotation> annotations) {
+        return partition(annotations, lipid -> key(lipid.getCarbons(), lipid.getDoubleBonds()));
+    }
+
+    private static List<List<Annotation>> partition(Collection<Annotation> annotations, ToLongFunction<Lipid> key) {
+        Map<Long, List<Annotation>> partitions = new LinkedHashMap<>();
+        for (Annotation annotation : annotations) {
+            partitions.computeIfAbsent(key.applyAsLong(annotation.getLipid()), k -> new ArrayList<>()).add(annotation);
+        }
+        return new ArrayList<>(partitions.values());
+    }
+
+    /**
+     * Pack the smallest components together, largest first, so every partition but the last has at least minSize annotations
+     */
+    static List<List<Annotation>> pack(List<List<Annotation>> components, int minSize) {
+        List<List<Annotation>> sorted = new ArrayList<>(components);
+        sorted.sort(Comparator.comparingInt((List<Annotation> component) -> component.size()).reversed());
+        List<List<Annotation>> partitions = new ArrayList<>();
+        List<Annotation> current = null;
+        for (List<Annotation> component : sorted) {
+            if (component.size() >= minSize) {
+                partitions.add(component);
+                continue;
+            }
+            if (current == null) {
+                current = new ArrayList<>();
+                partitions.add(current);
+            }
+            current.addAll(component);
+            if (current.size() >= minSize) {
+                current = null;
+            }
+        }
+        if (partitions.isEmpty()) {
+            partitions.add(new ArrayList<>());
+        }
+        return partitions;
+    }
+
+    private static int typeKey(Lipid lipid) {
+        return lipid.getLipidType() == null ? -1 : lipid.getLipidType().ordinal();
+    }
+
+    private static long key(int first, int second) {
+        return ((long) first << 32) | (second & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,362 @@
+package lipid;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Immutable list of peaks sorted by m/z, stored as two parallel primitive arrays instead of one Peak object per signal
+ * Sub lists share the arrays, so taking an m/z window does not copy anything
+ */
+public final class PeakList {
+
+    private static final PeakList EMPTY = new PeakList(new double[0], new double[0], 0, 0);
+    private static final int INSERTION_SORT_SIZE = 32; // Below this, sortByMz does not merge
+
+    private final double[] mz;
+    private final double[] intensity;
+    private final int offset; // Position of the first peak in the arrays
+    private final int size;
+
+    private PeakList(double[] mz, double[] intensity, int offset, int size) {
+        this.mz = mz;
+        this.intensity = intensity;
+        this.offset = offset;
+        this.size = size;
+    }
+
+    public static PeakList empty() {
+        return EMPTY;
+    }
+
+    /**
+     * @param peaks in any order. As in a TreeSet, only the first peak of each m/z is kept
+     *
+     * @return the peaks sorted by m/z
+     */
+    public static PeakList of(Collection<Peak> peaks) {
+        if (peaks.isEmpty()) {
+            return EMPTY;
+        }
+        Peak[] sorted = peaks.toArray(new Peak[0]);
+        Arrays.sort(sorted); // Stable, so the first peak of each m/z stays first
+        double[] mz = new double[sorted.length];
+        double[] intensity = new double[sorted.length];
+        int size = 0;
+        for (Peak peak : sorted) {
+            if (size > 0 && Double.compare(mz[size - 1], peak.getMz()) == 0) {
+                continue;
+            }
+            mz[size] = peak.getMz();
+            intensity[size] = peak.getIntensity();
+            size++;
+        }
+        return new PeakList(mz, intensity, 0, size);
+    }
+
+    /**
+     * Copy peaks that may not be sorted. As in of(Collection), only the first peak of each m/z is kept
+     *
+     * @param mz of each peak
+     * @param intensity of each peak
+     *
+     * @return the peaks sorted by m/z
+     */
+    public static PeakList of(double[] mz, double[] intensity) {
+        if (mz.length != intensity.length) {
+            throw new IllegalArgumentException("Got " + mz.length + " m/z values but " + intensity.length + " intensities");
+        }
+        if (mz.length == 0) {
+            return EMPTY;
+        }
+        double[] sortedMz = mz.clone();
+        double[] sortedIntensity = intensity.clone();
+        return new PeakList(sortedMz, sortedIntensity, 0, sortByMz(sortedMz, sortedIntensity, mz.length));
+    }
+
+    /**
+     * Sort the first peaks of two parallel arrays by m/z in place, moving both arrays together, and keep only the first
+     * peak of each m/z as of(Collection) does. The sort is stable and costs nothing when the peaks are already sorted
+     *
+     * @param mz of each peak, sorted on return
+     * @param intensity of each peak, moved with its m/z
+     * @param size number of peaks to sort from the start of the arrays
+     *
+     * @return the number of distinct peaks, now at the start of the arrays (to use with wrap)
+     */
+    public static int sortByMz(double[] mz, double[] intensity, int size) {
+        if (size > mz.length || size > intensity.length) {
+            throw new IndexOutOfBoundsException(size + " peaks do not fit arrays of length " + mz.length + " and " + intensity.length);
+        }
+        int unsorted = 1;
+        while (unsorted < size && Double.compare(mz[unsorted - 1], mz[unsorted]) <= 0) {
+            unsorted++;
+        }
+        if (unsorted < size) {
+            if (size <= INSERTION_SORT_SIZE) {
+                insertionSort(mz, intensity, 0, unsorted, size);
+            } else {
+                mergeSort(mz, intensity, Arrays.copyOf(mz, size), Arrays.copyOf(intensity, size), 0, size);
+            }
+        }
+        int distinct = Math.min(size, 1);
+        for (int i = 1; i < size; i++) {
+            if (Double.compare(mz[distinct - 1], mz[i]) != 0) {
+                mz[distinct] = mz[i];
+                intensity[distinct] = intensity[i];
+                distinct++;
+            }
+        }
+        return distinct;
+    }
+
+    /**
+     * Sort [start, to) when [start, from) is already sorted, inserting each following peak before the greater ones
+     */
+    private static void insertionSort(double[] mz, double[] intensity, int start, int from, int to) {
+        for (int i = from; i < to; i++) {
+            double peakMz = mz[i];
+            double peakIntensity = intensity[i];
+            int j = i;
+            while (j > start && Double.compare(mz[j - 1], peakMz) > 0) {
+                mz[j] = mz[j - 1];
+                intensity[j] = intensity[j - 1];
+                j--;
+            }
+            mz[j] = peakMz;
+            intensity[j] = peakIntensity;
+        }
+    }
+
+    /**
+     * Sort [from, to) of mz and intensity, whose copies in bufferMz and bufferIntensity hold the same peaks
+     */
+    private static void mergeSort(double[] mz, double[] intensity, double[] bufferMz, double[] bufferIntensity, int from, int to) {
+        if (to - from <= INSERTION_SORT_SIZE) {
+            insertionSort(mz, intensity, from, from + 1, to);
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        // Sort both halves into the buffers, then merge them back
+        mergeSort(bufferMz, bufferIntensity, mz, intensity, from, middle);
+        mergeSort(bufferMz, bufferIntensity, mz, intensity, middle, to);
+        int left = from;
+        int right = middle;
+        for (int i = from; i < to; i++) {
+            if (right == to || (left < middle && Double.compare(bufferMz[left], bufferMz[right]) <= 0)) {
+                mz[i] = bufferMz[left];
+                intensity[i] = bufferIntensity[left++];
+            } else {
+                mz[i] = bufferMz[right];
+                intensity[i] = bufferIntensity[right++];
+            }
+        }
+    }
+
+    /**
+     * Use arrays that are already sorted by m/z without copying them. The arrays must not be modified afterwards
+     *
+     * @param mz sorted in increasing order
+     * @param intensity of each peak
+     * @param from first peak
+     * @param to end of the peaks (exclusive)
+     *
+     * @return a list backed by the arrays
+     * @throws IllegalArgumentException if the m/z values are not sorted
+     */
+    public static PeakList wrap(double[] mz, double[] intensity, int from, int to) {
+        if (from < 0 || to > mz.length || to > intensity.length || from > to) {
+            throw new IndexOutOfBoundsException("Range [" + from + ", " + to + ") does not fit arrays of length "
+                    + mz.length + " and " + intensity.length);
+        }
+        for (int i = from + 1; i < to; i++) {
+            if (!(mz[i - 1] < mz[i])) {
+                throw new IllegalArgumentException("m/z values must be sorted and distinct: " + mz[i - 1] + " found before " + mz[i]);
+            }
+        }
+        return new PeakList(mz, intensity, from, to - from);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public double getMz(int index) {
+        return mz[offset + checkIndex(index)];
+    }
+
+    public double getIntensity(int index) {
+        return intensity[offset + checkIndex(index)];
+    }
+
+    /**
+     * @return a new Peak object for the peak at index
+     */
+    public Peak get(int index) {
+        return new Peak(getMz(index), getIntensity(index));
+    }
+
+    private int checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of " + size);
+        }
+        return index;
+    }
+
+    /**
+     * @return the first index whose m/z is not below value (size() if there is none)
+     */
+    public int lowerBound(double value) {
+        int low = offset;
+        int high = offset + size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (mz[mid] < value) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low - offset;
+    }
+
+    /**
+     * @return the first index whose m/z is above value (size() if there is none)
+     */
+    public int upperBound(double value) {
+        int low = offset;
+        int high = offset + size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (mz[mid] <= value) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low - offset;
+    }
+
+    /**
+     * @param value expected m/z
+     * @param tolerance in Daltons
+     *
+     * @return the index of the peak closest to value within the tolerance, or -1 if there is none
+     */
+    public int indexOf(double value, double tolerance) {
+        int closest = -1;
+        for (int i = lowerBound(value - tolerance); i < size && mz[offset + i] <= value + tolerance; i++) {
+            if (closest < 0 || Math.abs(mz[offset + i] - value) < Math.abs(mz[offset + closest] - value)) {
+                closest = i;
+            }
+        }
+        return closest;
+    }
+
+    /**
+     * @return the peaks with fromIndex <= index < toIndex, sharing the arrays
+     */
+    public PeakList subList(int fromIndex, int toIndex) {
+        if (fromIndex < 0 || toIndex > size || fromIndex > toIndex) {
+            throw new IndexOutOfBoundsException("Range [" + fromIndex + ", " + toIndex + ") out of " + size);
+        }
+        return new PeakList(mz, intensity, offset + fromIndex, toIndex - fromIndex);
+    }
+
+    /**
+     * @return the peaks whose m/z is between fromMz and toMz (both included), sharing the arrays
+     */
+    public PeakList range(double fromMz, double toMz) {
+        int from = lowerBound(fromMz);
+        return subList(from, Math.max(from, upperBound(toMz)));
+    }
+
+    /**
+     * @return the index of the most intense peak, or -1 if the list is empty
+     */
+    public int indexOfMaxIntensity() {
+        int max = -1;
+        for (int i = 0; i < size; i++) {
+            if (max < 0 || intensity[offset + i] > intensity[offset + max]) {
+                max = i;
+            }
+        }
+        return max;
+    }
+
+    /**
+     * @param indices of the peaks to keep, in increasing order
+     * @param count number of indices to use
+     *
+     * @return a new list with only those peaks
+     */
+    public PeakList select(int[] indices, int count) {
+        double[] selectedMz = new double[count];
+        double[] selectedIntensity = new double[count];
+        for (int k = 0; k < count; k++) {
+            selectedMz[k] = getMz(indices[k]);
+            selectedIntensity[k] = getIntensity(indices[k]);
+            if (k > 0 && !(selectedMz[k - 1] < selectedMz[k])) {
+                throw new IllegalArgumentException("Indices must be increasing");
+            }
+        }
+        return new PeakList(selectedMz, selectedIntensity, 0, count);
+    }
+
+    /**
+     * @return a read-only set view sorted by m/z. Peak objects are created while iterating
+     */
+    public Set<Peak> asSet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Peak> iterator() {
+                return new Iterator<>() {
+                    private int next = 0;
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < size;
+                    }
+
+                    @Override
+                    public Peak next() {
+                        if (next >= size) {
+                            throw new NoSuchElementException();
+                        }
+                        return get(next++);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                if (!(o instanceof Peak)) {
+                    return false;
+                }
+                int index = lowerBound(((Peak) o).getMz());
+                return index < size && Double.compare(mz[offset + index], ((Peak) o).getMz()) == 0; // Peaks are equal by m/z
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("PeakList[");
+        for (int i = 0; i < size; i++) {
+            sb.append(i == 0 ? "" : ", ").append(String.format("%.4f:%.1f", mz[offset + i], intensity[offset + i]));
+        }
+        return sb.append(']').toString();
+    }
+}
@@ -0,0 +1,303 @@
+package lipid;
+
+import org.drools.ruleunits.api.RuleUnitInstance;
+import org.drools.ruleunits.api.RuleUnitProvider;
+import org.drools.ruleunits.api.conf.RuleConfig;
+import org.kie.api.event.rule.AfterMatchFiredEvent;
+import org.kie.api.event.rule.BeforeMatchFiredEvent;
+import org.kie.api.event.rule.DefaultAgendaEventListener;
+import org.kie.api.event.rule.DefaultRuleRuntimeEventListener;
+import org.kie.api.event.rule.MatchCancelledEvent;
+import org.kie.api.event.rule.MatchCreatedEvent;
+import org.kie.api.event.rule.ObjectUpdatedEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects per-rule activation metrics of the lipids.drl rules through agenda and rule runtime listeners
+ * For every rule it counts the matches created and cancelled, the times it fired, the time spent in its consequence
+ * and the update() calls made by its consequence. Phreak creates the matches lazily, when the agenda next evaluates the
+ * network and not inside the consequence that caused them, so they are not attributed to the rule that fired before.
+ * Profiling is opt-in: instances created without a profiler have no listeners attached, so they pay nothing.
+ * One profiler can be shared by several instances fired from different threads
+ */
+public class RuleProfiler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RuleProfiler.class);
+
+    static final String CSV_HEADER = "rule,matchesCreated,matchesCancelled,fired,consequenceNanos,updates";
+
+    private final Map<String, Counters> counters = new ConcurrentHashMap<>();
+    private final ThreadLocal<Firing> firing = new ThreadLocal<>();
+    private final AgendaListener agendaListener = new AgendaListener();
+    private final RuntimeListener runtimeListener = new RuntimeListener();
+
+    /**
+     * Create a rule unit instance reporting its activations to this profiler
+     *
+     * @param unit to fire
+     *
+     * @return the instance, to be fired and closed by the caller
+     */
+    public RuleUnitInstance<LipidScoreUnit> createInstance(LipidScoreUnit unit) {
+        RuleUnitProvider provider = RuleUnitProvider.get();
+        RuleConfig config = provider.newRuleConfig();
+        config.getAgendaEventListeners().add(agendaListener);
+        config.getRuleRuntimeListeners().add(runtimeListener);
+        return provider.createRuleUnitInstance(unit, config);
+    }
+
+    /**
+     * Create an instance of the unit, with the listeners of the profiler if there is one
+     *
+     * @param unit to fire
+     * @param profiler null to create an instance without instrumentation
+     */
+    static RuleUnitInstance<LipidScoreUnit> createInstance(LipidScoreUnit unit, RuleProfiler profiler) {
+        return profiler == null ? RuleUnitProvider.get().createRuleUnitInstance(unit) : profiler.createInstance(unit);
+    }
+
+    /**
+     * @return the metrics of every rule seen so far, sorted by descending consequence time
+     */
+    public List<RuleMetrics> snapshot() {
+        List<RuleMetrics> metrics = new ArrayList<>(counters.size());
+        counters.forEach((rule, c) -> metrics.add(new RuleMetrics(rule, c.matchesCreated.sum(), c.matchesCancelled.sum(),
+                c.fired.sum(), c.consequenceNanos.sum(), c.updates.sum())));
+        metrics.sort(Comparator.comparingLong(RuleMetrics::getConsequenceNanos).reversed()
+                .thenComparing(RuleMetrics::getRule));
+        return metrics;
+    }
+
+    /**
+     * Forget all the metrics collected so far
+     */
+    public void reset() {
+        counters.clear();
+    }
+
+    /**
+     * Write the current snapshot as CSV, one line per rule after the header
+     */
+    public void writeCsv(Writer writer) throws IOException {
+        writer.write(CSV_HEADER);
+        writer.write('\n');
+        for (RuleMetrics m : snapshot()) {
+            writer.write(csvField(m.getRule()) + ',' + m.getMatchesCreated() + ',' + m.getMatchesCancelled() + ','
+                    + m.getFired() + ',' + m.getConsequenceNanos() + ',' + m.getUpdates());
+            writer.write('\n');
+        }
+    }
+
+    /**
+     * Write the current snapshot as CSV into a file, replacing it atomically so that readers never see a partial dump
+     */
+    public void writeCsv(Path file) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        Path tmp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+        try {
+            try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                writeCsv(writer);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Log the current snapshot at info level, one line per rule
+     */
+    public void log() {
+        if (!LOG.isInfoEnabled()) {
+            return;
+        }
+        for (RuleMetrics m : snapshot()) {
+            LOG.info("{}", m);
+        }
+    }
+
+    /**
+     * Periodically log the snapshot and, if a file is given, dump it as CSV. A failed write is logged and retried on the next dump
+     *
+     * @param scheduler running the dumps
+     * @param period between dumps
+     * @param unit of the period
+     * @param csv file replaced on every dump, or null to only log
+     *
+     * @return the scheduled dump, to cancel it
+     */
+    public ScheduledFuture<?> schedule(ScheduledExecutorService scheduler, long period, TimeUnit unit, Path csv) {
+        return scheduler.scheduleAtFixedRate(() -> {
+            log();
+            if (csv != null) {
+                try {
+                    writeCsv(csv);
+                } catch (IOException e) {
+                    LOG.warn("Cannot write rule metrics to {}: {}", csv, e.getMessage()); // Keep the next dumps scheduled
+                }
+            }
+        }, period, period, unit);
+    }
+
+    private static String csvField(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    private Counters counters(String rule) {
+        return counters.computeIfAbsent(rule, r -> new Counters());
+    }
+
+    void matchCreated(String rule) {
+        counters(rule).matchesCreated.increment();
+    }
+
+    void matchCancelled(String rule) {
+        counters(rule).matchesCancelled.increment();
+    }
+
+    void beforeFired(String rule) {
+        firing.set(new Firing(counters(rule), System.nanoTime()));
+    }
+
+    void afterFired() {
+        Firing current = firing.get();
+        if (current != null) {
+            firing.remove();
+            current.counters.fired.increment();
+            current.counters.consequenceNanos.add(System.nanoTime() - current.start);
+        }
+    }
+
+    void updated(String rule) {
+        if (rule != null) { // Null for updates made outside a consequence
+            counters(rule).updates.increment();
+        }
+    }
+
+    private final class AgendaListener extends DefaultAgendaEventListener {
+
+        @Override
+        public void matchCreated(MatchCreatedEvent event) {
+            RuleProfiler.this.matchCreated(event.getMatch().getRule().getName());
+        }
+
+        @Override
+        public void matchCancelled(MatchCancelledEvent event) {
+            RuleProfiler.this.matchCancelled(event.getMatch().getRule().getName());
+        }
+
+        @Override
+        public void beforeMatchFired(BeforeMatchFiredEvent event) {
+            beforeFired(event.getMatch().getRule().getName());
+        }
+
+        @Override
+        public void afterMatchFired(AfterMatchFiredEvent event) {
+            afterFired();
+        }
+    }
+
+    private final class RuntimeListener extends DefaultRuleRuntimeEventListener {
+
+        @Override
+        public void objectUpdated(ObjectUpdatedEvent event) {
+            updated(event.getRule() == null ? null : event.getRule().getName());
+        }
+    }
+
+    private static final class Counters {
+        private final LongAdder matchesCreated = new LongAdder();
+        private final LongAdder matchesCancelled = new LongAdder();
+        private final LongAdder fired = new LongAdder();
+        private final LongAdder consequenceNanos = new LongAdder();
+        private final LongAdder updates = new LongAdder();
+    }
+
+    private static final class Firing {
+        private final Counters counters;
+        private final long start;
+
+        private Firing(Counters counters, long start) {
+            this.counters = counters;
+            this.start = start;
+        }
+    }
+
+    /**
+     * Metrics of one rule at the time of a snapshot
+     */
+    public static final class RuleMetrics {
+        private final String rule;
+        private final long matchesCreated;
+        private final long matchesCancelled;
+        private final long fired;
+        private final long consequenceNanos;
+        private final long updates;
+
+        RuleMetrics(String rule, long matchesCreated, long matchesCancelled, long fired, long consequenceNanos,
+                    long updates) {
+            this.rule = rule;
+            this.matchesCreated = matchesCreated;
+            this.matchesCancelled = matchesCancelled;
+            this.fired = fired;
+            this.consequenceNanos = consequenceNanos;
+            this.updates = updates;
+        }
+
+        public String getRule() {
+            return rule;
+        }
+
+        public long getMatchesCreated() {
+            return matchesCreated;
+        }
+
+        public long getMatchesCancelled() {
+            return matchesCancelled;
+        }
+
+        public long getFired() {
+            return fired;
+        }
+
+        /**
+         * @return the time spent in the consequence of the rule, summed over its firings
+         */
+        public long getConsequenceNanos() {
+            return consequenceNanos;
+        }
+
+        /**
+         * @return the update() calls made by the consequence of the rule
+         */
+        public long getUpdates() {
+            return updates;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("RuleMetrics(%s, matches=%d, cancelled=%d, fired=%d, consequence=%.3f ms, updates=%d)",
+                    rule, matchesCreated, matchesCancelled, fired, consequenceNanos / 1.0e6, updates);
+        }
+    }
+}
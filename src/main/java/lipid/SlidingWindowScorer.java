@@ -0,0 +1,147 @@
+package lipid;
+
+import org.drools.ruleunits.api.DataHandle;
+import org.drools.ruleunits.api.RuleUnitInstance;
+
+import java.util.ArrayDeque;
+import java.util.function.Consumer;
+
+/**
+ * Scores annotations while they are acquired, in increasing retention time
+ * Only annotations whose RTs differ by at most windowWidth are compared: each arrival is scored against the annotations
+ * of the last windowWidth minutes with an IncrementalElutionScorer. Once an annotation is more than windowWidth older
+ * than the latest arrival no later annotation can be compared with it, so the remaining rules of the unit
+ * (e.g. adduct detection) are fired, and it is retired from the window and handed to the consumer with its final score.
+ * Memory is bounded by the annotations of one window and every annotation is emitted windowWidth minutes after its RT.
+ * With a window wider than the whole run the scores equal those of scoring all the annotations at once
+ */
+public class SlidingWindowScorer implements AutoCloseable {
+
+    private final IncrementalElutionScorer scorer;
+    private final double windowWidth;
+    private final Consumer<Annotation> finalized;
+    private final RuleProfiler profiler;
+    private final ArrayDeque<DataHandle> window = new ArrayDeque<>(); // In arrival order, so also in RT order
+    private final ArrayDeque<Annotation> annotations = new ArrayDeque<>();
+    private RuleUnitInstance<LipidScoreUnit> instance; // Created on the first firing and reused
+    private double latestRt = Double.NEGATIVE_INFINITY;
+    private boolean closed;
+
+    /**
+     * @param settings copied into the unit of the window
+     * @param windowWidth maximum RT difference, in minutes, between two annotations that are compared
+     * @param finalized receives each annotation once its score is final, in RT order
+     */
+    public SlidingWindowScorer(LipidScoreUnit settings, double windowWidth, Consumer<Annotation> finalized) {
+        this(settings, windowWidth, finalized, null);
+    }
+
+    /**
+     * @param settings copied into the unit of the window
+     * @param windowWidth maximum RT difference, in minutes, between two annotations that are compared
+     * @param finalized receives each annotation once its score is final, in RT order
+     * @param profiler collecting the activations of the rules, or null to fire without instrumentation
+     */
+    public SlidingWindowScorer(LipidScoreUnit settings, double windowWidth, Consumer<Annotation> finalized, RuleProfiler profiler) {
+        if (!(windowWidth >= 0)) {
+            throw new IllegalArgumentException("windowWidth must not be negative, got " + windowWidth);
+        }
+        this.scorer = new IncrementalElutionScorer(settings);
+        this.windowWidth = windowWidth;
+        this.finalized = finalized;
+        this.profiler = profiler;
+    }
+
+    /**
+     * Score a new annotation against the window, after emitting the annotations it pushes out of it
+     *
+     * @param annotation not scored yet, with an RT not lower than the previous arrival
+     * @throws IllegalArgumentException if the annotation arrives out of RT order
+     */
+    public void add(Annotation annotation) {
+        checkOpen();
+        double rt = annotation.getRtMin();
+        if (rt < latestRt) {
+            throw new IllegalArgumentException("Annotations must arrive in increasing RT: " + rt + " after " + latestRt);
+        }
+        advanceTo(rt);
+        window.addLast(scorer.add(annotation));
+        annotations.addLast(annotation);
+    }
+
+    /**
+     * Emit the annotations that are already final at an acquisition time, even if no annotation arrives
+     *
+     * @param rt current acquisition time, in minutes
+     */
+    public void advanceTo(double rt) {
+        checkOpen();
+        if (rt <= latestRt) {
+            return;
+        }
+        latestRt = rt;
+        double oldest = rt - windowWidth;
+        if (!annotations.isEmpty() && annotations.peekFirst().getRtMin() < oldest) {
+            fire();
+            while (!annotations.isEmpty() && annotations.peekFirst().getRtMin() < oldest) {
+                emitFirst();
+            }
+        }
+    }
+
+    /**
+     * Emit every annotation of the window, e.g. at the end of the acquisition
+     */
+    public void flush() {
+        checkOpen();
+        if (!annotations.isEmpty()) {
+            fire();
+            while (!annotations.isEmpty()) {
+                emitFirst();
+            }
+        }
+    }
+
+    /**
+     * @return the number of annotations waiting in the window
+     */
+    public int size() {
+        return annotations.size();
+    }
+
+    private void fire() {
+        if (instance == null) {
+            instance = RuleProfiler.createInstance(scorer.getUnit(), profiler);
+        }
+        instance.fire();
+    }
+
+    private void emitFirst() {
+        annotations.removeFirst();
+        finalized.accept(scorer.retire(window.removeFirst()));
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("The sliding window is closed");
+        }
+    }
+
+    /**
+     * Emit the remaining annotations and release the rule unit instance
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        try {
+            flush();
+        } finally {
+            closed = true;
+            if (instance != null) {
+                instance.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,316 @@
+package main;
+
+import database.LipidLibrary;
+import database.MappedLipidLibrary;
+import io.AnnotationSink;
+import io.BinaryAnnotationWriter;
+import io.CsvAnnotationWriter;
+import io.FeatureTableReader;
+import lipid.Annotation;
+import lipid.Lipid;
+import lipid.LipidScoreUnit;
+import lipid.LipidScorer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+
+/**
+ * Annotates many samples in one JVM, so the rules are compiled and the classes warmed up only once
+ * Every sample runs on its own virtual thread, which reads the feature table and writes the results. The CPU work
+ * (firing the rules, including adduct detection) is handed to a fixed pool of platform threads, so at most cpuThreads
+ * samples are scored at the same time, and at most maxLoadedSamples samples are held in memory.
+ * The lipid library is resolved once and its Lipid objects are shared by all the samples, as is the AdductList data
+ */
+public class BatchRunner implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BatchRunner.class);
+
+    public enum OutputFormat {
+        BINARY(".lpsc"), CSV(".csv");
+
+        private final String extension;
+
+        OutputFormat(String extension) {
+            this.extension = extension;
+        }
+    }
+
+    /**
+     * Receives the progress of the samples. Methods are called from the sample threads
+     */
+    public interface Progress {
+
+        default void started(Path sample) {
+        }
+
+        /**
+         * @param sample being processed
+         * @param rows read so far
+         */
+        default void read(Path sample, long rows) {
+        }
+
+        /**
+         * @param result of the sample, successful or not
+         * @param completed samples finished so far, including this one
+         * @param total samples of the batch
+         */
+        default void finished(SampleResult result, int completed, int total) {
+        }
+    }
+
+    /**
+     * Logs every finished sample
+     */
+    public static final Progress LOG_PROGRESS = new Progress() {
+        @Override
+        public void finished(SampleResult result, int completed, int total) {
+            if (result.isSuccessful()) {
+                LOG.info("[{}/{}] {}: {} annotations, {} rules fired in {} ms", completed, total, result.getSample(),
+                        result.getRows(), result.getRulesFired(), result.getElapsedNanos() / 1_000_000);
+            } else {
+                LOG.error("[{}/{}] {} failed: {}", completed, total, result.getSample(), result.getFailure().toString());
+            }
+        }
+    };
+
+    private final LipidScoreUnit settings;
+    private final ExecutorService cpu;
+    private final Semaphore loaded;
+    private final IntFunction<Lipid> lipids;
+    private final OutputFormat format;
+
+    /**
+     * @param settings unit whose settings are copied into the unit of every sample
+     * @param cpuThreads samples scored at the same time, e.g. the number of cores
+     * @param maxLoadedSamples samples read and held in memory at the same time (at least cpuThreads to keep the
+     *                         CPU pool busy while other samples are read or written)
+     * @param library lipids shared by all the samples, or null to build them from the rows of each table
+     * @param format of the result files
+     */
+    public BatchRunner(LipidScoreUnit settings, int cpuThreads, int maxLoadedSamples, LipidLibrary library, OutputFormat format) {
+        if (cpuThreads < 1 || maxLoadedSamples < 1) {
+            throw new IllegalArgumentException("cpuThreads and maxLoadedSamples must be at least 1, got "
+                    + cpuThreads + " and " + maxLoadedSamples);
+        }
+        this.settings = settings.emptyCopy();
+        this.cpu = Executors.newFixedThreadPool(cpuThreads);
+        this.loaded = new Semaphore(maxLoadedSamples, true);
+        this.lipids = library == null ? null : byCompoundId(library);
+        this.format = format;
+    }
+
+    private static IntFunction<Lipid> byCompoundId(LipidLibrary library) {
+        Map<Integer, Lipid> lipids = new HashMap<>(library.size() * 2);
+        for (int row = 0; row < library.size(); row++) {
+            lipids.putIfAbsent(library.getCompoundId(row), library.getLipid(row));
+        }
+        Map<Integer, Lipid> shared = Map.copyOf(lipids); // Immutable, so safe to read from every sample thread
+        return shared::get;
+    }
+
+    /**
+     * Annotate every sample, writing one result file per sample into the output directory
+     * A failing sample does not stop the others: its result holds the failure
+     *
+     * @param samples feature tables
+     * @param outputDirectory created if needed. Results are named after the tables with the extension of the format
+     * @param progress notified while the samples are processed
+     *
+     * @return the result of every sample, in the order of the samples
+     * @throws IllegalArgumentException if two samples have the same file name, so their results would overwrite each
+     *                                  other. Nothing is run then
+     */
+    public List<SampleResult> run(List<Path> samples, Path outputDirectory, Progress progress) throws IOException {
+        Map<Path, Path> outputs = new HashMap<>(samples.size() * 2);
+        for (Path sample : samples) {
+            Path previous = outputs.putIfAbsent(output(sample, outputDirectory), sample);
+            if (previous != null) {
+                throw new IllegalArgumentException("Samples " + previous + " and " + sample + " would both be written to "
+                        + output(sample, outputDirectory));
+            }
+        }
+        Files.createDirectories(outputDirectory);
+        AtomicInteger completed = new AtomicInteger();
+        List<SampleResult> results = new ArrayList<>(samples.size());
+        try (ExecutorService io = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<SampleResult>> futures = new ArrayList<>(samples.size());
+            for (Path sample : samples) {
+                futures.add(io.submit(() -> {
+                    SampleResult result = process(sample, output(sample, outputDirectory), progress);
+                    progress.finished(result, completed.incrementAndGet(), samples.size());
+                    return result;
+                }));
+            }
+            for (Future<SampleResult> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while running the batch", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("A sample thread failed", e.getCause()); // process catches its failures
+        }
+        return Collections.unmodifiableList(results);
+    }
+
+    private Path output(Path sample, Path outputDirectory) {
+        String name = sample.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return outputDirectory.resolve((dot > 0 ? name.substring(0, dot) : name) + format.extension);
+    }
+
+    private SampleResult process(Path sample, Path output, Progress progress) {
+        long start = System.nanoTime();
+        try {
+            loaded.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new SampleResult(sample, output, 0, 0, System.nanoTime() - start, e);
+        }
+        try {
+            progress.started(sample);
+            LipidScoreUnit unit = settings.emptyCopy();
+            List<Annotation> annotations = new ArrayList<>();
+            try (FeatureTableReader reader = FeatureTableReader.open(sample, lipids)) {
+                List<Annotation> chunk;
+                while (!(chunk = reader.nextChunk(FeatureTableReader.DEFAULT_CHUNK_SIZE)).isEmpty()) {
+                    annotations.addAll(chunk);
+                    progress.read(sample, annotations.size());
+                }
+            }
+            for (Annotation annotation : annotations) {
+                unit.getAnnotations().add(annotation);
+            }
+            int fired = cpu.submit(() -> LipidScorer.fire(unit)).get(); // The virtual thread waits without a carrier
+            try (AnnotationSink sink = format == OutputFormat.CSV ? CsvAnnotationWriter.create(output)
+                    : BinaryAnnotationWriter.create(output, true)) {
+                sink.writeAll(annotations);
+            }
+            return new SampleResult(sample, output, annotations.size(), fired, System.nanoTime() - start, null);
+        } catch (ExecutionException e) {
+            return new SampleResult(sample, output, 0, 0, System.nanoTime() - start, e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new SampleResult(sample, output, 0, 0, System.nanoTime() - start, e);
+        } catch (IOException | RuntimeException e) {
+            return new SampleResult(sample, output, 0, 0, System.nanoTime() - start, e);
+        } finally {
+            loaded.release();
+        }
+    }
+
+    /**
+     * Stop the CPU pool. Batches still running are not interrupted
+     */
+    @Override
+    public void close() {
+        cpu.shutdown();
+    }
+
+    /**
+     * Outcome of one sample
+     */
+    public static final class SampleResult {
+        private final Path sample;
+        private final Path output;
+        private final long rows;
+        private final int rulesFired;
+        private final long elapsedNanos;
+        private final Throwable failure;
+
+        SampleResult(Path sample, Path output, long rows, int rulesFired, long elapsedNanos, Throwable failure) {
+            this.sample = sample;
+            this.output = output;
+            this.rows = rows;
+            this.rulesFired = rulesFired;
+            this.elapsedNanos = elapsedNanos;
+            this.failure = failure;
+        }
+
+        public Path getSample() {
+            return sample;
+        }
+
+        public Path getOutput() {
+            return output;
+        }
+
+        public long getRows() {
+            return rows;
+        }
+
+        public int getRulesFired() {
+            return rulesFired;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        /**
+         * @return the exception that stopped the sample, or null if it was annotated
+         */
+        public Throwable getFailure() {
+            return failure;
+        }
+
+        public boolean isSuccessful() {
+            return failure == null;
+        }
+    }
+
+    /**
+     * Usage: BatchRunner [--csv] [--library lipids.bin] outputDirectory sample...
+     */
+    public static void main(String[] args) throws IOException {
+        OutputFormat format = OutputFormat.BINARY;
+        Path libraryFile = null;
+        int next = 0;
+        while (next < args.length && args[next].startsWith("--")) {
+            if (args[next].equals("--csv")) {
+                format = OutputFormat.CSV;
+            } else if (args[next].equals("--library") && next + 1 < args.length) {
+                libraryFile = Path.of(args[++next]);
+            } else {
+                throw new IllegalArgumentException("Unknown option " + args[next]);
+            }
+            next++;
+        }
+        if (args.length - next < 2) {
+            System.err.println("Usage: BatchRunner [--csv] [--library lipids.bin] outputDirectory sample...");
+            System.exit(2);
+        }
+        Path outputDirectory = Path.of(args[next++]);
+        List<Path> samples = new ArrayList<>();
+        while (next < args.length) {
+            samples.add(Path.of(args[next++]));
+        }
+        int cores = Runtime.getRuntime().availableProcessors();
+        MappedLipidLibrary library = libraryFile == null ? null : MappedLipidLibrary.open(libraryFile);
+        try (BatchRunner runner = new BatchRunner(new LipidScoreUnit(), cores, 2 * cores, library, format)) {
+            List<SampleResult> results = runner.run(samples, outputDirectory, LOG_PROGRESS);
+            long failed = results.stream().filter(result -> !result.isSuccessful()).count();
+            System.out.println("Annotated " + (results.size() - failed) + " of " + results.size() + " samples");
+        } finally {
+            if (library != null) {
+                library.close();
+            }
+        }
+    }
+}
@@ -1,14 +1,28 @@
 package main;
 
+import io.AnnotationSink;
+import io.BinaryAnnotationWriter;
+import io.CsvAnnotationWriter;
+import io.FeatureTableReader;
 import lipid.*;
 import org.drools.ruleunits.api.RuleUnitInstance;
 import org.drools.ruleunits.api.RuleUnitProvider;
-import java.util.List;
+
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.Set;
 
 public class Main {
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
+        if (args.length > 0) {
+            if (args.length != 2) {
+                System.err.println("Usage: Main [featureTable output.lpsc|output.csv]");
+                System.exit(2);
+            }
+            scoreFeatureTable(Path.of(args[0]), Path.of(args[1]));
+            return;
+        }
         LipidScoreUnit lipidScoreUnit = new LipidScoreUnit(); // Creation of the Rule Unit container
         // Build Annotation instances with grouped Peaks
         Peak mH = new Peak (700.500, 100000.0); // [M+H]+
@@ -27,4 +41,29 @@ public class Main {
             instance.close(); // To clean up memory/resources
         }
     }
+
+    /**
+     * Score a whole feature table, so every annotation is compared with all the others whatever the chunk size or the
+     * order of the file. The chunks read ahead are copied into an OffHeapAnnotationStore, so the heap does not grow with
+     * the size of the file, and the rows are scored in place with native adduct detection and elution scoring (each pair
+     * scored once, see ElutionOrderScorer)
+     *
+     * @param file feature table
+     * @param output result file, written as CSV if its name ends with .csv and as a compressed binary file otherwise
+     */
+    private static void scoreFeatureTable(Path file, Path output) throws IOException {
+        LipidScoreUnit settings = new LipidScoreUnit();
+        settings.setNativeAdductDetectionEnabled(true);
+        settings.setNativeElutionScoringEnabled(true);
+        try (OffHeapAnnotationStore store = OffHeapAnnotationStore.allocate()) {
+            FeatureTableReader.feed(file, FeatureTableReader.DEFAULT_CHUNK_SIZE, FeatureTableReader.DEFAULT_QUEUED_CHUNKS,
+                    chunk -> chunk.forEach(store::add));
+            store.score(settings);
+            try (AnnotationSink sink = output.getFileName().toString().endsWith(".csv") ? CsvAnnotationWriter.create(output)
+                    : BinaryAnnotationWriter.create(output, true)) {
+                sink.writeAll(store);
+            }
+            System.out.println("Scored " + store.size() + " annotations from " + file + " into " + output);
+        }
+    }
 }
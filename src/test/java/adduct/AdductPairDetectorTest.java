@@ -0,0 +1,130 @@
+package adduct;
+
+import lipid.Annotation;
+import lipid.IoniationMode;
+import lipid.Lipid;
+import lipid.LipidType;
+import lipid.Peak;
+import lipid.PeakList;
+import org.junit.Test;
+
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class AdductPairDetectorTest {
+
+    private final AdductPairDetector detector = new AdductPairDetector(10);
+
+    @Test
+    public void expectedMzShouldMatchTheConversionThroughTheNeutralMass() {
+        double mass = 699.4927;
+        for (AdductDescriptor from : AdductRegistry.all()) {
+            double mz = Adduct.getMZFromMonoisotopicMass(mass, from);
+            for (AdductDescriptor to : AdductRegistry.all()) {
+                assertEquals(from + " -> " + to, Adduct.getMZFromMonoisotopicMass(mass, to),
+                        AdductPairDetector.expectedMz(from, mz, to), 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void shouldDetectProtonatedFromSodium() {
+        PeakList peaks = PeakList.of(new double[]{885.79056, 907.77306}, new double[]{1.0e6, 0.8e6});
+        AdductPairDetector.Assignment assignment = detector.detect(peaks, IoniationMode.POSITIVE, 885.79056);
+        assertNotNull(assignment);
+        assertEquals("[M+H]+", assignment.getAdduct().getName());
+        assertEquals(0, assignment.getPeakIndex());
+        assertEquals(1, assignment.getSupport());
+        assertEquals("[M+Na]+", assignment.getDetectedAdducts().get(0).getName());
+    }
+
+    @Test
+    public void shouldDetectSodiumFromProtonated() {
+        PeakList peaks = PeakList.of(new double[]{885.79056, 907.77306}, new double[]{1.0e6, 0.8e6});
+        AdductPairDetector.Assignment assignment = detector.detect(peaks, IoniationMode.POSITIVE, 907.77306);
+        assertNotNull(assignment);
+        assertEquals("[M+Na]+", assignment.getAdduct().getName());
+        assertEquals(1L << AdductRegistry.get("[M+H]+").getId(), assignment.getDetectedMask());
+    }
+
+    @Test
+    public void shouldDetectDoubleCharge() {
+        PeakList peaks = PeakList.of(new double[]{457.41465, 913.8220}, new double[]{0.5e5, 1.0e5});
+        AdductPairDetector.Assignment assignment = detector.detect(peaks, IoniationMode.POSITIVE, 913.8220);
+        assertNotNull(assignment);
+        assertEquals("[M+H]+", assignment.getAdduct().getName());
+        assertEquals("[M+2H]2+", assignment.getDetectedAdducts().get(0).getName());
+    }
+
+    @Test
+    public void shouldPreferTheAdductWithMoreSupport() {
+        // M = 699.4927 observed as [M+H]+, [M+Na]+ and [M+K]+
+        double mass = 699.4927;
+        PeakList peaks = PeakList.of(new double[]{
+                Adduct.getMZFromMonoisotopicMass(mass, AdductRegistry.get("[M+H]+")),
+                Adduct.getMZFromMonoisotopicMass(mass, AdductRegistry.get("[M+Na]+")),
+                Adduct.getMZFromMonoisotopicMass(mass, AdductRegistry.get("[M+K]+"))}, new double[]{1e6, 5e5, 1e5});
+        AdductPairDetector.Assignment assignment = detector.detect(peaks, IoniationMode.POSITIVE);
+        assertNotNull(assignment);
+        assertEquals(2, assignment.getSupport());
+        assertEquals("[M+H]+", assignment.getAdduct().getName()); // All three have support 2, [M+H]+ is the most intense peak
+    }
+
+    @Test
+    public void shouldDetectNegativeModeAdducts() {
+        double mass = 699.4927;
+        PeakList peaks = PeakList.of(new double[]{
+                Adduct.getMZFromMonoisotopicMass(mass, AdductRegistry.get("[M-H]−")),
+                Adduct.getMZFromMonoisotopicMass(mass, AdductRegistry.get("[M+Cl]−"))}, new double[]{1e6, 5e5});
+        AdductPairDetector.Assignment assignment = detector.detect(peaks, IoniationMode.NEGATIVE, peaks.getMz(1));
+        assertNotNull(assignment);
+        assertEquals("[M+Cl]−", assignment.getAdduct().getName());
+        assertNull(detector.detect(peaks, IoniationMode.POSITIVE, peaks.getMz(1)));
+    }
+
+    @Test
+    public void shouldReturnNullWithoutRelatedPeaks() {
+        PeakList peaks = PeakList.of(new double[]{700.5, 750.1}, new double[]{1e6, 5e5});
+        assertNull(detector.detect(peaks, IoniationMode.POSITIVE, 700.5));
+        assertNull(detector.detect(PeakList.empty(), IoniationMode.POSITIVE));
+    }
+
+    @Test
+    public void annotationShouldUseTheDetector() {
+        Lipid lipid = new Lipid(1, "PC 34:1", "C42H82NO8P", LipidType.PC, 34, 1);
+        Annotation annotation = new Annotation(lipid, 907.77306, 0.8e6, 10d, IoniationMode.POSITIVE,
+                Set.of(new Peak(885.79056, 1.0e6), new Peak(907.77306, 0.8e6)));
+        annotation.detectAdductFromPeaks();
+        assertEquals("[M+Na]+", annotation.getAdduct());
+        assertTrue(annotation.getDetectedAdducts().contains("[M+H]+"));
+        assertSame(AdductRegistry.get("[M+Na]+"), annotation.getAdductDescriptor());
+        assertEquals(AdductRegistry.get("[M+H]+").getMask(), annotation.getDetectedAdductMask());
+        assertTrue(annotation.hasDetectedAdduct(AdductRegistry.get("[M+H]+")));
+
+        Annotation alone = new Annotation(lipid, 760.5851, 1e6, 10d, IoniationMode.POSITIVE, Set.of(new Peak(760.5851, 1e6)));
+        alone.detectAdductFromPeaks();
+        assertEquals("[M+H]+", alone.getAdduct());
+        assertEquals(0, alone.getDetectedAdductMask());
+    }
+
+    @Test
+    public void annotationShouldStoreCanonicalAdduct() {
+        Annotation annotation = new Annotation(new Lipid(1, "PC 34:1", "C42H82NO8P", LipidType.PC, 34, 1), 758.5694,
+                1e6, 10d, IoniationMode.NEGATIVE);
+        annotation.setAdduct("[M-H]-"); // ASCII hyphen
+        assertEquals("[M-H]−", annotation.getAdduct());
+        annotation.setAdduct((String) null);
+        assertNull(annotation.getAdduct());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void annotationShouldRejectUnknownAdduct() {
+        new Annotation(new Lipid(1, "PC 34:1", "C42H82NO8P", LipidType.PC, 34, 1), 758.5694, 1e6, 10d,
+                IoniationMode.POSITIVE).setAdduct("[M+X]+");
+    }
+}
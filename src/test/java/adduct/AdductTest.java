@@ -0,0 +1,132 @@
+package adduct;
+
+import lipid.IoniationMode;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class AdductTest {
+
+    @Test
+    public void shouldCalculateMonoisotopicMassFromMzWithProton() {
+        // [M+H]+ of a neutral mass 699.4927 is observed at 700.500
+        assertEquals(699.4927, Adduct.getMonoisotopicMassFromMZ(700.500, "[M+H]+"), 0.0005);
+    }
+
+    @Test
+    public void shouldCalculateMonoisotopicMassFromMzWithDoubleCharge() {
+        // [M+2H]2+ = (M + 2 x 1.007276) / 2
+        assertEquals(699.4927, Adduct.getMonoisotopicMassFromMZ(350.7536, "[M+2H]2+"), 0.0005);
+    }
+
+    @Test
+    public void shouldCalculateMonoisotopicMassFromMzWithDimer() {
+        // [2M+H]+ = 2M + 1.007276
+        assertEquals(699.4927, Adduct.getMonoisotopicMassFromMZ(1399.9927, "[2M+H]+"), 0.0005);
+    }
+
+    @Test
+    public void shouldCalculateMonoisotopicMassFromMzInNegativeMode() {
+        assertEquals(699.4927, Adduct.getMonoisotopicMassFromMZ(698.4854, "[M-H]−"), 0.0005);
+    }
+
+    @Test
+    public void shouldCalculateMzFromMonoisotopicMass() {
+        assertEquals(700.500, Adduct.getMZFromMonoisotopicMass(699.4927, "[M+H]+"), 0.0005);
+        assertEquals(722.4819, Adduct.getMZFromMonoisotopicMass(699.4927, "[M+Na]+"), 0.0005);
+        assertEquals(350.7536, Adduct.getMZFromMonoisotopicMass(699.4927, "[M+2H]2+"), 0.0005);
+    }
+
+    @Test
+    public void shouldReturnNullForUnknownAdduct() {
+        assertNull(Adduct.getMonoisotopicMassFromMZ(700.500, "[M+Xx]+"));
+        assertNull(Adduct.getMZFromMonoisotopicMass(699.4927, (String) null));
+    }
+
+    @Test
+    public void shouldCalculateMzOfMultimersAndMultiplyChargedAdducts() {
+        // [M+H+NH4]2+ = (M + 1.007276 + 18.033823) / 2
+        assertEquals(359.266900, Adduct.getMZFromMonoisotopicMass(699.4927, AdductRegistry.get("[M+H+NH4]2+")), 0.00001);
+        // [2M+Na]+ = 2M + 22.989218
+        assertEquals(1421.974618, Adduct.getMZFromMonoisotopicMass(699.4927, AdductRegistry.get("[2M+Na]+")), 0.00001);
+        // [2M-H]− = 2M - 1.007276
+        assertEquals(1397.978124, Adduct.getMZFromMonoisotopicMass(699.4927, AdductRegistry.get("[2M-H]−")), 0.00001);
+        // [M-2H]2− = (M - 2 x 1.007276) / 2
+        assertEquals(348.739074, Adduct.getMZFromMonoisotopicMass(699.4927, AdductRegistry.get("[M-2H]2−")), 0.00001);
+        // [M+Cl]− = M + 34.969402
+        assertEquals(734.462102, Adduct.getMZFromMonoisotopicMass(699.4927, AdductRegistry.get("[M+Cl]−")), 0.00001);
+    }
+
+    @Test
+    public void shouldCalculateMonoisotopicMassOfMultimersAndMultiplyChargedAdducts() {
+        assertEquals(699.4927, Adduct.getMonoisotopicMassFromMZ(359.266900, AdductRegistry.get("[M+H+NH4]2+")), 0.00001);
+        assertEquals(699.4927, Adduct.getMonoisotopicMassFromMZ(1421.974618, AdductRegistry.get("[2M+Na]+")), 0.00001);
+        assertEquals(699.4927, Adduct.getMonoisotopicMassFromMZ(1397.978124, AdductRegistry.get("[2M-H]−")), 0.00001);
+        assertEquals(699.4927, Adduct.getMonoisotopicMassFromMZ(348.739074, AdductRegistry.get("[M-2H]2−")), 0.00001);
+        assertEquals(699.4927, Adduct.getMonoisotopicMassFromMZ(734.462102, AdductRegistry.get("[M+Cl]−")), 0.00001);
+    }
+
+    @Test
+    public void shouldParseDescriptors() {
+        AdductDescriptor dimer = AdductRegistry.get("[2M+Na]+");
+        assertNotNull(dimer);
+        assertEquals(2, dimer.getMultimer());
+        assertEquals(1, dimer.getCharge());
+        AdductDescriptor doubleCharge = AdductRegistry.get("[M-2H]2−");
+        assertEquals(1, doubleCharge.getMultimer());
+        assertEquals(2, doubleCharge.getCharge());
+        assertEquals(IoniationMode.NEGATIVE, doubleCharge.getPolarity());
+        assertEquals(IoniationMode.POSITIVE, AdductRegistry.get("[M+H-H2O]+").getPolarity());
+        assertEquals(doubleCharge, AdductRegistry.get(doubleCharge.getId()));
+    }
+
+    @Test
+    public void shouldFindNegativeAdductsWithAsciiHyphen() {
+        assertSame(AdductRegistry.get("[M-H]−"), AdductRegistry.get("[M-H]-"));
+        assertSame(AdductRegistry.get("[M-2H]2−"), AdductRegistry.get("[M-2H]2-"));
+        assertEquals("[M-H-H2O]−", AdductRegistry.canonicalName("[M-H-H2O]-"));
+        assertEquals("[M+H]+", AdductRegistry.canonicalName("[M+H]+"));
+        assertNull(AdductRegistry.get("[M+H]-"));
+    }
+
+    @Test
+    public void masksShouldRoundTrip() {
+        assertTrue(AdductRegistry.size() <= Long.SIZE);
+        long mask = 0;
+        for (AdductDescriptor descriptor : AdductRegistry.all()) {
+            assertEquals(1L << descriptor.getId(), descriptor.getMask());
+            mask |= descriptor.getMask();
+        }
+        assertEquals(AdductRegistry.all(), AdductRegistry.fromMask(mask));
+        AdductDescriptor na = AdductRegistry.get("[M+Na]+");
+        AdductDescriptor cl = AdductRegistry.get("[M+Cl]−");
+        assertEquals(List.of(na, cl), AdductRegistry.fromMask(cl.getMask() | na.getMask()));
+        assertTrue(AdductRegistry.fromMask(0).isEmpty());
+    }
+
+    @Test
+    public void bulkConversionShouldMatchScalarPathBitForBit() {
+        double[] mz = new double[1031]; // Not a multiple of any vector width
+        for (int i = 0; i < mz.length; i++) {
+            mz[i] = 200 + i * 0.731;
+        }
+        double[][] masses = new double[AdductRegistry.size()][mz.length];
+        double[][] backToMz = new double[AdductRegistry.size()][mz.length];
+        MassTransformation.mzToMonoisotopicMass(mz, AdductRegistry.all(), masses);
+        for (AdductDescriptor descriptor : AdductRegistry.all()) {
+            MassTransformation.monoisotopicMassToMz(masses[descriptor.getId()], descriptor, backToMz[descriptor.getId()]);
+            for (int i = 0; i < mz.length; i++) {
+                double mass = Adduct.getMonoisotopicMassFromMZ(mz[i], descriptor);
+                assertEquals(Double.doubleToRawLongBits(mass), Double.doubleToRawLongBits(masses[descriptor.getId()][i]));
+                assertEquals(Double.doubleToRawLongBits(Adduct.getMZFromMonoisotopicMass(mass, descriptor)),
+                        Double.doubleToRawLongBits(backToMz[descriptor.getId()][i]));
+            }
+        }
+    }
+}
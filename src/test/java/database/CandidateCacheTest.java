@@ -0,0 +1,83 @@
+package database;
+
+import adduct.AdductDescriptor;
+import adduct.AdductRegistry;
+import lipid.IoniationMode;
+import lipid.Lipid;
+import lipid.LipidType;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CandidateCacheTest {
+
+    private static CompoundIndex randomIndex(Random random, int size) {
+        List<Lipid> lipids = new ArrayList<>();
+        double[] masses = new double[size];
+        for (int i = 0; i < size; i++) {
+            lipids.add(new Lipid(i, "L" + i, "", LipidType.TG, 50, 2));
+            masses[i] = 600 + random.nextDouble() * 400;
+        }
+        return new CompoundIndex(lipids, masses);
+    }
+
+    @Test
+    public void hitsShouldReturnSameCandidatesAsIndex() {
+        Random random = new Random(5);
+        CompoundIndex index = randomIndex(random, 20_000);
+        CandidateCache cache = new CandidateCache(index, 16_384);
+        List<AdductDescriptor> adducts = AdductRegistry.forMode(IoniationMode.POSITIVE);
+        double[] features = new double[200];
+        for (int i = 0; i < features.length; i++) {
+            features[i] = 600 + random.nextDouble() * 400;
+        }
+        for (int round = 0; round < 5; round++) {
+            for (double feature : features) {
+                double mz = feature + (random.nextDouble() - 0.5) * 0.0004; // Recurs within a ppm
+                int ppm = 5 + random.nextInt(2) * 5;
+                assertEquals(index.findCandidates(mz, adducts, ppm), cache.findCandidates(mz, adducts, ppm));
+                AdductDescriptor adduct = adducts.get(random.nextInt(adducts.size()));
+                assertEquals(index.findCandidates(mz, List.of(adduct), ppm), cache.findCandidates(mz, adduct, ppm));
+            }
+        }
+        CandidateCache.Stats stats = cache.stats();
+        assertTrue(stats.toString(), stats.getHitRate() > 0.5);
+        assertEquals(0, stats.getEvictions());
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsedEntries() {
+        CompoundIndex index = randomIndex(new Random(9), 1000);
+        CandidateCache cache = new CandidateCache(index, 16);
+        AdductDescriptor mh = AdductRegistry.get("[M+H]+");
+        for (int i = 0; i < 1000; i++) {
+            cache.findCandidates(700 + i * 0.01, mh, 10);
+        }
+        assertTrue(cache.size() <= 16);
+        assertEquals(1000, cache.stats().getMisses());
+        assertEquals(1000 - cache.size(), cache.stats().getEvictions());
+    }
+
+    @Test
+    public void exactBucketEdgesShouldMatchIndex() {
+        Lipid tg543 = new Lipid(1, "TG 54:3", "C57H104O6", LipidType.TG, 54, 3);
+        Lipid tg544 = new Lipid(2, "TG 54:4", "C57H102O6", LipidType.TG, 54, 4);
+        CompoundIndex index = new CompoundIndex(List.of(tg543, tg544), new double[]{884.78329, 882.76764});
+        CandidateCache cache = new CandidateCache(index, 16, 0.01);
+        AdductDescriptor mh = AdductRegistry.get("[M+H]+");
+        for (double mz = 885.70; mz < 885.90; mz += 0.0005) {
+            assertEquals("m/z " + mz, index.findCandidates(mz, List.of(mh), 10), cache.findCandidates(mz, mh, 10));
+        }
+        assertEquals(List.of(tg543), cache.findCandidates(885.79056, mh, 10));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectTooSmallCache() {
+        new CandidateCache(new CompoundIndex(List.of()), 1);
+    }
+}
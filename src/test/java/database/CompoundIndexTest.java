@@ -0,0 +1,67 @@
+package database;
+
+import adduct.AdductDescriptor;
+import adduct.AdductRegistry;
+import lipid.Lipid;
+import lipid.LipidType;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CompoundIndexTest {
+
+    private Lipid tg543;
+    private Lipid tg544;
+    private Lipid pc341;
+    private CompoundIndex index;
+
+    @Before
+    public void setup() {
+        tg543 = new Lipid(1, "TG 54:3", "C57H104O6", LipidType.TG, 54, 3);
+        tg544 = new Lipid(2, "TG 54:4", "C57H102O6", LipidType.TG, 54, 4);
+        pc341 = new Lipid(3, "PC 34:1", "C42H82NO8P", LipidType.PC, 34, 1);
+        // Not sorted on purpose
+        index = new CompoundIndex(List.of(tg543, pc341, tg544), new double[]{884.78329, 759.57780, 882.76764});
+    }
+
+    @Test
+    public void shouldSortByMass() {
+        assertEquals(3, index.size());
+        assertEquals(pc341, index.getLipid(0));
+        assertEquals(tg544, index.getLipid(1));
+        assertEquals(tg543, index.getLipid(2));
+        assertEquals(1, index.getCompoundId(2));
+        assertEquals(1, index.lowerBound(800));
+        assertEquals(3, index.upperBound(884.78329));
+    }
+
+    @Test
+    public void shouldFindCandidatesWithinPpm() {
+        List<Lipid> candidates = index.findByMass(884.7840, 5);
+        assertEquals(List.of(tg543), candidates);
+        assertTrue(index.findByMass(884.7900, 5).isEmpty());
+    }
+
+    @Test
+    public void shouldFindCandidatesFromMzAndAdducts() {
+        List<AdductDescriptor> adducts = List.of(AdductRegistry.get("[M+H]+"), AdductRegistry.get("[M+Na]+"));
+        // [M+H]+ of TG 54:3 and [M+Na]+ of PC 34:1
+        assertEquals(List.of(tg543), index.findCandidates(885.79057, adducts, 5));
+        assertEquals(List.of(pc341), index.findCandidates(782.56702, adducts, 5));
+    }
+
+    @Test
+    public void bulkQueryShouldMatchSingleQueries() {
+        List<AdductDescriptor> adducts = List.of(AdductRegistry.get("[M+H]+"), AdductRegistry.get("[M+Na]+"));
+        double[] sortedMz = {700.0, 760.58508, 782.56702, 883.77492, 885.79057, 905.7};
+        List<List<Lipid>> bulk = index.findCandidates(sortedMz, adducts, 10);
+        for (int i = 0; i < sortedMz.length; i++) {
+            assertEquals(index.findCandidates(sortedMz[i], adducts, 10), bulk.get(i));
+        }
+        assertEquals(List.of(tg544), bulk.get(3));
+    }
+}
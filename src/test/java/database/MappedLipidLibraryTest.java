@@ -0,0 +1,69 @@
+package database;
+
+import lipid.Lipid;
+import lipid.LipidType;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MappedLipidLibraryTest {
+
+    @Test
+    public void shouldConvertCsvAndReadItMapped() throws IOException {
+        Path directory = Files.createTempDirectory("lipid-library");
+        Path csv = directory.resolve("lipids.csv");
+        Path file = directory.resolve("lipids.bin");
+        Files.writeString(csv, String.join("\n",
+                "compoundId,name,formula,lipidType,carbons,doubleBonds,mass",
+                "1,TG 54:3,C57H104O6,TG,54,3,884.78329",
+                "3,PC 34:1,C42H82NO8P,PC,34,1,759.57780",
+                "2,TG 54:4,C57H102O6,TG,54,4,882.76764",
+                ""), StandardCharsets.UTF_8);
+        try {
+            LipidLibraryWriter.convertCsv(csv, file);
+            try (MappedLipidLibrary library = MappedLipidLibrary.open(file)) {
+                assertEquals(3, library.size());
+                // Records are sorted by mass
+                assertEquals(3, library.getCompoundId(0));
+                assertEquals(LipidType.PC, library.getLipidType(0));
+                assertEquals(34, library.getCarbons(0));
+                assertEquals(1, library.getDoubleBonds(0));
+                assertEquals(759.57780, library.getMonoisotopicMass(0), 0.0);
+                Lipid lipid = library.getLipid(2);
+                assertEquals(1, lipid.getCompoundId());
+                assertEquals("TG 54:3", lipid.getName());
+                assertEquals("C57H104O6", lipid.getFormula());
+                assertEquals(LipidType.TG, lipid.getLipidType());
+
+                CompoundIndex index = new CompoundIndex(library);
+                assertEquals(List.of(lipid), index.findByMass(884.7840, 5));
+            }
+        } finally {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(csv);
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    @Test
+    public void shouldRejectFilesThatAreNotLibraries() throws IOException {
+        Path file = Files.createTempFile("not-a-library", ".bin");
+        try {
+            Files.write(file, new byte[64]);
+            MappedLipidLibrary.open(file);
+            fail("A file of zeros should not be accepted");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("not a lipid library"));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package io;
+
+import adduct.AdductRegistry;
+import lipid.Annotation;
+import lipid.AnnotationTable;
+import lipid.IoniationMode;
+import lipid.Lipid;
+import lipid.LipidType;
+import lipid.Peak;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AnnotationWriterTest {
+
+    private static Annotation detected() {
+        Lipid lipid = new Lipid(1, "PC 34:1", "C42H82NO8P", LipidType.PC, 34, 1);
+        Annotation annotation = new Annotation(lipid, 700.49999, 80000.0, 6.5d, IoniationMode.POSITIVE,
+                Set.of(new Peak(700.500, 100000.0), new Peak(722.482, 80000.0)));
+        annotation.detectAdductFromPeaks();
+        annotation.addScore(1);
+        annotation.addScore(0);
+        annotation.addScore(0);
+        return annotation;
+    }
+
+    private static List<Annotation> rows(int count) {
+        List<Annotation> rows = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Annotation annotation = new Annotation(new Lipid(i, "TG " + i, "", LipidType.TG, 50, i % 4),
+                    800 + i * 0.001, 1000, i * 0.01, IoniationMode.POSITIVE);
+            annotation.addScore(i % 3 - 1);
+            rows.add(annotation);
+        }
+        return rows;
+    }
+
+    @Test
+    public void shouldReadBackBinaryColumns() throws IOException {
+        for (boolean compress : new boolean[]{false, true}) {
+            Path file = Files.createTempFile("annotations", ".bin");
+            try {
+                List<Annotation> rows = rows(40_000); // More than one block
+                try (BinaryAnnotationWriter writer = BinaryAnnotationWriter.create(file, compress)) {
+                    writer.write(detected());
+                    writer.writeAll(rows);
+                }
+                try (BinaryAnnotationReader reader = BinaryAnnotationReader.open(file)) {
+                    assertEquals(AdductRegistry.size(), reader.getAdducts().size());
+                    assertTrue(reader.next());
+                    assertEquals(1, reader.getLipidId());
+                    assertEquals("[M+H]+", reader.getAdduct());
+                    assertEquals(1L << AdductRegistry.get("[M+Na]+").getId(), reader.getDetectedMask());
+                    assertEquals(1, reader.getScore());
+                    assertEquals(3, reader.getTotalScoresApplied());
+                    assertEquals(1 / 3.0, reader.getNormalizedScore(), 0.0);
+                    for (Annotation expected : rows) {
+                        assertTrue(reader.next());
+                        assertEquals(expected.getLipid().getCompoundId(), reader.getLipidId());
+                        assertEquals(expected.getMz(), reader.getMz(), 0.0);
+                        assertEquals(expected.getRtMin(), reader.getRtMin(), 0.0);
+                        assertEquals(expected.getScore(), reader.getScore());
+                        assertEquals(1, reader.getTotalScoresApplied());
+                        assertEquals(-1, reader.getAdductId());
+                        assertNull(reader.getAdduct());
+                        assertEquals(0, reader.getDetectedMask());
+                    }
+                    assertFalse(reader.next());
+                }
+            } finally {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    @Test
+    public void shouldWriteCsvRows() throws IOException {
+        Path file = Files.createTempFile("annotations", ".csv");
+        try {
+            try (CsvAnnotationWriter writer = CsvAnnotationWriter.create(file)) {
+                writer.write(detected());
+                writer.writeAll(rows(3));
+            }
+            List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+            assertEquals(CsvAnnotationWriter.HEADER, lines.get(0));
+            assertEquals("1,700.49999,6.500,[M+H]+,[M+Na]+,1,3,0.3333", lines.get(1));
+            assertEquals("0,800.00000,0.000,,,-1,1,-1.0000", lines.get(2));
+            assertEquals("2,800.00200,0.020,,,1,1,1.0000", lines.get(4));
+            assertEquals(5, lines.size());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void tablesShouldBeWrittenAsTheirAnnotations() throws IOException {
+        AnnotationTable table = new AnnotationTable();
+        table.add(detected());
+        for (Annotation annotation : rows(20_000)) {
+            table.add(annotation);
+        }
+        Path fromTable = Files.createTempFile("table", ".csv");
+        Path fromViews = Files.createTempFile("views", ".csv");
+        Path binaryTable = Files.createTempFile("table", ".bin");
+        Path binaryViews = Files.createTempFile("views", ".bin");
+        try {
+            try (CsvAnnotationWriter writer = CsvAnnotationWriter.create(fromTable)) {
+                writer.writeAll(table);
+            }
+            try (CsvAnnotationWriter writer = CsvAnnotationWriter.create(fromViews)) {
+                for (int row = 0; row < table.size(); row++) {
+                    writer.write(table.view(row));
+                }
+            }
+            assertEquals(Files.readAllLines(fromViews, StandardCharsets.UTF_8),
+                    Files.readAllLines(fromTable, StandardCharsets.UTF_8));
+            assertEquals("1,700.49999,6.500,[M+H]+,[M+Na]+,1,3,0.3333",
+                    Files.readAllLines(fromTable, StandardCharsets.UTF_8).get(1));
+
+            try (BinaryAnnotationWriter writer = BinaryAnnotationWriter.create(binaryTable, true)) {
+                writer.writeAll(table);
+            }
+            try (BinaryAnnotationWriter writer = BinaryAnnotationWriter.create(binaryViews, true)) {
+                for (int row = 0; row < table.size(); row++) {
+                    writer.write(table.view(row));
+                }
+            }
+            assertTrue(Arrays.equals(Files.readAllBytes(binaryViews), Files.readAllBytes(binaryTable)));
+        } finally {
+            Files.deleteIfExists(fromTable);
+            Files.deleteIfExists(fromViews);
+            Files.deleteIfExists(binaryTable);
+            Files.deleteIfExists(binaryViews);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectUnknownAdduct() throws IOException {
+        Annotation annotation = rows(1).get(0);
+        annotation.setAdduct("[M+X]+");
+        Path file = Files.createTempFile("annotations", ".csv");
+        try (CsvAnnotationWriter writer = CsvAnnotationWriter.create(file)) {
+            writer.write(annotation);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package io;
+
+import lipid.Annotation;
+import lipid.IoniationMode;
+import lipid.LipidType;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FeatureTableReaderTest {
+
+    private static FeatureTableReader reader(String text) {
+        return new FeatureTableReader(Channels.newChannel(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8))), "test");
+    }
+
+    @Test
+    public void shouldReadRowsInRetentionTimeChunks() throws IOException {
+        String table = "mz,rtMin,intensity,ionizationMode,compoundId,name,formula,lipidType,carbons,doubleBonds,peaks\r\n"
+                + "700.5,6.5,80000,POSITIVE,1,PC 34:1,C42H82NO8P,PC,34,1,700.5:100000;722.482:80000\r\n"
+                + "\r\n"
+                + "885.79056,10,1.0e6,POSITIVE,2,TG 54:3,C57H104O6,TG,54,3,\r\n"
+                + "701.5, 4.25 ,9000,POSITIVE,1,PC 34:1,C42H82NO8P,PC,34,1, 701.5 : 9000 \r\n"
+                + "857.7593,9,1e8,NEGATIVE,3,X,,,52,3,";
+        try (FeatureTableReader reader = reader(table)) {
+            List<Annotation> first = reader.nextChunk(3);
+            assertEquals(3, first.size());
+            assertEquals(4.25, first.get(0).getRtMin(), 0.0);
+            assertEquals(6.5, first.get(1).getRtMin(), 0.0);
+            assertEquals(10, first.get(2).getRtMin(), 0.0);
+            assertSame(first.get(0).getLipid(), first.get(1).getLipid()); // Same compoundId
+            assertEquals(LipidType.PC, first.get(1).getLipid().getLipidType());
+            assertEquals(2, first.get(1).getPeakList().size());
+            assertEquals(722.482, first.get(1).getPeakList().getMz(1), 0.0);
+            assertEquals(1, first.get(0).getPeakList().size());
+            assertTrue(first.get(2).getPeakList().isEmpty());
+
+            List<Annotation> second = reader.nextChunk(3);
+            assertEquals(1, second.size());
+            assertEquals(IoniationMode.NEGATIVE, second.get(0).getIonizationMode());
+            assertNull(second.get(0).getLipid().getLipidType());
+            assertEquals(1.0e8, second.get(0).getIntensity(), 0.0);
+            assertTrue(reader.nextChunk(3).isEmpty());
+            assertEquals(6, reader.getLineNumber());
+        }
+    }
+
+    @Test
+    public void shouldParseNumbersLikeDoubleParseDouble() throws IOException {
+        Random random = new Random(3);
+        StringBuilder table = new StringBuilder();
+        List<String> values = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            String value = switch (i % 4) {
+                case 0 -> Double.toString(random.nextDouble() * 2000);
+                case 1 -> String.format(Locale.ROOT, "%.5f", random.nextDouble() * 2000);
+                case 2 -> String.format(Locale.ROOT, "%.17f", random.nextDouble()); // Falls back to Double.parseDouble
+                default -> Long.toString(random.nextInt(1_000_000));
+            };
+            values.add(value);
+            table.append(value).append(",1,1,POSITIVE,").append(i).append(",L,,,0,0,\n");
+        }
+        try (FeatureTableReader reader = reader(table.toString())) {
+            for (String value : values) {
+                assertEquals(value, Double.parseDouble(value), reader.next().getMz(), 0.0);
+            }
+            assertNull(reader.next());
+        }
+    }
+
+    @Test
+    public void shouldReportInvalidRowWithItsLine() throws IOException {
+        try (FeatureTableReader reader = reader("700.5,6.5,80000,POSITIVE,1,PC 34:1,,PC,34,1,\n700.5,x,1,POSITIVE,1,PC 34:1,,PC,34,1,\n")) {
+            reader.next();
+            reader.next();
+            fail("Expected an IOException");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("test:2 "));
+        }
+    }
+
+    @Test
+    public void shouldFeedAllChunksToConsumer() throws IOException {
+        Path file = Files.createTempFile("features", ".csv");
+        try {
+            StringBuilder table = new StringBuilder("mz,rtMin,intensity,ionizationMode,compoundId,name,formula,lipidType,carbons,doubleBonds,peaks\n");
+            for (int i = 0; i < 10_000; i++) {
+                table.append(700 + i % 100).append(',').append(i % 37).append(",1000,POSITIVE,").append(i % 50)
+                        .append(",PC 34:1,C42H82NO8P,PC,34,1,700.5:1000;701.5:500\n");
+            }
+            Files.writeString(file, table, StandardCharsets.UTF_8);
+            List<Integer> sizes = new ArrayList<>();
+            long rows = FeatureTableReader.feed(file, 1000, 2, chunk -> {
+                for (int i = 1; i < chunk.size(); i++) {
+                    assertTrue(chunk.get(i - 1).getRtMin() <= chunk.get(i).getRtMin());
+                }
+                sizes.add(chunk.size());
+            });
+            assertEquals(10_000, rows);
+            assertEquals(10, sizes.size());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldStopReadingWhenConsumerFails() throws IOException {
+        Path file = Files.createTempFile("features", ".csv");
+        try {
+            Files.writeString(file, "700.5,6.5,80000,POSITIVE,1,PC 34:1,,PC,34,1,\n".repeat(100), StandardCharsets.UTF_8);
+            FeatureTableReader.feed(file, 10, 1, chunk -> {
+                throw new IllegalStateException("Scoring failed");
+            });
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
@@ -109,4 +109,16 @@ public class AdductDetectionTest {
         assertEquals("[M+2H]2+", annotation.getAdduct());
     }
 
+    @Test(timeout = 60_000)
+    public void nativeDetectionShouldFallBackWithoutGroupedSignals() {
+        Lipid lipid = new Lipid(602, "PC 34:1", "C42H82NO8P", LipidType.PC, 34, 1);
+        Annotation annotation = new Annotation(lipid, 760.5851, 1e6, 6.5d, IoniationMode.POSITIVE);
+
+        LipidScoreUnit unit = new LipidScoreUnit();
+        unit.setNativeAdductDetectionEnabled(true);
+        unit.getAnnotations().add(annotation);
+        LipidScorer.fire(unit);
+        assertEquals("[M+H]+", annotation.getAdduct());
+    }
+
 }
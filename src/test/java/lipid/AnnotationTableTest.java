@@ -0,0 +1,120 @@
+package lipid;
+
+import adduct.Adduct;
+import adduct.AdductRegistry;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class AnnotationTableTest {
+
+    private static List<Annotation> randomAnnotations(Random random, int count) {
+        LipidType[] types = LipidType.values();
+        List<Lipid> lipids = new ArrayList<>();
+        for (int id = 0; id < 40; id++) {
+            int carbons = 30 + 2 * random.nextInt(4);
+            int doubleBonds = random.nextInt(3);
+            lipids.add(new Lipid(id, "L" + id, "C" + (carbons + 8) + "H" + (2 * carbons - 2 * doubleBonds + 16) + "NO8P",
+                    types[random.nextInt(types.length)], carbons, doubleBonds));
+        }
+        List<Annotation> annotations = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Lipid lipid = lipids.get(random.nextInt(lipids.size()));
+            double mass = lipid.getMonoisotopicMass();
+            double mh = Adduct.getMZFromMonoisotopicMass(mass, AdductRegistry.get("[M+H]+"));
+            double na = Adduct.getMZFromMonoisotopicMass(mass, AdductRegistry.get("[M+Na]+"));
+            PeakList peaks = switch (random.nextInt(3)) {
+                case 0 -> PeakList.empty();
+                case 1 -> PeakList.of(new double[]{mh}, new double[]{1e6});
+                default -> PeakList.of(new double[]{mh, mh + 1.00335, na}, new double[]{1e6, 4e5, 6e5});
+            };
+            annotations.add(new Annotation(lipid, random.nextBoolean() ? mh : na, 1e6, 1 + random.nextInt(20) * 0.5,
+                    IoniationMode.POSITIVE, peaks));
+        }
+        return annotations;
+    }
+
+    @Test
+    public void columnarScoringShouldMatchAnnotations() {
+        List<Annotation> annotations = randomAnnotations(new Random(3), 500);
+        AnnotationTable table = new AnnotationTable(16, 16); // Forces the columns to grow
+        for (Annotation annotation : annotations) {
+            table.add(annotation);
+        }
+        for (Annotation annotation : annotations) {
+            annotation.detectAdductFromPeaks();
+        }
+        ElutionOrderScorer.score(annotations);
+        table.detectAdducts();
+        table.scoreElutionOrder();
+
+        assertEquals(annotations.size(), table.size());
+        assertTrue(table.getLipids().size() <= 40);
+        for (int row = 0; row < table.size(); row++) {
+            Annotation annotation = annotations.get(row);
+            assertSame(annotation.getLipid(), table.getLipid(row));
+            assertSame(annotation.getAdductDescriptor(), table.getAdduct(row));
+            assertEquals(annotation.getDetectedAdductMask(), table.getDetectedAdductMask(row));
+            assertEquals(annotation.getScore(), table.getScore(row));
+            assertEquals(annotation.getTotalScoreApplied(), table.getTotalScoresApplied(row));
+            assertEquals(annotation.getNormalizedScore(), table.getNormalizedScore(row), 0);
+        }
+    }
+
+    @Test
+    public void nativeSettingsShouldScoreOnColumns() {
+        AnnotationTable table = new AnnotationTable();
+        Lipid lipid = new Lipid(1, "PC 34:1", "C42H82NO8P", LipidType.PC, 34, 1);
+        table.add(lipid, 760.5851, 1e6, 10d, IoniationMode.POSITIVE, PeakList.empty());
+        LipidScoreUnit settings = new LipidScoreUnit();
+        settings.setNativeAdductDetectionEnabled(true);
+        settings.setNativeElutionScoringEnabled(true);
+        assertEquals(0, table.score(settings));
+        assertEquals("[M+H]+", table.getAdduct(0).getName()); // "Fallback to [M+H]+"
+        assertEquals(1, table.getTotalScoresApplied(0)); // "Assign fallback score"
+        assertEquals(0, table.getScore(0));
+    }
+
+    @Test
+    public void viewsShouldSharePeaksAndWriteBack() {
+        AnnotationTable table = new AnnotationTable(1, 1);
+        Lipid lipid = new Lipid(1, "PC 34:1", "C42H82NO8P", LipidType.PC, 34, 1);
+        table.add(lipid, 760.5851, 1e6, 10d, IoniationMode.POSITIVE,
+                PeakList.of(new double[]{760.5851, 782.5670}, new double[]{1e6, 5e5}));
+        table.add(lipid, 760.5851, 1e6, 12d, IoniationMode.NEGATIVE, PeakList.empty());
+        assertEquals(1, table.getLipids().size());
+        assertEquals(2, table.getPeakCount());
+
+        Annotation view = table.view(0);
+        assertEquals(2, view.getPeakList().size());
+        assertEquals(782.5670, view.getPeakList().getMz(1), 0);
+        assertNull(view.getAdduct());
+        view.detectAdductFromPeaks();
+        view.addScore(1);
+        view.setHasBeenScored(true);
+        table.update(0, view);
+        assertEquals("[M+H]+", table.getAdduct(0).getName());
+        assertEquals(AdductRegistry.get("[M+Na]+").getMask(), table.getDetectedAdductMask(0));
+        assertEquals(1, table.getScore(0));
+
+        Annotation again = table.view(0);
+        assertEquals(view.getAdduct(), again.getAdduct());
+        assertEquals(view.getDetectedAdducts(), again.getDetectedAdducts());
+        assertEquals(1, again.getTotalScoreApplied());
+        assertTrue(again.isHasBeenScored());
+        assertEquals(IoniationMode.NEGATIVE, table.view(1).getIonizationMode());
+        assertTrue(table.getPeaks(1).isEmpty());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void shouldRejectMissingRow() {
+        new AnnotationTable().getMz(0);
+    }
+}
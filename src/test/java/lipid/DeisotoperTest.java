@@ -0,0 +1,56 @@
+package lipid;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+public class DeisotoperTest {
+
+    @Test
+    public void shouldGroupSinglyChargedEnvelope() {
+        Set<Peak> peaks = Set.of(
+                new Peak(760.5851, 1.0e6), // M
+                new Peak(761.5884, 4.5e5), // M+1
+                new Peak(762.5918, 1.2e5), // M+2
+                new Peak(782.5670, 3.0e5)); // [M+Na]+, not an isotope
+        List<IsotopeEnvelope> envelopes = new Deisotoper(10).deisotope(peaks);
+        assertEquals(2, envelopes.size());
+        assertEquals(760.5851, envelopes.get(0).getMonoisotopicMz(), 0.0);
+        assertEquals(1, envelopes.get(0).getCharge());
+        assertEquals(3, envelopes.get(0).size());
+        assertEquals(782.5670, envelopes.get(1).getMonoisotopicMz(), 0.0);
+        assertEquals(0, envelopes.get(1).getCharge());
+    }
+
+    @Test
+    public void shouldDetectHigherChargeStates() {
+        Set<Peak> peaks = Set.of(
+                new Peak(380.7962, 1.0e6), // [M+2H]2+
+                new Peak(381.2979, 4.5e5), // M+1 at 1.00335 / 2
+                new Peak(381.7996, 1.2e5)); // M+2
+        List<IsotopeEnvelope> envelopes = new Deisotoper(10).deisotope(peaks);
+        assertEquals(1, envelopes.size());
+        assertEquals(2, envelopes.get(0).getCharge());
+        assertEquals(3, envelopes.get(0).size());
+    }
+
+    @Test
+    public void shouldKeepMoreIntenseNeighbour() {
+        // The heavier peak is more intense, so it is not an isotope of the lighter one
+        Set<Peak> peaks = Set.of(new Peak(700.5000, 1.0e5), new Peak(701.5034, 9.0e5));
+        assertEquals(2, new Deisotoper(10).deisotope(peaks).size());
+    }
+
+    @Test
+    public void annotationShouldKeepMonoisotopicPeaks() {
+        Peak monoisotopic = new Peak(760.5851, 1.0e6);
+        Peak sodium = new Peak(782.5670, 3.0e5);
+        Lipid lipid = new Lipid(1, "PC 34:1", "C42H82NO8P", LipidType.PC, 34, 1);
+        Annotation annotation = new Annotation(lipid, 760.5851, 1.0e6, 6.5d, IoniationMode.POSITIVE);
+        Set<Peak> clean = annotation.deisotopePeaks(Set.of(monoisotopic, new Peak(761.5884, 4.5e5), sodium), 5);
+        assertEquals(Set.of(monoisotopic, sodium), clean);
+    }
+}
@@ -0,0 +1,177 @@
+package lipid;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Same data as ElutionOrderTest, scored without Drools
+ */
+public class ElutionOrderScorerTest {
+
+    private static Annotation annotation(Lipid lipid, double rt) {
+        return new Annotation(lipid, 885.79056, 1.0e6, rt, IoniationMode.POSITIVE);
+    }
+
+    private static void assertScore(int score, int applied, Annotation annotation) {
+        assertEquals(annotation.toString(), score, annotation.getScore());
+        assertEquals(annotation.toString(), applied, annotation.getTotalScoreApplied());
+        assertTrue(annotation.isHasBeenScored());
+    }
+
+    @Test
+    public void score1BasedOnRTCarbonNumbers() {
+        Annotation a1 = annotation(new Lipid(1, "TG 54:3", "C57H104O6", LipidType.TG, 54, 3), 10);
+        Annotation a2 = annotation(new Lipid(2, "TG 52:3", "C55H100O6", LipidType.TG, 52, 3), 9);
+        Annotation a3 = annotation(new Lipid(3, "TG 56:3", "C59H108O6", LipidType.TG, 56, 3), 11);
+        ElutionOrderScorer.score(List.of(a1, a2, a3));
+        assertScore(1, 1, a1);
+        assertScore(0, 1, a2);
+        assertScore(0, 1, a3); // No rule fires for the lower id, so it only gets the fallback score
+        assertEquals(1.0, a1.getNormalizedScore(), 0.01);
+        assertEquals(0.0, a3.getNormalizedScore(), 0.01);
+    }
+
+    @Test
+    public void score1BasedOnRTDoubleBonds() {
+        Annotation a1 = annotation(new Lipid(1, "TG 54:3", "C57H104O6", LipidType.TG, 54, 3), 10);
+        Annotation a2 = annotation(new Lipid(2, "TG 54:4", "C55H100O6", LipidType.TG, 54, 4), 9);
+        Annotation a3 = annotation(new Lipid(3, "TG 54:2", "C59H108O6", LipidType.TG, 54, 2), 11);
+        ElutionOrderScorer.score(List.of(a1, a2, a3));
+        assertScore(1, 2, a1);
+        assertScore(2, 2, a2);
+        assertScore(0, 2, a3);
+    }
+
+    @Test
+    public void score1BasedOnLipidType() {
+        Annotation a1 = annotation(new Lipid(3, "PI 34:0", "C43H83O13P", LipidType.PI, 54, 0), 10);
+        Annotation a2 = annotation(new Lipid(1, "PG 34:0", "C40H79O10P", LipidType.PG, 54, 0), 9);
+        Annotation a3 = annotation(new Lipid(2, "PC 34:0", "C42H84NO8P", LipidType.PC, 54, 0), 11);
+        ElutionOrderScorer.score(List.of(a1, a2, a3));
+        assertScore(0, 1, a1);
+        assertScore(0, 1, a2);
+        assertScore(1, 1, a3);
+    }
+
+    @Test
+    public void negativeScoreBasedOnRTNumberOfCarbons() {
+        Annotation a1 = annotation(new Lipid(1, "PI 34:0", "C43H83O13P", LipidType.PI, 34, 0), 10);
+        Annotation a2 = annotation(new Lipid(2, "PG 34:0", "C40H79O10P", LipidType.PG, 34, 0), 9);
+        Annotation a3 = annotation(new Lipid(3, "PC 34:0", "C42H84NO8P", LipidType.PC, 34, 0), 8);
+        ElutionOrderScorer.score(List.of(a1, a2, a3));
+        assertScore(1, 1, a1);
+        assertScore(0, 1, a2);
+        assertScore(-4, 4, a3); // Both negative type rules fire against PI and PG
+        assertEquals(-1.0, a3.getNormalizedScore(), 0.01);
+    }
+
+    @Test
+    public void negativeScoreBasedOnLipidType() {
+        Annotation a1 = annotation(new Lipid(1, "TG 54:3", "C57H104O6", LipidType.TG, 54, 3), 10);
+        Annotation a2 = annotation(new Lipid(2, "TG 52:3", "C55H100O6", LipidType.TG, 52, 3), 9);
+        Annotation a3 = annotation(new Lipid(3, "TG 56:3", "C59H108O6", LipidType.TG, 56, 3), 8);
+        ElutionOrderScorer.score(List.of(a1, a2, a3));
+        assertScore(1, 1, a1);
+        assertScore(0, 1, a2);
+        assertScore(-2, 2, a3);
+    }
+
+    @Test
+    public void shouldMatchPairwiseRulesOnRandomAnnotations() {
+        Random random = new Random(42);
+        LipidType[] types = {LipidType.PG, LipidType.PI, LipidType.PC, LipidType.TG};
+        for (int round = 0; round < 50; round++) {
+            List<Lipid> lipids = new ArrayList<>();
+            List<Annotation> annotations = new ArrayList<>();
+            List<Annotation> expected = new ArrayList<>();
+            for (int i = 0; i < 60; i++) {
+                Lipid lipid = !lipids.isEmpty() && random.nextInt(5) == 0 ? lipids.get(random.nextInt(lipids.size()))
+                        : new Lipid(random.nextInt(40), "L" + i, "", types[random.nextInt(types.length)],
+                        30 + random.nextInt(4), random.nextInt(3));
+                lipids.add(lipid);
+                double rt = random.nextInt(8);
+                annotations.add(annotation(lipid, rt));
+                expected.add(annotation(lipid, rt));
+            }
+            ElutionOrderScorer.score(annotations);
+            scorePairwise(expected);
+            for (int i = 0; i < annotations.size(); i++) {
+                assertEquals("score of " + i, expected.get(i).getScore(), annotations.get(i).getScore());
+                assertEquals("applied of " + i, expected.get(i).getTotalScoreApplied(), annotations.get(i).getTotalScoreApplied());
+            }
+        }
+    }
+
+    /**
+     * The elution order rules of lipids.drl, each activation fired once
+     */
+    private static void scorePairwise(List<Annotation> annotations) {
+        for (Annotation a1 : annotations) {
+            for (Annotation a2 : annotations) {
+                Lipid l1 = a1.getLipid();
+                Lipid l2 = a2.getLipid();
+                double rt1 = a1.getRtMin();
+                double rt2 = a2.getRtMin();
+                if (l2.getCompoundId() > l1.getCompoundId()) {
+                    if (l1.getCarbons() > l2.getCarbons() && l1.getDoubleBonds() == l2.getDoubleBonds()
+                            && l1.getLipidType() == l2.getLipidType() && rt1 > rt2) {
+                        win(a1, a2);
+                    }
+                    if (l1.getCarbons() == l2.getCarbons() && l1.getLipidType() == l2.getLipidType()) {
+                        if (l1.getDoubleBonds() > l2.getDoubleBonds() && rt1 < rt2) {
+                            win(a1, a2);
+                        } else if (l2.getDoubleBonds() > l1.getDoubleBonds() && rt2 < rt1) {
+                            win(a2, a1);
+                        } else {
+                            a1.loseComparison();
+                            a2.loseComparison();
+                            a1.setHasBeenScored(true);
+                            a2.setHasBeenScored(true);
+                        }
+                    }
+                    if (l1.getCarbons() == l2.getCarbons() && l1.getDoubleBonds() == l2.getDoubleBonds()
+                            && LipidUtils.elutesAfter(l1.getLipidType(), l2.getLipidType()) && rt1 > rt2) {
+                        win(a1, a2);
+                    }
+                }
+                if (l1.getCompoundId() != l2.getCompoundId()) {
+                    boolean sameCarbonsAndBonds = l1.getCarbons() == l2.getCarbons() && l1.getDoubleBonds() == l2.getDoubleBonds();
+                    if (sameCarbonsAndBonds && rt1 < rt2 && LipidUtils.elutesAfter(l1.getLipidType(), l2.getLipidType())) {
+                        penalize(a1);
+                    }
+                    if (sameCarbonsAndBonds && rt2 < rt1 && LipidUtils.elutesAfter(l2.getLipidType(), l1.getLipidType())) {
+                        penalize(a2);
+                    }
+                    if (l1.getLipidType() == l2.getLipidType() && l1.getDoubleBonds() == l2.getDoubleBonds()
+                            && l2.getCarbons() > l1.getCarbons() && rt2 < rt1) {
+                        penalize(a2);
+                    }
+                }
+            }
+        }
+        for (Annotation annotation : annotations) {
+            if (annotation.getScore() == 0 && !annotation.isHasBeenScored()) {
+                annotation.addScore(0);
+                annotation.setHasBeenScored(true);
+            }
+        }
+    }
+
+    private static void win(Annotation winner, Annotation loser) {
+        winner.winComparison();
+        loser.loseComparison();
+        winner.setHasBeenScored(true);
+        loser.setHasBeenScored(true);
+    }
+
+    private static void penalize(Annotation annotation) {
+        annotation.addScore(-1);
+        annotation.setHasBeenScored(true);
+    }
+}
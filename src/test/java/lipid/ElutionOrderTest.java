@@ -7,7 +7,9 @@ import org.junit.Before;
 import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 import java.util.Set;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
@@ -346,4 +348,86 @@ public class ElutionOrderTest {
             instance.close();
         }
     }
+
+    /**
+     * Independent pairs of annotations differing in the carbons, the double bonds or the lipid type, with a random
+     * elution order and random compound ids. No annotation of a pair relates to another pair, so every rule fires at
+     * most once per pair and no update() activates another rule again
+     */
+    static List<Annotation> independentPairs(long seed) {
+        Random random = new Random(seed);
+        LipidType[] types = {LipidType.PG, LipidType.PI, LipidType.PC, LipidType.TG};
+        List<Annotation> annotations = new ArrayList<>();
+        for (int pair = 0; pair < 30; pair++) {
+            LipidType type = types[random.nextInt(types.length)];
+            int carbons = 30 + 4 * pair; // Unique carbons and double bonds per pair
+            int doubleBonds = 2 * pair;
+            Lipid[] lipids = new Lipid[2];
+            int firstId = 2 * pair + random.nextInt(2);
+            int secondId = 4 * pair + 1 - firstId;
+            switch (random.nextInt(3)) {
+                case 0 -> {
+                    lipids[0] = new Lipid(firstId, "", "", type, carbons, doubleBonds);
+                    lipids[1] = new Lipid(secondId, "", "", type, carbons + 2, doubleBonds);
+                }
+                case 1 -> {
+                    lipids[0] = new Lipid(firstId, "", "", type, carbons, doubleBonds);
+                    lipids[1] = new Lipid(secondId, "", "", type, carbons, doubleBonds + 1);
+                }
+                default -> {
+                    lipids[0] = new Lipid(firstId, "", "", LipidType.PG, carbons, doubleBonds);
+                    lipids[1] = new Lipid(secondId, "", "", types[1 + random.nextInt(types.length - 1)], carbons, doubleBonds);
+                }
+            }
+            for (Lipid lipid : lipids) {
+                annotations.add(new Annotation(lipid, 800, 1.0e6, 10 + random.nextDouble(), IoniationMode.POSITIVE));
+            }
+        }
+        return annotations;
+    }
+
+    @Test
+    public void nativeElutionScoringShouldMatchTheRulesWithoutCascades() {
+        for (long seed = 1; seed <= 5; seed++) {
+            List<Annotation> fired = independentPairs(seed);
+            List<Annotation> scored = independentPairs(seed);
+            LipidScoreUnit rules = new LipidScoreUnit();
+            fired.forEach(rules.getAnnotations()::add);
+            LipidScorer.fire(rules);
+            LipidScoreUnit natively = new LipidScoreUnit();
+            natively.setNativeElutionScoringEnabled(true);
+            scored.forEach(natively.getAnnotations()::add);
+            LipidScorer.fire(natively);
+
+            for (int i = 0; i < fired.size(); i++) {
+                String name = "seed " + seed + ", annotation " + i;
+                assertEquals(name, fired.get(i).getScore(), scored.get(i).getScore());
+                assertEquals(name, fired.get(i).getTotalScoreApplied(), scored.get(i).getTotalScoreApplied());
+                assertEquals(name, fired.get(i).isHasBeenScored(), scored.get(i).isHasBeenScored());
+            }
+        }
+    }
+
+    /**
+     * Same annotations as negativeScoreBasedOnRTDoubleBonds. The rules give TG 54:4 a second win when "Score 0: RT not
+     * consistent with double bond count" updates TG 54:3 and activates the reverse rule again; ElutionOrderScorer
+     * scores each pair once
+     */
+    @Test
+    public void nativeElutionScoringShouldScoreEachPairOnce() {
+        LipidScoreUnit unit = new LipidScoreUnit();
+        unit.setNativeElutionScoringEnabled(true);
+        Annotation annotation1 = new Annotation(new Lipid(1, "TG 54:3", "C57H104O6", LipidType.TG, 54, 3), 885.79056, 1.0e7, 10d, IoniationMode.POSITIVE);
+        Annotation annotation2 = new Annotation(new Lipid(2, "TG 54:4", "C57H102O6", LipidType.TG, 54, 4), 883.77492, 1.0e8, 9d, IoniationMode.POSITIVE);
+        Annotation annotation3 = new Annotation(new Lipid(3, "TG 54:2", "C57H106O6", LipidType.TG, 54, 2), 887.80622, 1.0e6, 8d, IoniationMode.POSITIVE);
+        unit.getAnnotations().add(annotation1);
+        unit.getAnnotations().add(annotation2);
+        unit.getAnnotations().add(annotation3);
+
+        LipidScorer.fire(unit);
+
+        assertEquals(0d, annotation1.getNormalizedScore(), 0.01); // Loses to TG 54:4, inconsistent with TG 54:2
+        assertEquals(0.5, annotation2.getNormalizedScore(), 0.01); // The rules give 2/3
+        assertEquals(0d, annotation3.getNormalizedScore(), 0.01);
+    }
 }
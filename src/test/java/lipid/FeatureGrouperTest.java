@@ -0,0 +1,140 @@
+package lipid;
+
+import adduct.Adduct;
+import adduct.AdductRegistry;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FeatureGrouperTest {
+
+    private static final Lipid PC_34_1 = new Lipid(1, "PC 34:1", "C42H82NO8P", LipidType.PC, 34, 1);
+    private static final Lipid TG_54_3 = new Lipid(2, "TG 54:3", "C57H104O6", LipidType.TG, 54, 3);
+
+    private static double mz(Lipid lipid, String adduct) {
+        return Adduct.getMZFromMonoisotopicMass(lipid.getMonoisotopicMass(), AdductRegistry.get(adduct));
+    }
+
+    @Test
+    public void shouldGroupAdductsAndIsotopesOfCoelutingPeaks() {
+        double mh = mz(PC_34_1, "[M+H]+");
+        double na = mz(PC_34_1, "[M+Na]+");
+        double[] mz = {na, mh, mh + Deisotoper.ISOTOPE_SPACING, mz(TG_54_3, "[M+NH4]+"), mh, na, 500.1234};
+        double[] rt = {10.02, 10.00, 10.01, 10.01, 15.00, 15.03, 10.00};
+        double[] intensity = {4e5, 1e6, 4.5e5, 2e6, 3e5, 1e5, 1e4};
+        List<FeatureGrouper.Group> groups = new FeatureGrouper(IoniationMode.POSITIVE, 10, 0.05).group(mz, rt, intensity);
+
+        assertEquals(4, groups.size());
+        FeatureGrouper.Group pc = groups.get(1); // 500.1234 is first: same RT, lower m/z
+        assertArrayEquals(new int[]{0, 1, 2}, pc.getMembers());
+        assertEquals(mh, pc.getMz(), 0);
+        assertEquals(10.00, pc.getRtMin(), 0);
+        assertEquals(3, pc.getPeaks().size());
+        assertArrayEquals(new int[]{3}, groups.get(2).getMembers()); // TG co-elutes but has no relationship
+        assertArrayEquals(new int[]{4, 5}, groups.get(3).getMembers()); // Same PC later, outside the RT tolerance
+
+        Annotation annotation = pc.annotate(PC_34_1);
+        annotation.detectAdductFromPeaks();
+        assertEquals("[M+H]+", annotation.getAdduct());
+        assertTrue(annotation.getDetectedAdducts().contains("[M+Na]+"));
+    }
+
+    @Test
+    public void shouldUseTheAdductsOfTheMode() {
+        double mh = mz(PC_34_1, "[M-H]−");
+        double cl = mz(PC_34_1, "[M+Cl]−");
+        double[] mz = {mh, cl};
+        double[] rt = {8.0, 8.01};
+        double[] intensity = {1e6, 5e5};
+        assertEquals(1, new FeatureGrouper(IoniationMode.NEGATIVE, 10, 0.05).group(mz, rt, intensity).size());
+        assertEquals(2, new FeatureGrouper(IoniationMode.POSITIVE, 10, 0.05).group(mz, rt, intensity).size());
+    }
+
+    @Test
+    public void everyPeakShouldBelongToOneGroup() {
+        Random random = new Random(17);
+        int n = 50_000;
+        double[] mz = new double[n];
+        double[] rt = new double[n];
+        double[] intensity = new double[n];
+        for (int i = 0; i < n; i++) {
+            mz[i] = 400 + random.nextDouble() * 800;
+            rt[i] = random.nextDouble() * 30;
+            intensity[i] = 1e3 + random.nextDouble() * 1e6;
+        }
+        List<FeatureGrouper.Group> groups = new FeatureGrouper(IoniationMode.POSITIVE, 5, 0.05).group(mz, rt, intensity);
+        boolean[] seen = new boolean[n];
+        double previousRt = Double.NEGATIVE_INFINITY;
+        for (FeatureGrouper.Group group : groups) {
+            assertTrue(group.getRtMin() >= previousRt);
+            previousRt = group.getRtMin();
+            for (int i : group.getMembers()) {
+                assertTrue(!seen[i]);
+                seen[i] = true;
+            }
+        }
+        for (boolean member : seen) {
+            assertTrue(member);
+        }
+    }
+
+    @Test
+    public void groupsShouldStayBoundedOnDenseRuns() {
+        // 10,000 molecules with [M+H]+, [M+Na]+, [M+NH4]+ and the isotope of [M+H]+ at positions 4m to 4m + 3, over noise
+        Random random = new Random(23);
+        int molecules = 10_000;
+        int n = molecules * 4 + 20_000;
+        double[] mz = new double[n];
+        double[] rt = new double[n];
+        double[] intensity = new double[n];
+        String[] adducts = {"[M+H]+", "[M+Na]+", "[M+NH4]+"};
+        double[] share = {1, 0.4, 0.3};
+        int p = 0;
+        for (int m = 0; m < molecules; m++) {
+            double mass = 600 + random.nextDouble() * 400;
+            double moleculeRt = random.nextDouble() * 30;
+            double top = 1e5 + random.nextDouble() * 1e6;
+            for (int k = 0; k < adducts.length; k++) {
+                mz[p] = Adduct.getMZFromMonoisotopicMass(mass, AdductRegistry.get(adducts[k]));
+                rt[p] = moleculeRt + (random.nextDouble() - 0.5) * 0.02;
+                intensity[p++] = top * share[k];
+            }
+            mz[p] = mz[p - 3] + Deisotoper.ISOTOPE_SPACING;
+            rt[p] = moleculeRt + (random.nextDouble() - 0.5) * 0.02;
+            intensity[p++] = top * 0.45;
+        }
+        for (; p < n; p++) {
+            mz[p] = 400 + random.nextDouble() * 800;
+            rt[p] = random.nextDouble() * 30;
+            intensity[p] = 1e3 + random.nextDouble() * 5e4;
+        }
+        List<FeatureGrouper.Group> groups = new FeatureGrouper(IoniationMode.POSITIVE, 5, 0.05).group(mz, rt, intensity);
+
+        int largest = 0;
+        int recovered = 0;
+        for (FeatureGrouper.Group group : groups) {
+            int[] members = group.getMembers();
+            largest = Math.max(largest, members.length);
+            for (int i : members) {
+                assertTrue(Math.abs(rt[i] - group.getRtMin()) <= 0.05);
+                assertTrue(intensity[i] <= group.getIntensity());
+            }
+            if (members.length == 4 && members[0] % 4 == 0 && members[3] == members[0] + 3 && members[3] < molecules * 4) {
+                recovered++;
+            }
+        }
+        // Chance matches of the noise add a few peaks to a group, but never chain molecules together
+        assertTrue("largest group has " + largest + " peaks", largest <= 8);
+        assertTrue("recovered " + recovered + " molecules", recovered >= molecules * 95 / 100);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectMismatchedArrays() {
+        new FeatureGrouper(IoniationMode.POSITIVE, 10, 0.05).group(new double[2], new double[2], new double[1]);
+    }
+}
@@ -0,0 +1,66 @@
+package lipid;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FormulaMassCalculatorTest {
+
+    @Test
+    public void shouldCalculateMonoisotopicMassFromFormula() {
+        assertEquals(884.78329, FormulaMassCalculator.calculateMonoisotopicMass("C57H104O6"), 0.0001); // TG 54:3
+        assertEquals(759.57780, FormulaMassCalculator.calculateMonoisotopicMass("C42H82NO8P"), 0.0001); // PC 34:1
+        assertEquals(FormulaMassCalculator.getElementMass("Na") + FormulaMassCalculator.getElementMass("Cl"),
+                FormulaMassCalculator.calculateMonoisotopicMass("NaCl"), 1e-9);
+    }
+
+    @Test
+    public void cachedMassShouldMatchParsedMass() {
+        double parsed = FormulaMassCalculator.calculateMonoisotopicMass("C41H78NO8P");
+        assertEquals(parsed, FormulaMassCalculator.getMonoisotopicMass("C41H78NO8P"), 0.0);
+        assertEquals(parsed, FormulaMassCalculator.getMonoisotopicMass("C41H78NO8P"), 0.0);
+    }
+
+    @Test
+    public void concurrentLookupsShouldMatchParsedMass() throws InterruptedException {
+        Thread[] threads = new Thread[8];
+        boolean[] failed = new boolean[1];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 20_000; i++) {
+                    String formula = "C" + (30 + i % 40) + "H" + (60 + i % 500) + "NO8P";
+                    if (FormulaMassCalculator.getMonoisotopicMass(formula) != FormulaMassCalculator.calculateMonoisotopicMass(formula)) {
+                        failed[0] = true;
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(!failed[0]);
+    }
+
+    @Test
+    public void lipidShouldExposeItsMass() {
+        Lipid lipid = new Lipid(1, "TG 54:3", "C57H104O6", LipidType.TG, 54, 3);
+        assertEquals(884.78329, lipid.getMonoisotopicMass(), 0.0001);
+        assertEquals(lipid.getMonoisotopicMass(), lipid.getMonoisotopicMass(), 0.0);
+    }
+
+    @Test
+    public void shouldRejectInvalidFormulas() {
+        for (String formula : new String[]{"", "c57H104", "C57Xx2", "C57H104O6+"}) {
+            try {
+                FormulaMassCalculator.calculateMonoisotopicMass(formula);
+                fail(formula + " should not be parsed");
+            } catch (IllegalArgumentException expected) {
+                assertTrue(expected.getMessage() != null);
+            }
+        }
+        assertTrue(Double.isNaN(FormulaMassCalculator.getElementMass("Xx")));
+    }
+}
@@ -0,0 +1,90 @@
+package lipid;
+
+import org.drools.ruleunits.api.DataHandle;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+public class IncrementalElutionScorerTest {
+
+    private static Annotation annotation(Lipid lipid, double rt) {
+        return new Annotation(lipid, 885.79056, 1.0e6, rt, IoniationMode.POSITIVE);
+    }
+
+    @Test
+    public void addingLateAnnotationShouldApplyItsComparisons() {
+        IncrementalElutionScorer scorer = new IncrementalElutionScorer(new LipidScoreUnit());
+        Annotation a1 = annotation(new Lipid(1, "TG 54:3", "C57H104O6", LipidType.TG, 54, 3), 10);
+        Annotation a2 = annotation(new Lipid(2, "TG 52:3", "C55H100O6", LipidType.TG, 52, 3), 9);
+        scorer.add(a1);
+        assertEquals(0, a1.getScore());
+        assertEquals(1, a1.getTotalScoreApplied()); // Fallback while alone
+        scorer.add(a2);
+        assertEquals(1, a1.getScore());
+        assertEquals(1, a1.getTotalScoreApplied()); // The win replaces the fallback
+        assertEquals(0, a2.getScore());
+        assertEquals(1, a2.getTotalScoreApplied());
+
+        Annotation a3 = annotation(new Lipid(3, "TG 56:3", "C59H108O6", LipidType.TG, 56, 3), 8);
+        DataHandle late = scorer.add(a3);
+        assertEquals(-2, a3.getScore());
+        assertEquals(2, a3.getTotalScoreApplied());
+
+        assertSame(a3, scorer.remove(late));
+        assertEquals(0, a3.getScore());
+        assertEquals(0, a3.getTotalScoreApplied());
+        assertFalse(a3.isHasBeenScored());
+        assertEquals(1, a1.getScore());
+        assertEquals(2, scorer.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectRetractedHandle() {
+        IncrementalElutionScorer scorer = new IncrementalElutionScorer(new LipidScoreUnit());
+        DataHandle handle = scorer.add(annotation(new Lipid(1, "TG 54:3", "C57H104O6", LipidType.TG, 54, 3), 10));
+        scorer.remove(handle);
+        scorer.remove(handle);
+    }
+
+    @Test
+    public void shouldMatchBatchScoringAfterRandomChanges() {
+        Random random = new Random(7);
+        LipidType[] types = {LipidType.PG, LipidType.PI, LipidType.PC, LipidType.TG};
+        IncrementalElutionScorer scorer = new IncrementalElutionScorer(new LipidScoreUnit());
+        List<DataHandle> handles = new ArrayList<>();
+        List<Annotation> live = new ArrayList<>();
+        for (int step = 0; step < 400; step++) {
+            if (!handles.isEmpty() && random.nextInt(3) == 0) {
+                int index = random.nextInt(handles.size());
+                Annotation removed = scorer.remove(handles.remove(index));
+                live.remove(index);
+                assertEquals(0, removed.getScore());
+                assertEquals(0, removed.getTotalScoreApplied());
+            } else {
+                Lipid lipid = new Lipid(random.nextInt(30), "L" + step, "", types[random.nextInt(types.length)],
+                        30 + random.nextInt(4), random.nextInt(3));
+                Annotation annotation = annotation(lipid, random.nextInt(8));
+                handles.add(scorer.add(annotation));
+                live.add(annotation);
+            }
+            if (step % 40 == 39) {
+                List<Annotation> expected = new ArrayList<>();
+                for (Annotation annotation : live) {
+                    expected.add(annotation(annotation.getLipid(), annotation.getRtMin()));
+                }
+                ElutionOrderScorer.score(expected);
+                for (int i = 0; i < live.size(); i++) {
+                    assertEquals("score of " + i, expected.get(i).getScore(), live.get(i).getScore());
+                    assertEquals("applied of " + i, expected.get(i).getTotalScoreApplied(), live.get(i).getTotalScoreApplied());
+                }
+            }
+        }
+        assertEquals(live.size(), scorer.size());
+    }
+}
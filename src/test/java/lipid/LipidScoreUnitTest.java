@@ -0,0 +1,31 @@
+package lipid;
+
+import org.drools.ruleunits.api.RuleUnit;
+import org.drools.ruleunits.api.RuleUnitData;
+import org.drools.ruleunits.impl.RuleUnitProviderImpl;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assume.assumeFalse;
+
+public class LipidScoreUnitTest {
+
+    /**
+     * The provider only compiles lipids.drl at runtime (generateRuleUnit) when no rule unit generated by the
+     * kie-maven-plugin is registered for LipidScoreUnit. Skipped when built with -Pdynamic-rules
+     */
+    @Test
+    public void rulesShouldBeLoadedFromTheGeneratedModel() {
+        assumeFalse("Built with -Pdynamic-rules", "NO".equals(System.getProperty("drools.generateModel")));
+        RuleUnitProviderImpl provider = new RuleUnitProviderImpl() {
+            @Override
+            protected <T extends RuleUnitData> Map<String, RuleUnit> generateRuleUnit(T ruleUnitData) {
+                throw new AssertionError("No generated rule unit for " + ruleUnitData.getClass().getName()
+                        + ", lipids.drl would be compiled at runtime");
+            }
+        };
+        assertNotNull(provider.getRuleUnit(new LipidScoreUnit()));
+    }
+}
@@ -0,0 +1,82 @@
+package lipid;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LipidScorerPoolTest {
+
+    private static List<Annotation> batch() {
+        return List.of(
+                new Annotation(new Lipid(1, "TG 54:3", "C57H104O6", LipidType.TG, 54, 3), 885.79056, 1.0e7, 10d, IoniationMode.POSITIVE),
+                new Annotation(new Lipid(2, "TG 52:3", "C55H100O6", LipidType.TG, 52, 3), 857.7593, 1.0e8, 9d, IoniationMode.POSITIVE),
+                new Annotation(new Lipid(3, "TG 56:3", "C59H108O6", LipidType.TG, 56, 3), 913.8220, 1.0e6, 8d, IoniationMode.POSITIVE));
+    }
+
+    private static LipidScoreUnit nativeSettings() {
+        LipidScoreUnit settings = new LipidScoreUnit();
+        settings.setNativeElutionScoringEnabled(true);
+        return settings;
+    }
+
+    private static void assertScored(List<Annotation> batch) {
+        assertEquals(1, batch.get(0).getScore());
+        assertEquals(0, batch.get(1).getScore());
+        assertEquals(-2, batch.get(2).getScore());
+        assertEquals(2, batch.get(2).getTotalScoreApplied());
+    }
+
+    @Test
+    public void shouldReuseSessionsBetweenBatches() {
+        try (LipidScorerPool pool = new LipidScorerPool(nativeSettings(), 1)) {
+            for (int i = 0; i < 3; i++) {
+                List<Annotation> batch = batch();
+                pool.score(batch);
+                assertScored(batch); // Annotations of the previous batch were removed from the session
+                assertEquals(1, pool.idleSessions());
+            }
+        }
+    }
+
+    @Test
+    public void shouldScoreConcurrentBatchesWithBoundedSessions() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try (LipidScorerPool pool = new LipidScorerPool(nativeSettings(), 2)) {
+            List<Future<List<Annotation>>> results = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                results.add(executor.submit(() -> {
+                    List<Annotation> batch = batch();
+                    pool.score(batch);
+                    return batch;
+                }));
+            }
+            for (Future<List<Annotation>> result : results) {
+                assertScored(result.get());
+            }
+            assertTrue(pool.idleSessions() <= 2);
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldRejectBatchesAfterClose() {
+        LipidScorerPool pool = new LipidScorerPool(nativeSettings(), 1);
+        pool.close();
+        pool.score(batch());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectEmptyPool() {
+        new LipidScorerPool(nativeSettings(), 0);
+    }
+}
@@ -0,0 +1,131 @@
+package lipid;
+
+import adduct.Adduct;
+import adduct.AdductRegistry;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class OffHeapAnnotationStoreTest {
+
+    private static void fill(Random random, AnnotationStore... stores) {
+        LipidType[] types = LipidType.values();
+        Lipid[] lipids = new Lipid[30];
+        for (int id = 0; id < lipids.length; id++) {
+            int carbons = 30 + 2 * random.nextInt(4);
+            int doubleBonds = random.nextInt(3);
+            lipids[id] = new Lipid(id, "L" + id, "C" + (carbons + 8) + "H" + (2 * carbons - 2 * doubleBonds + 16) + "NO8P",
+                    types[random.nextInt(types.length)], carbons, doubleBonds);
+        }
+        for (int i = 0; i < 300; i++) {
+            Lipid lipid = lipids[random.nextInt(lipids.length)];
+            double mh = Adduct.getMZFromMonoisotopicMass(lipid.getMonoisotopicMass(), AdductRegistry.get("[M+H]+"));
+            double na = Adduct.getMZFromMonoisotopicMass(lipid.getMonoisotopicMass(), AdductRegistry.get("[M+Na]+"));
+            PeakList peaks = random.nextInt(4) == 0 ? PeakList.empty()
+                    : PeakList.of(new double[]{mh, mh + 1.00335, na}, new double[]{1e6, 4e5, 6e5});
+            double rt = 1 + random.nextInt(20) * 0.5;
+            for (AnnotationStore store : stores) {
+                store.add(lipid, mh, 1e6, rt, IoniationMode.POSITIVE, peaks);
+            }
+        }
+    }
+
+    @Test
+    public void shouldScoreAsAnnotationTable() throws IOException {
+        Path directory = Files.createTempDirectory("stores");
+        Path file = directory.resolve("chunks");
+        try (OffHeapAnnotationStore direct = new OffHeapAnnotationStore(null, 8, 8);
+             OffHeapAnnotationStore mapped = new OffHeapAnnotationStore(FileChannel.open(file, StandardOpenOption.CREATE,
+                     StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE), 8, 8)) {
+            AnnotationTable table = new AnnotationTable();
+            fill(new Random(11), table, direct, mapped);
+            LipidScoreUnit settings = new LipidScoreUnit();
+            settings.setNativeAdductDetectionEnabled(true);
+            settings.setNativeElutionScoringEnabled(true);
+            table.score(settings);
+            direct.score(settings);
+            mapped.score(settings);
+
+            assertTrue(mapped.getReservedBytes() >= 300 * OffHeapAnnotationStore.ROW_BYTES);
+            for (OffHeapAnnotationStore store : new OffHeapAnnotationStore[]{direct, mapped}) {
+                assertEquals(table.size(), store.size());
+                assertEquals(table.getPeakCount(), store.getPeakCount());
+                for (int row = 0; row < table.size(); row++) {
+                    assertSame(table.getLipid(row), store.getLipid(row));
+                    assertEquals(table.getMz(row), store.getMz(row), 0);
+                    assertEquals(table.getRtMin(row), store.getRtMin(row), 0);
+                    assertEquals(table.getIonizationMode(row), store.getIonizationMode(row));
+                    assertEquals(table.getAdductId(row), store.getAdductId(row));
+                    assertEquals(table.getDetectedAdductMask(row), store.getDetectedAdductMask(row));
+                    assertEquals(table.getScore(row), store.getScore(row));
+                    assertEquals(table.getTotalScoresApplied(row), store.getTotalScoresApplied(row));
+                    assertEquals(table.isScored(row), store.isScored(row));
+                    PeakList expected = table.getPeaks(row);
+                    PeakList peaks = store.getPeaks(row);
+                    assertEquals(expected.size(), peaks.size());
+                    for (int i = 0; i < peaks.size(); i++) {
+                        assertEquals(expected.getMz(i), peaks.getMz(i), 0);
+                        assertEquals(expected.getIntensity(i), peaks.getIntensity(i), 0);
+                    }
+                }
+            }
+        } finally {
+            Files.deleteIfExists(file);
+            Files.delete(directory);
+        }
+    }
+
+    @Test
+    public void viewsShouldWriteBack() throws IOException {
+        try (OffHeapAnnotationStore store = OffHeapAnnotationStore.allocate()) {
+            Lipid lipid = new Lipid(1, "PC 34:1", "C42H82NO8P", LipidType.PC, 34, 1);
+            int row = store.add(lipid, 760.5851, 1e6, 10d, IoniationMode.POSITIVE,
+                    PeakList.of(new double[]{760.5851, 782.5670}, new double[]{1e6, 5e5}));
+            Annotation view = store.view(row);
+            assertNull(view.getAdduct());
+            view.detectAdductFromPeaks();
+            view.addScore(-1);
+            store.update(row, view);
+            assertEquals("[M+H]+", store.getAdduct(row).getName());
+            assertEquals(AdductRegistry.get("[M+Na]+").getMask(), store.getDetectedAdductMask(row));
+            assertEquals(-1.0, store.getNormalizedScore(row), 0);
+        }
+    }
+
+    @Test
+    public void closingShouldReleaseTheStore() throws IOException {
+        Path directory = Files.createTempDirectory("stores");
+        try {
+            OffHeapAnnotationStore store = OffHeapAnnotationStore.mapped(directory);
+            store.add(new Lipid(1, "PC 34:1", "C42H82NO8P", LipidType.PC, 34, 1), 760.5851, 1e6, 10d,
+                    IoniationMode.POSITIVE, PeakList.empty());
+            assertEquals(OffHeapAnnotationStore.ROW_BYTES * OffHeapAnnotationStore.MAPPED_ROWS_PER_CHUNK,
+                    store.getReservedBytes()); // One small chunk stays mapped until collected
+            store.close();
+            store.close();
+            try (Stream<Path> files = Files.list(directory)) {
+                assertEquals(0, files.count());
+            }
+            try {
+                store.getMz(0);
+                fail("A closed store should not be readable");
+            } catch (IllegalStateException expected) {
+                // Closed
+            }
+        } finally {
+            Files.delete(directory);
+        }
+    }
+}
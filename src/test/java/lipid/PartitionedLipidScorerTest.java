@@ -0,0 +1,146 @@
+package lipid;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PartitionedLipidScorerTest {
+
+    private static Annotation annotation(int id, LipidType type, int carbons, int doubleBonds, double rt) {
+        Lipid lipid = new Lipid(id, type + " " + carbons + ":" + doubleBonds, "", type, carbons, doubleBonds);
+        return new Annotation(lipid, 885.79056, 1.0e6, rt, IoniationMode.POSITIVE);
+    }
+
+    @Test
+    public void shouldPartitionEachRuleFamilyByItsKey() {
+        Annotation tg54x3 = annotation(1, LipidType.TG, 54, 3, 10);
+        Annotation tg52x3 = annotation(2, LipidType.TG, 52, 3, 9);
+        Annotation pc52x1 = annotation(3, LipidType.PC, 52, 1, 8);
+        Annotation pe52x1 = annotation(4, LipidType.PE, 52, 1, 7); // Same C and DB as PC 52:1
+        Annotation pc34x0 = annotation(5, LipidType.PC, 34, 0, 6);
+        Annotation pg40x2 = annotation(6, LipidType.PG, 40, 2, 5);
+        Annotation pg40x5 = annotation(7, LipidType.PG, 40, 5, 4);
+        List<Annotation> annotations = List.of(tg54x3, tg52x3, pc52x1, pe52x1, pc34x0, pg40x2, pg40x5);
+
+        List<List<Annotation>> byTypeAndDoubleBonds = PartitionedLipidScorer.partitionByTypeAndDoubleBonds(annotations);
+        assertEquals(List.of(List.of(tg54x3, tg52x3), List.of(pc52x1), List.of(pe52x1), List.of(pc34x0), List.of(pg40x2),
+                List.of(pg40x5)), byTypeAndDoubleBonds);
+        List<List<Annotation>> byTypeAndCarbons = PartitionedLipidScorer.partitionByTypeAndCarbons(annotations);
+        assertEquals(List.of(List.of(tg54x3), List.of(tg52x3), List.of(pc52x1), List.of(pe52x1), List.of(pc34x0),
+                List.of(pg40x2, pg40x5)), byTypeAndCarbons);
+        List<List<Annotation>> byCarbonsAndDoubleBonds = PartitionedLipidScorer.partitionByCarbonsAndDoubleBonds(annotations);
+        assertEquals(6, byCarbonsAndDoubleBonds.size());
+        assertEquals(List.of(pc52x1, pe52x1), byCarbonsAndDoubleBonds.get(2));
+    }
+
+    @Test
+    public void seriesOfEveryTypeShouldSplitIntoSeveralPartitions() {
+        Random random = new Random(5);
+        LipidType[] types = LipidType.values();
+        List<Annotation> annotations = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            LipidType type = types[random.nextInt(types.length)];
+            int carbons = (type == LipidType.TG ? 42 : 28) + 2 * random.nextInt(7);
+            int doubleBonds = random.nextInt(6);
+            annotations.add(annotation(i, type, carbons, doubleBonds, 1 + 0.35 * carbons - 0.45 * doubleBonds));
+        }
+        int minSize = PartitionedLipidScorer.DEFAULT_MIN_PARTITION_SIZE;
+        List<List<List<Annotation>>> phases = List.of(
+                PartitionedLipidScorer.partitionByTypeAndDoubleBonds(annotations),
+                PartitionedLipidScorer.partitionByTypeAndCarbons(annotations),
+                PartitionedLipidScorer.partitionByCarbonsAndDoubleBonds(annotations));
+        for (List<List<Annotation>> phase : phases) {
+            assertTrue(PartitionedLipidScorer.pack(phase, minSize).size() > 4 * types.length);
+            for (List<Annotation> partition : phase) {
+                assertTrue(partition.size() < annotations.size() / 25);
+            }
+        }
+    }
+
+    @Test
+    public void shouldPackSmallComponents() {
+        List<List<Annotation>> components = new ArrayList<>();
+        for (int size : new int[]{1, 5, 2, 3, 1}) {
+            List<Annotation> component = new ArrayList<>();
+            for (int i = 0; i < size; i++) {
+                component.add(annotation(i, LipidType.TG, 50 + components.size(), i, i));
+            }
+            components.add(component);
+        }
+        List<List<Annotation>> packed = PartitionedLipidScorer.pack(components, 4);
+        assertEquals(3, packed.size());
+        assertSame(components.get(1), packed.get(0)); // Large enough on its own
+        assertEquals(5, packed.get(1).size()); // 3 + 2
+        assertEquals(2, packed.get(2).size()); // 1 + 1
+        for (List<Annotation> partition : packed.subList(0, 2)) {
+            assertTrue(partition.size() >= 4);
+        }
+    }
+
+    @Test
+    public void partitionedFiringShouldMatchOneUnit() {
+        assertPartitionedFiringMatchesOneUnit(true);
+    }
+
+    @Test
+    public void partitionedRulesShouldMatchOneUnit() {
+        assertPartitionedFiringMatchesOneUnit(false);
+    }
+
+    @Test
+    public void partitionedRulesShouldMatchOneUnitOnIndependentPairs() {
+        for (long seed = 1; seed <= 3; seed++) {
+            assertPartitionedFiringMatchesOneUnit(false, ElutionOrderTest.independentPairs(seed),
+                    ElutionOrderTest.independentPairs(seed));
+        }
+    }
+
+    private static void assertPartitionedFiringMatchesOneUnit(boolean nativeElutionScoring) {
+        List<Annotation> single = new ArrayList<>();
+        List<Annotation> partitioned = new ArrayList<>();
+        LipidType[] types = {LipidType.PG, LipidType.PE, LipidType.PI, LipidType.PC, LipidType.TG};
+        for (int i = 0; i < 40; i++) {
+            LipidType type = types[i % types.length];
+            int carbons = 30 + (i * 7) % 11;
+            int doubleBonds = (i * 3) % 4;
+            double rt = (i * 13) % 17;
+            single.add(annotation(i, type, carbons, doubleBonds, rt));
+            partitioned.add(annotation(i, type, carbons, doubleBonds, rt));
+        }
+        assertPartitionedFiringMatchesOneUnit(nativeElutionScoring, single, partitioned);
+    }
+
+    /**
+     * Fire the rules over single in one unit and over partitioned (the same annotations) with PartitionedLipidScorer
+     */
+    private static void assertPartitionedFiringMatchesOneUnit(boolean nativeElutionScoring, List<Annotation> single,
+                                                             List<Annotation> partitioned) {
+        LipidScoreUnit unit = new LipidScoreUnit();
+        unit.setNativeElutionScoringEnabled(nativeElutionScoring);
+        single.forEach(unit.getAnnotations()::add);
+        LipidScorer.fire(unit);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            LipidScoreUnit settings = new LipidScoreUnit();
+            settings.setNativeElutionScoringEnabled(nativeElutionScoring);
+            new PartitionedLipidScorer(executor, 1).fire(settings, partitioned);
+        } finally {
+            executor.shutdown();
+        }
+        for (int i = 0; i < single.size(); i++) {
+            assertEquals(single.get(i).getScore(), partitioned.get(i).getScore());
+            assertEquals(single.get(i).getTotalScoreApplied(), partitioned.get(i).getTotalScoreApplied());
+            assertEquals(single.get(i).isHasBeenScored(), partitioned.get(i).isHasBeenScored());
+            assertEquals(single.get(i).getAdduct(), partitioned.get(i).getAdduct());
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package lipid;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PeakListTest {
+
+    @Test
+    public void shouldSortAndKeepFirstPeakOfEachMz() {
+        PeakList peaks = PeakList.of(List.of(new Peak(722.482, 8.0e4), new Peak(700.500, 1.0e5), new Peak(722.482, 1.0)));
+        assertEquals(2, peaks.size());
+        assertEquals(700.500, peaks.getMz(0), 0.0);
+        assertEquals(722.482, peaks.getMz(1), 0.0);
+        assertEquals(8.0e4, peaks.getIntensity(1), 0.0);
+        assertEquals(0, peaks.indexOfMaxIntensity());
+    }
+
+    @Test
+    public void shouldQueryMzWindows() {
+        PeakList peaks = PeakList.of(new double[]{857.7593, 839.7487, 885.7906, 907.7731}, new double[]{1, 2, 3, 4});
+        assertEquals(1, peaks.lowerBound(850));
+        assertEquals(3, peaks.upperBound(885.7906));
+        PeakList window = peaks.range(850, 890);
+        assertEquals(2, window.size());
+        assertEquals(857.7593, window.getMz(0), 0.0);
+        assertEquals(1, window.indexOf(885.79, 0.01));
+        assertEquals(-1, window.indexOf(907.7731, 0.01)); // Outside the window
+        assertEquals(3, peaks.indexOf(907.7731, 0.0));
+    }
+
+    @Test
+    public void setViewShouldBehaveLikeTheSortedSet() {
+        Set<Peak> original = Set.of(new Peak(913.8220, 1.0e5), new Peak(457.41465, 0.5e5));
+        Set<Peak> view = PeakList.of(original).asSet();
+        assertEquals(original, view);
+        assertTrue(view.contains(new Peak(457.41465, 0)));
+        assertFalse(view.contains(new Peak(457.4, 0)));
+        assertEquals(457.41465, view.iterator().next().getMz(), 0.0);
+    }
+
+    @Test
+    public void arraysShouldBeSortedAsPeaks() {
+        Random random = new Random(9);
+        for (int size : new int[]{0, 1, 5, 31, 32, 33, 200, 1000}) {
+            double[] mz = new double[size];
+            double[] intensity = new double[size];
+            List<Peak> peaks = new ArrayList<>();
+            for (int i = 0; i < size; i++) {
+                mz[i] = 400 + random.nextInt(size / 2 + 1) * 0.5; // Repeated m/z values
+                intensity[i] = i;
+                peaks.add(new Peak(mz[i], intensity[i]));
+            }
+            PeakList expected = PeakList.of(peaks);
+            PeakList sorted = PeakList.of(mz, intensity);
+            int distinct = PeakList.sortByMz(mz, intensity, size);
+            assertEquals(expected.size(), distinct);
+            assertEquals(expected.size(), sorted.size());
+            for (int i = 0; i < distinct; i++) {
+                assertEquals(expected.getMz(i), mz[i], 0.0);
+                assertEquals(expected.getIntensity(i), intensity[i], 0.0); // First peak of each m/z
+                assertEquals(expected.getMz(i), sorted.getMz(i), 0.0);
+                assertEquals(expected.getIntensity(i), sorted.getIntensity(i), 0.0);
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void wrapShouldRejectUnsortedArrays() {
+        PeakList.wrap(new double[]{2, 1}, new double[]{1, 1}, 0, 2);
+    }
+}
@@ -0,0 +1,93 @@
+package lipid;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RuleProfilerTest {
+
+    private static RuleProfiler.RuleMetrics metrics(RuleProfiler profiler, String rule) {
+        for (RuleProfiler.RuleMetrics metrics : profiler.snapshot()) {
+            if (metrics.getRule().equals(rule)) {
+                return metrics;
+            }
+        }
+        throw new AssertionError("No metrics for " + rule);
+    }
+
+    @Test
+    public void shouldAttributeUpdatesToFiringRule() {
+        RuleProfiler profiler = new RuleProfiler();
+        profiler.matchCreated("Detect adduct");
+        profiler.matchCreated("Detect adduct");
+        profiler.matchCancelled("Detect adduct");
+        profiler.beforeFired("Detect adduct");
+        profiler.updated("Detect adduct");
+        profiler.matchCreated("Score +1: RT increases with carbon number");
+        profiler.afterFired();
+        profiler.updated(null); // Update made from outside the rules
+        profiler.matchCreated("Score +1: RT increases with carbon number");
+
+        RuleProfiler.RuleMetrics adduct = metrics(profiler, "Detect adduct");
+        assertEquals(2, adduct.getMatchesCreated());
+        assertEquals(1, adduct.getMatchesCancelled());
+        assertEquals(1, adduct.getFired());
+        assertEquals(1, adduct.getUpdates());
+        assertTrue(adduct.getConsequenceNanos() >= 0);
+
+        RuleProfiler.RuleMetrics carbons = metrics(profiler, "Score +1: RT increases with carbon number");
+        assertEquals(2, carbons.getMatchesCreated());
+        assertEquals(0, carbons.getFired());
+        assertEquals(0, carbons.getUpdates());
+
+        profiler.reset();
+        assertTrue(profiler.snapshot().isEmpty());
+    }
+
+    @Test
+    public void shouldWriteOneCsvLinePerRule() throws IOException {
+        RuleProfiler profiler = new RuleProfiler();
+        profiler.beforeFired("Score 0: RT not consistent, with more double bonds");
+        profiler.afterFired();
+        profiler.matchCreated("Fallback");
+
+        StringWriter csv = new StringWriter();
+        profiler.writeCsv(csv);
+        List<String> lines = csv.toString().lines().toList();
+        assertEquals(3, lines.size());
+        assertEquals(RuleProfiler.CSV_HEADER, lines.get(0));
+        assertTrue(lines.contains("Fallback,1,0,0,0,0"));
+        assertTrue(lines.stream().anyMatch(line -> line.startsWith("\"Score 0: RT not consistent, with more double bonds\",0,0,1,")));
+    }
+
+    @Test
+    public void shouldCountTheRulesFiredByLipidScorer() {
+        LipidScoreUnit unit = new LipidScoreUnit();
+        unit.getAnnotations().add(new Annotation(new Lipid(1, "TG 54:3", "C57H104O6", LipidType.TG, 54, 3), 885.79056, 1.0e7, 10d, IoniationMode.POSITIVE));
+        unit.getAnnotations().add(new Annotation(new Lipid(2, "TG 54:4", "C57H102O6", LipidType.TG, 54, 4), 883.77492, 1.0e8, 9d, IoniationMode.POSITIVE));
+        unit.getAnnotations().add(new Annotation(new Lipid(3, "TG 54:2", "C57H106O6", LipidType.TG, 54, 2), 887.80622, 1.0e6, 8d, IoniationMode.POSITIVE));
+        RuleProfiler profiler = new RuleProfiler();
+
+        int fired = LipidScorer.fire(unit, profiler);
+
+        long total = 0;
+        for (RuleProfiler.RuleMetrics metrics : profiler.snapshot()) {
+            assertTrue(metrics.toString(), metrics.getMatchesCreated() >= metrics.getFired());
+            total += metrics.getFired();
+        }
+        assertEquals(fired, total);
+        RuleProfiler.RuleMetrics inconsistent = metrics(profiler, "Score 0: RT not consistent with double bond count");
+        assertEquals(2, inconsistent.getFired()); // TG 54:3 and TG 54:4 against TG 54:2
+        assertEquals(4, inconsistent.getUpdates());
+        assertTrue(inconsistent.getConsequenceNanos() > 0);
+        RuleProfiler.RuleMetrics reverse = metrics(profiler, "Score +1: RT increases with fewer double bonds (same type and C) - reverse");
+        assertEquals(2, reverse.getFired()); // Once more after "Score 0" updates TG 54:3 (see ElutionOrderScorer)
+        assertEquals(4, reverse.getUpdates());
+        assertTrue(reverse.getMatchesCreated() >= 2);
+    }
+}
@@ -0,0 +1,77 @@
+package lipid;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class SlidingWindowScorerTest {
+
+    private static Annotation annotation(Lipid lipid, double rt) {
+        return new Annotation(lipid, 885.79056, 1.0e6, rt, IoniationMode.POSITIVE);
+    }
+
+    @Test
+    public void shouldEmitAnnotationsOnceOutOfWindow() {
+        List<Annotation> emitted = new ArrayList<>();
+        try (SlidingWindowScorer scorer = new SlidingWindowScorer(new LipidScoreUnit(), 1.5, emitted::add)) {
+            Annotation a3 = annotation(new Lipid(3, "TG 56:3", "C59H108O6", LipidType.TG, 56, 3), 8);
+            Annotation a2 = annotation(new Lipid(2, "TG 52:3", "C55H100O6", LipidType.TG, 52, 3), 9);
+            Annotation a1 = annotation(new Lipid(1, "TG 54:3", "C57H104O6", LipidType.TG, 54, 3), 10);
+            scorer.add(a3);
+            scorer.add(a2);
+            assertEquals(0, emitted.size());
+            scorer.add(a1); // 10 - 8 > 1.5: a3 is final and never compared with a1
+            assertEquals(1, emitted.size());
+            assertSame(a3, emitted.get(0));
+            assertEquals(-1, a3.getScore()); // Only "too early with more carbons" against a2
+            assertEquals(1, a3.getTotalScoreApplied());
+
+            scorer.advanceTo(10.6);
+            assertEquals(List.of(a3, a2), emitted);
+            assertEquals(1, a1.getScore());
+            assertEquals(1, scorer.size());
+        }
+        assertEquals(3, emitted.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectAnnotationsOutOfRtOrder() {
+        try (SlidingWindowScorer scorer = new SlidingWindowScorer(new LipidScoreUnit(), 1, annotation -> {
+        })) {
+            scorer.add(annotation(new Lipid(1, "TG 54:3", "C57H104O6", LipidType.TG, 54, 3), 10));
+            scorer.add(annotation(new Lipid(2, "TG 52:3", "C55H100O6", LipidType.TG, 52, 3), 9));
+        }
+    }
+
+    @Test
+    public void wideWindowShouldMatchBatchScoring() {
+        Random random = new Random(11);
+        LipidType[] types = {LipidType.PG, LipidType.PI, LipidType.PC, LipidType.TG};
+        List<Annotation> online = new ArrayList<>();
+        List<Annotation> batch = new ArrayList<>();
+        double rt = 0;
+        for (int i = 0; i < 300; i++) {
+            rt += random.nextInt(3) * 0.1;
+            Lipid lipid = new Lipid(random.nextInt(40), "L" + i, "", types[random.nextInt(types.length)],
+                    30 + random.nextInt(4), random.nextInt(3));
+            online.add(annotation(lipid, rt));
+            batch.add(annotation(lipid, rt));
+        }
+        List<Annotation> emitted = new ArrayList<>();
+        try (SlidingWindowScorer scorer = new SlidingWindowScorer(new LipidScoreUnit(), rt + 1, emitted::add)) {
+            online.forEach(scorer::add);
+            assertEquals(0, emitted.size());
+        }
+        ElutionOrderScorer.score(batch);
+        assertEquals(online, emitted);
+        for (int i = 0; i < online.size(); i++) {
+            assertEquals("score of " + i, batch.get(i).getScore(), online.get(i).getScore());
+            assertEquals("applied of " + i, batch.get(i).getTotalScoreApplied(), online.get(i).getTotalScoreApplied());
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package main;
+
+import io.BinaryAnnotationReader;
+import lipid.LipidScoreUnit;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BatchRunnerTest {
+
+    @Test
+    public void shouldAnnotateEverySampleAndReportFailures() throws IOException {
+        Path directory = Files.createTempDirectory("batch");
+        Path first = directory.resolve("run1.csv");
+        Path second = directory.resolve("run2.csv");
+        Path missing = directory.resolve("run3.csv");
+        Files.writeString(first, "mz,rtMin,intensity,ionizationMode,compoundId,name,formula,lipidType,carbons,doubleBonds,peaks\n"
+                + "885.79056,10,1.0e7,POSITIVE,1,TG 54:3,C57H104O6,TG,54,3,\n"
+                + "857.7593,9,1.0e8,POSITIVE,2,TG 52:3,C55H100O6,TG,52,3,\n", StandardCharsets.UTF_8);
+        Files.writeString(second, "913.8220,8,1.0e6,POSITIVE,3,TG 56:3,C59H108O6,TG,56,3,\n", StandardCharsets.UTF_8);
+        LipidScoreUnit settings = new LipidScoreUnit();
+        settings.setNativeElutionScoringEnabled(true);
+        AtomicInteger finished = new AtomicInteger();
+        try (BatchRunner runner = new BatchRunner(settings, 2, 2, null, BatchRunner.OutputFormat.BINARY)) {
+            List<BatchRunner.SampleResult> results = runner.run(List.of(first, second, missing), directory.resolve("out"),
+                    new BatchRunner.Progress() {
+                        @Override
+                        public void finished(BatchRunner.SampleResult result, int completed, int total) {
+                            assertEquals(3, total);
+                            finished.incrementAndGet();
+                        }
+                    });
+            assertEquals(3, finished.get());
+            assertTrue(results.get(0).isSuccessful());
+            assertEquals(2, results.get(0).getRows());
+            assertEquals(directory.resolve("out").resolve("run1.lpsc"), results.get(0).getOutput());
+            assertTrue(results.get(1).isSuccessful());
+            assertFalse(results.get(2).isSuccessful());
+
+            try (BinaryAnnotationReader reader = BinaryAnnotationReader.open(results.get(0).getOutput())) {
+                assertTrue(reader.next()); // Sorted by RT when read
+                assertEquals(2, reader.getLipidId());
+                assertEquals(0, reader.getScore());
+                assertTrue(reader.next());
+                assertEquals(1, reader.getLipidId());
+                assertEquals(1, reader.getScore());
+                assertFalse(reader.next());
+            }
+        }
+    }
+
+    @Test
+    public void shouldRejectSamplesWithTheSameFileName() throws IOException {
+        Path directory = Files.createTempDirectory("batch");
+        Path first = Files.createDirectories(directory.resolve("runA")).resolve("features.csv");
+        Path second = Files.createDirectories(directory.resolve("runB")).resolve("features.csv");
+        Files.writeString(first, "885.79056,10,1.0e7,POSITIVE,1,TG 54:3,C57H104O6,TG,54,3,\n", StandardCharsets.UTF_8);
+        Files.writeString(second, "913.8220,8,1.0e6,POSITIVE,3,TG 56:3,C59H108O6,TG,56,3,\n", StandardCharsets.UTF_8);
+        try (BatchRunner runner = new BatchRunner(new LipidScoreUnit(), 2, 2, null, BatchRunner.OutputFormat.CSV)) {
+            runner.run(List.of(first, second), directory.resolve("out"), new BatchRunner.Progress() {
+            });
+            fail("Both samples would be written to out/features.csv");
+        } catch (IllegalArgumentException expected) {
+            assertTrue(expected.getMessage().contains("features.csv"));
+        }
+        assertFalse(Files.exists(directory.resolve("out")));
+    }
+}